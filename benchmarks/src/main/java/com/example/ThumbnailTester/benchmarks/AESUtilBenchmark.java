@@ -0,0 +1,76 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.util.AESUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh-token encryption, run on every sign-in and every token refresh:
+ * AES-GCM with cached keys and per-thread ciphers, the legacy ECB decrypt path,
+ * and the former implementation that built the key and cipher on every call.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AESUtilBenchmark {
+    private static final String KEY = "0123456789abcdef";
+    private static final String REFRESH_TOKEN = "1//0gLx8ZkR3example-refresh-token-AbCdEfGhIjKlMnOpQrStUvWxYz0123456789";
+
+    private AESUtil aesUtil;
+    private String encrypted;
+    private String legacyEncrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        aesUtil = Beans.inject(new AESUtil(), "keyAes", KEY);
+        aesUtil.init();
+        encrypted = aesUtil.encrypt(REFRESH_TOKEN);
+        legacyEncrypted = perCallEncrypt();
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return aesUtil.encrypt(REFRESH_TOKEN);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return aesUtil.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public String decryptLegacy() throws Exception {
+        return aesUtil.decrypt(legacyEncrypted);
+    }
+
+    @Benchmark
+    public String perCallEncrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), "AES"));
+        return Base64.getEncoder().encodeToString(cipher.doFinal(REFRESH_TOKEN.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public String perCallDecrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), "AES"));
+        return new String(cipher.doFinal(Base64.getDecoder().decode(legacyEncrypted)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.util.AnalyticsReport;
+import com.example.ThumbnailTester.util.AnalyticsReportDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a {@code dimensions=video} Analytics report into per-video stats:
+ * the former {@code readTree} path with fixed column positions against the streaming decoder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyticsDecodeBenchmark {
+    private static final String[] METRICS = {"views", "averageViewDuration", "comments", "shares", "likes",
+            "subscribersGained", "averageViewPercentage", "estimatedMinutesWatched"};
+
+    @Param({"1", "20", "200"})
+    private int rows;
+
+    private byte[] body;
+    private ObjectMapper objectMapper;
+    private AnalyticsReportDecoder decoder;
+    private AnalyticsReport report;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        decoder = new AnalyticsReportDecoder(objectMapper.getFactory());
+        report = new AnalyticsReport();
+        body = response(rows).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, ThumbnailStats> tree() throws IOException {
+        JsonNode responseJson = objectMapper.readTree(new ByteArrayInputStream(body));
+        Map<String, ThumbnailStats> statsByVideo = new HashMap<>();
+        for (JsonNode row : responseJson.path("rows")) {
+            ThumbnailStats stats = new ThumbnailStats();
+            stats.setViews(row.path(1).isNull() ? null : row.path(1).asInt());
+            stats.setAverageViewDuration(row.path(2).isNull() ? null : row.path(2).asDouble());
+            stats.setComments(row.path(3).isNull() ? null : row.path(3).asInt());
+            stats.setShares(row.path(4).isNull() ? null : row.path(4).asInt());
+            stats.setLikes(row.path(5).isNull() ? null : row.path(5).asInt());
+            stats.setSubscribersGained(row.path(6).isNull() ? null : row.path(6).asInt());
+            stats.setAverageViewPercentage(row.path(7).isNull() ? null : row.path(7).asDouble());
+            stats.setTotalWatchTime(row.path(8).isNull() ? null : row.path(8).asLong());
+            statsByVideo.put(row.path(0).asText(), stats);
+        }
+        return statsByVideo;
+    }
+
+    @Benchmark
+    public Map<String, ThumbnailStats> streaming() throws IOException {
+        decoder.decode(new ByteArrayInputStream(body), report);
+        int video = report.columnIndex("video");
+        int views = report.columnIndex("views");
+        int averageViewDuration = report.columnIndex("averageViewDuration");
+        int comments = report.columnIndex("comments");
+        int shares = report.columnIndex("shares");
+        int likes = report.columnIndex("likes");
+        int subscribersGained = report.columnIndex("subscribersGained");
+        int averageViewPercentage = report.columnIndex("averageViewPercentage");
+        int estimatedMinutesWatched = report.columnIndex("estimatedMinutesWatched");
+
+        Map<String, ThumbnailStats> statsByVideo = new HashMap<>();
+        for (int row = 0; row < report.getRowCount(); row++) {
+            ThumbnailStats stats = new ThumbnailStats();
+            stats.setViews(report.isNull(row, views) ? null : (int) report.getLong(row, views));
+            stats.setAverageViewDuration(report.isNull(row, averageViewDuration) ? null : report.getDouble(row, averageViewDuration));
+            stats.setComments(report.isNull(row, comments) ? null : (int) report.getLong(row, comments));
+            stats.setShares(report.isNull(row, shares) ? null : (int) report.getLong(row, shares));
+            stats.setLikes(report.isNull(row, likes) ? null : (int) report.getLong(row, likes));
+            stats.setSubscribersGained(report.isNull(row, subscribersGained) ? null : (int) report.getLong(row, subscribersGained));
+            stats.setAverageViewPercentage(report.isNull(row, averageViewPercentage) ? null : report.getDouble(row, averageViewPercentage));
+            stats.setTotalWatchTime(report.isNull(row, estimatedMinutesWatched) ? null : report.getLong(row, estimatedMinutesWatched));
+            statsByVideo.put(report.getString(row, video), stats);
+        }
+        return statsByVideo;
+    }
+
+    private static String response(int rowCount) {
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder("{\"kind\":\"youtubeAnalytics#resultTable\",\"columnHeaders\":[");
+        json.append("{\"name\":\"video\",\"columnType\":\"DIMENSION\",\"dataType\":\"STRING\"}");
+        for (String metric : METRICS) {
+            json.append(",{\"name\":\"").append(metric).append("\",\"columnType\":\"METRIC\",\"dataType\":\"INTEGER\"}");
+        }
+        json.append("],\"rows\":[");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("[\"vid").append(String.format("%08d", i)).append('"');
+            json.append(',').append(random.nextInt(100_000));
+            json.append(',').append(random.nextInt(600) + random.nextDouble());
+            json.append(',').append(random.nextInt(500));
+            json.append(',').append(random.nextInt(300));
+            json.append(',').append(random.nextInt(5_000));
+            json.append(',').append(random.nextInt(200));
+            json.append(',').append(random.nextDouble() * 100);
+            json.append(',').append(random.nextInt(1_000_000));
+            json.append(']');
+        }
+        return json.append("]}").toString();
+    }
+}
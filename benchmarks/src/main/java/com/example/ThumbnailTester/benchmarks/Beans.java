@@ -0,0 +1,28 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import java.lang.reflect.Field;
+
+/**
+ * Wires the field-injected services of the application without starting a Spring context.
+ */
+final class Beans {
+    private Beans() {
+    }
+
+    static <T> T inject(T target, String fieldName, Object value) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return target;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + fieldName + " in " + target.getClass().getName());
+    }
+}
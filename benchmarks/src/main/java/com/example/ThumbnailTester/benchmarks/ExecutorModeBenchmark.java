@@ -0,0 +1,79 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.config.AsyncConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of test submissions that each block on a remote call, run on the executor built by
+ * {@link AsyncConfig} in {@code platform} and in {@code virtual} mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorModeBenchmark {
+    @Param({AsyncConfig.MODE_PLATFORM, AsyncConfig.MODE_VIRTUAL})
+    private String mode;
+
+    @Param({"500"})
+    private int tasks;
+
+    @Param({"20"})
+    private int blockMillis;
+
+    private Executor executor;
+
+    @Setup
+    public void setUp() {
+        AsyncConfig config = new AsyncConfig();
+        Beans.inject(config, "executorMode", mode);
+        Beans.inject(config, "corePoolSize", 50);
+        Beans.inject(config, "maxPoolSize", 100);
+        Beans.inject(config, "queueCapacity", 500);
+        executor = config.executor();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        } else if (executor instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.services.ImageNormalizationService;
+import com.example.ThumbnailTester.services.ThumbnailService;
+import com.example.ThumbnailTester.util.ImageProbe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a downloaded 1280x720 thumbnail: reading its header only against decoding all pixels,
+ * which is what validation did before, and the full {@link ThumbnailService#isValid} check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageValidationBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({"jpg", "png"})
+    private String format;
+
+    private final UserData user = new UserData("benchmark-user", "refresh-token");
+    private File image;
+    private ThumbnailService thumbnailService;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Files.createTempFile("thumbnail-benchmark-", "." + format).toFile();
+        if (!ImageIO.write(fixture(), format, image)) {
+            throw new IllegalStateException("No ImageIO writer for " + format);
+        }
+        thumbnailService = new ThumbnailService(null);
+        Beans.inject(thumbnailService, "imageNormalizationService", new ImageNormalizationService(null));
+        if (!thumbnailService.isValid(user, image)) {
+            throw new IllegalStateException("Fixture " + image + " does not pass validation");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(image.toPath());
+    }
+
+    @Benchmark
+    public boolean probeHeader() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(image.toPath()))) {
+            ImageProbe.ImageInfo info = ImageProbe.probe(in);
+            return info != null && info.getWidth() * 9 == info.getHeight() * 16;
+        }
+    }
+
+    @Benchmark
+    public boolean decodeFull() throws IOException {
+        BufferedImage decoded = ImageIO.read(image);
+        return decoded != null && decoded.getWidth() * 9 == decoded.getHeight() * 16;
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return thumbnailService.isValid(user, image);
+    }
+
+    /**
+     * A gradient with light noise, so the encoders produce realistic rather than trivially small files.
+     */
+    private static BufferedImage fixture() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int noise = random.nextInt(8);
+                int r = (x * 255 / WIDTH + noise) & 0xFF;
+                int g = (y * 255 / HEIGHT + noise) & 0xFF;
+                int b = ((x + y) * 255 / (WIDTH + HEIGHT) + noise) & 0xFF;
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.Request.ThumbnailRequest;
+import com.example.ThumbnailTester.Request.ThumbnailTestConfRequest;
+import com.example.ThumbnailTester.Request.UserRequest;
+import com.example.ThumbnailTester.data.thumbnail.TestingType;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.mapper.Mapper;
+import com.example.ThumbnailTester.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request-to-entity mapping done for every incoming test.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+    @Param({"2", "10", "50"})
+    private int options;
+
+    private Mapper mapper;
+    private ThumbnailRequest request;
+    private ThumbnailData thumbnailData;
+
+    @Setup
+    public void setUp() {
+        UserService userService = new UserService() {
+            @Override
+            public UserData getByGoogleId(String googleId) {
+                return null;
+            }
+        };
+        mapper = Beans.inject(new Mapper(), "userService", userService);
+
+        List<String> images = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < options; i++) {
+            images.add("https://example.supabase.co/storage/v1/object/public/thumbnails/option-" + i + ".jpg");
+            texts.add("Video title variant " + i);
+        }
+        request = new ThumbnailRequest();
+        request.setImages(images);
+        request.setTexts(texts);
+        request.setVideoUrl("https://www.youtube.com/watch?v=dQw4w9WgXcQ");
+        request.setTestConfRequest(new ThumbnailTestConfRequest("THUMBNAILTEXT", "TIME_BASED", 60, 0, "VIEWS"));
+        request.setUserDTO(new UserRequest("google-id", "encrypted-refresh-token"));
+        thumbnailData = new ThumbnailData();
+    }
+
+    @Benchmark
+    public ThumbnailData thumbnailRequestToData() {
+        return mapper.thumbnailRequestToData(request);
+    }
+
+    @Benchmark
+    public List<ImageOption> createImageOptions() {
+        return mapper.createImageOptions(request.getImages(), request.getTexts(), thumbnailData, TestingType.THUMBNAILTEXT);
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.TestingMode;
+import com.example.ThumbnailTester.data.thumbnail.TestingType;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailTestConf;
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ImageOption;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * JDBC statements needed to persist one test from creation to the winner, on an in-memory H2 database.
+ * <ul>
+ *     <li>{@code identity-merge}: the former setup, IDENTITY ids (one INSERT per row, no batching) and
+ *     a merge of the whole {@code ThumbnailData} graph on every save.</li>
+ *     <li>{@code sequence-targeted}: pooled sequences with ordered JDBC batches, a single UPDATE of the
+ *     stats row per poll and one UPDATE of the winner flags.</li>
+ * </ul>
+ * Each iteration runs one test, so the {@code statements} counter is the number of prepared statements
+ * per test; with batching a whole batch counts once.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceStatementBenchmark {
+    private static final String UPDATE_STATS = "update ThumbnailStats s set s.views = :views, s.ctr = :ctr, "
+            + "s.averageViewDuration = :averageViewDuration, s.advCtr = :advCtr, s.comments = :comments, s.shares = :shares, "
+            + "s.likes = :likes, s.subscribersGained = :subscribersGained, s.averageViewPercentage = :averageViewPercentage, "
+            + "s.totalWatchTime = :totalWatchTime where s.id = :id";
+    private static final String MARK_WINNER = "update ImageOption o set o.isWinner = (case when o.id = :winnerId then true else false end) "
+            + "where o.thumbnail.id = :thumbnailId";
+
+    @Param({"identity-merge", "sequence-targeted"})
+    private String mode;
+
+    @Param({"5", "20"})
+    private int options;
+
+    private SessionFactory sessionFactory;
+    private Statistics statistics;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long statements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean batched = "sequence-targeted".equals(mode);
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting("hibernate.connection.url", "jdbc:h2:mem:" + mode + options + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1")
+                .applySetting("hibernate.hbm2ddl.auto", "create-drop")
+                .applySetting("hibernate.generate_statistics", "true")
+                .applySetting("hibernate.jdbc.batch_size", batched ? "50" : "0")
+                .applySetting("hibernate.order_inserts", String.valueOf(batched))
+                .applySetting("hibernate.order_updates", String.valueOf(batched))
+                .build();
+        MetadataSources sources = new MetadataSources(registry)
+                .addAnnotatedClass(UserData.class)
+                .addAnnotatedClass(ThumbnailData.class)
+                .addAnnotatedClass(ThumbnailTestConf.class)
+                .addAnnotatedClass(ImageOption.class)
+                .addAnnotatedClass(ThumbnailStats.class);
+        if (!batched) {
+            sources.addResource("identity-ids.orm.xml");
+        }
+        sessionFactory = sources.buildMetadata().buildSessionFactory();
+        statistics = sessionFactory.getStatistics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public ThumbnailData testLifecycle(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        ThumbnailData thumbnailData = "identity-merge".equals(mode) ? identityMerge() : sequenceTargeted();
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        return thumbnailData;
+    }
+
+    /**
+     * The former write pattern: every step merged the whole detached graph. The polled stats keep the
+     * id of the stored row, which is the best case for it; without the id the merge inserts a second
+     * stats row per option.
+     */
+    private ThumbnailData identityMerge() {
+        ThumbnailData created = newTest();
+        inTransaction(session -> session.persist(created.getUser()));
+        ThumbnailData[] graph = {created};
+        inTransaction(session -> session.persist(graph[0]));
+
+        for (int i = 0; i < options; i++) {
+            int index = i;
+            emptyStats(graph[0].getImageOptions().get(index));
+            inTransaction(session -> graph[0] = session.merge(graph[0]));
+
+            ImageOption option = graph[0].getImageOptions().get(index);
+            Long statsId = option.getThumbnailStats().getId();
+            polledStats(option).setId(statsId);
+            inTransaction(session -> graph[0] = session.merge(graph[0]));
+        }
+
+        graph[0].getImageOptions().get(0).setWinner(true);
+        inTransaction(session -> graph[0] = session.merge(graph[0]));
+        return graph[0];
+    }
+
+    /**
+     * The current write pattern of {@code ThumbnailTestService} and {@code ThumbnailStatsService}.
+     */
+    private ThumbnailData sequenceTargeted() {
+        ThumbnailData thumbnailData = newTest();
+        inTransaction(session -> session.persist(thumbnailData.getUser()));
+        inTransaction(session -> session.persist(thumbnailData));
+
+        for (ImageOption option : thumbnailData.getImageOptions()) {
+            ThumbnailStats stats = emptyStats(option);
+            inTransaction(session -> session.persist(stats));
+
+            ThumbnailStats polled = polledStats(option);
+            polled.setId(stats.getId());
+            option.setThumbnailStats(polled);
+            inTransaction(session -> session.createMutationQuery(UPDATE_STATS)
+                    .setParameter("views", polled.getViews())
+                    .setParameter("ctr", polled.getCtr())
+                    .setParameter("averageViewDuration", polled.getAverageViewDuration())
+                    .setParameter("advCtr", polled.getAdvCtr())
+                    .setParameter("comments", polled.getComments())
+                    .setParameter("shares", polled.getShares())
+                    .setParameter("likes", polled.getLikes())
+                    .setParameter("subscribersGained", polled.getSubscribersGained())
+                    .setParameter("averageViewPercentage", polled.getAverageViewPercentage())
+                    .setParameter("totalWatchTime", polled.getTotalWatchTime())
+                    .setParameter("id", polled.getId())
+                    .executeUpdate());
+        }
+
+        Long winnerId = thumbnailData.getImageOptions().get(0).getId();
+        inTransaction(session -> session.createMutationQuery(MARK_WINNER)
+                .setParameter("winnerId", winnerId)
+                .setParameter("thumbnailId", thumbnailData.getId())
+                .executeUpdate());
+        return thumbnailData;
+    }
+
+    private ThumbnailData newTest() {
+        UserData user = new UserData(UUID.randomUUID().toString(), "refresh-token");
+        List<ImageOption> imageOptions = new ArrayList<>();
+        for (int i = 0; i < options; i++) {
+            ImageOption option = new ImageOption();
+            option.setFileUrl("https://example.com/thumbnail-" + i + ".jpg");
+            option.setText("Title " + i);
+            imageOptions.add(option);
+        }
+
+        ThumbnailTestConf testConf = new ThumbnailTestConf();
+        testConf.setTestType(TestingType.THUMBNAIL);
+        testConf.setTestingMode(TestingMode.TIME_BASED);
+        testConf.setTestingByTimeMinutes(60);
+        testConf.setCriterionOfWinner(CriterionOfWinner.VIEWS);
+
+        ThumbnailData thumbnailData = new ThumbnailData(null, "https://www.youtube.com/watch?v=" + UUID.randomUUID(), null, user);
+        thumbnailData.setImageOptions(imageOptions);
+        thumbnailData.setTestConf(testConf);
+        return thumbnailData;
+    }
+
+    private static ThumbnailStats emptyStats(ImageOption option) {
+        ThumbnailStats stats = new ThumbnailStats();
+        stats.setViews(0);
+        stats.setCtr(0.0);
+        stats.setAverageViewDuration(0.0);
+        stats.setAdvCtr(0.0);
+        stats.setComments(0);
+        stats.setShares(0);
+        stats.setLikes(0);
+        stats.setSubscribersGained(0);
+        stats.setAverageViewPercentage(0.0);
+        stats.setTotalWatchTime(0L);
+        stats.setImageOption(option);
+        option.setThumbnailStats(stats);
+        return stats;
+    }
+
+    private static ThumbnailStats polledStats(ImageOption option) {
+        ThumbnailStats stats = emptyStats(option);
+        stats.setViews(1200);
+        stats.setAverageViewDuration(95.0);
+        stats.setLikes(40);
+        stats.setTotalWatchTime(1900L);
+        return stats;
+    }
+
+    private void inTransaction(Consumer<Session> work) {
+        sessionFactory.inTransaction(work);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.services.YouTubeAnalyticsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Difference of two analytics snapshots, computed for every collected slot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatsDifferenceBenchmark {
+    private YouTubeAnalyticsService analyticsService;
+    private ThumbnailStats later;
+    private ThumbnailStats earlier;
+
+    @Setup
+    public void setUp() {
+        analyticsService = new YouTubeAnalyticsService(null);
+        later = stats(15_320, 212.5, 48, 17, 903, 31, 46.2, 54_210L);
+        earlier = stats(12_004, 198.0, 40, 12, 811, 27, 44.9, 41_002L);
+    }
+
+    @Benchmark
+    public ThumbnailStats calculateStatsDifference() {
+        return analyticsService.calculateStatsDifference(later, earlier);
+    }
+
+    private static ThumbnailStats stats(int views, double avd, int comments, int shares, int likes, int subscribers,
+                                        double viewPercentage, long watchTime) {
+        ThumbnailStats stats = new ThumbnailStats();
+        stats.setViews(views);
+        stats.setAverageViewDuration(avd);
+        stats.setComments(comments);
+        stats.setShares(shares);
+        stats.setLikes(likes);
+        stats.setSubscribersGained(subscribers);
+        stats.setAverageViewPercentage(viewPercentage);
+        stats.setTotalWatchTime(watchTime);
+        return stats;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestRunState;
+import com.example.ThumbnailTester.data.thumbnail.TestingMode;
+import com.example.ThumbnailTester.data.thumbnail.TestingType;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailTestConf;
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.dto.TestHistoryItem;
+import com.example.ThumbnailTester.dto.TestHistoryOption;
+import com.example.ThumbnailTester.repositories.ThumbnailRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One page of a user's test history on an in-memory H2 database, {@code tests} tests with {@code options}
+ * options each.
+ * <ul>
+ *     <li>{@code projection}: the two projection queries of {@link ThumbnailRepository} used by the history API,
+ *     read from their {@code @Query} annotations.</li>
+ *     <li>{@code entity}: loading the {@code ThumbnailData} entities and walking options and stats lazily,
+ *     as {@code findAllByUserId} did.</li>
+ * </ul>
+ * A projection page takes 2 statements; an entity page takes 1 plus 2 per test for the associations loaded
+ * one test at a time, i.e. 101 for 50 tests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestHistoryQueryBenchmark {
+    private static final String GOOGLE_ID = "history-user";
+    private static final int STORED_PAGES = 10;
+
+    @Param({"projection", "entity"})
+    private String mode;
+
+    @Param({"50"})
+    private int tests;
+
+    @Param({"10"})
+    private int options;
+
+    private SessionFactory sessionFactory;
+    private String pageQuery;
+    private String optionsQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting("hibernate.connection.url", "jdbc:h2:mem:history-" + mode + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1")
+                .applySetting("hibernate.hbm2ddl.auto", "create-drop")
+                .applySetting("hibernate.jdbc.batch_size", "50")
+                .applySetting("hibernate.order_inserts", "true")
+                .build();
+        sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(UserData.class)
+                .addAnnotatedClass(ThumbnailData.class)
+                .addAnnotatedClass(ThumbnailTestConf.class)
+                .addAnnotatedClass(ImageOption.class)
+                .addAnnotatedClass(ThumbnailStats.class)
+                .addAnnotatedClass(TestRun.class)
+                .buildMetadata()
+                .buildSessionFactory();
+
+        pageQuery = ThumbnailRepository.class.getMethod("findHistoryPage", String.class, long.class, Limit.class)
+                .getAnnotation(Query.class).value();
+        optionsQuery = ThumbnailRepository.class.getMethod("findHistoryOptions", Collection.class)
+                .getAnnotation(Query.class).value();
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public List<?> firstPage() {
+        return "projection".equals(mode) ? projectionPage() : entityPage();
+    }
+
+    private List<TestHistoryItem> projectionPage() {
+        return sessionFactory.fromSession(session -> {
+            List<TestHistoryItem> items = session.createQuery(pageQuery, TestHistoryItem.class)
+                    .setParameter("googleId", GOOGLE_ID)
+                    .setParameter("before", Long.MAX_VALUE)
+                    .setMaxResults(tests + 1)
+                    .getResultList();
+            items = items.subList(0, Math.min(tests, items.size()));
+
+            Map<Long, TestHistoryItem> byId = new LinkedHashMap<>();
+            items.forEach(item -> byId.put(item.getId(), item));
+            for (TestHistoryOption option : session.createQuery(optionsQuery, TestHistoryOption.class)
+                    .setParameter("thumbnailIds", byId.keySet())
+                    .getResultList()) {
+                byId.get(option.getThumbnailId()).getOptions().add(option);
+            }
+            return items;
+        });
+    }
+
+    private List<Integer> entityPage() {
+        return sessionFactory.fromSession(session -> {
+            List<ThumbnailData> page = session.createQuery(
+                            "from ThumbnailData t where t.user.googleId = :googleId order by t.id desc", ThumbnailData.class)
+                    .setParameter("googleId", GOOGLE_ID)
+                    .setMaxResults(tests)
+                    .getResultList();
+            List<Integer> views = new ArrayList<>();
+            for (ThumbnailData thumbnailData : page) {
+                for (ImageOption option : thumbnailData.getImageOptions()) {
+                    views.add(option.getThumbnailStats() != null ? option.getThumbnailStats().getViews() : null);
+                }
+            }
+            return views;
+        });
+    }
+
+    private void seed() {
+        sessionFactory.inTransaction(session -> {
+            UserData user = new UserData(GOOGLE_ID, "refresh-token");
+            session.persist(user);
+            for (int t = 0; t < tests * STORED_PAGES; t++) {
+                List<ImageOption> imageOptions = new ArrayList<>();
+                for (int o = 0; o < options; o++) {
+                    ImageOption option = new ImageOption();
+                    option.setFileUrl("https://example.com/" + t + "/" + o + ".jpg");
+                    ThumbnailStats stats = new ThumbnailStats();
+                    stats.setViews(100 + o);
+                    stats.setAverageViewDuration(60.0 + o);
+                    stats.setTotalWatchTime(500L + o);
+                    stats.setImageOption(option);
+                    option.setThumbnailStats(stats);
+                    imageOptions.add(option);
+                }
+                ThumbnailTestConf testConf = new ThumbnailTestConf();
+                testConf.setTestType(TestingType.THUMBNAIL);
+                testConf.setTestingMode(TestingMode.TIME_BASED);
+                testConf.setCriterionOfWinner(CriterionOfWinner.VIEWS);
+
+                ThumbnailData thumbnailData = new ThumbnailData(null, "https://www.youtube.com/watch?v=" + t, null, user);
+                thumbnailData.setImageOptions(imageOptions);
+                thumbnailData.setTestConf(testConf);
+                session.persist(thumbnailData);
+                session.persist(new TestRun(thumbnailData.getId(), TestRunState.FINISHED));
+                if (t % 50 == 0) {
+                    session.flush();
+                    session.clear();
+                    user = session.getReference(UserData.class, user.getId());
+                }
+            }
+        });
+    }
+}
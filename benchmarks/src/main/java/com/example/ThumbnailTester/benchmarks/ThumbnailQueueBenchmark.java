@@ -0,0 +1,84 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.dto.ThumbnailQueue;
+import com.example.ThumbnailTester.dto.ThumbnailQueueItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-video queue under contention: the test pipeline polls and re-adds items while
+ * WebSocket handlers look items up by image ID and delete them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ThumbnailQueueBenchmark {
+    private static final String VIDEO_URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+
+    @Param({"10", "100"})
+    private int size;
+
+    private ThumbnailQueue queue;
+    private ThumbnailQueueItem[] items;
+
+    @Setup
+    public void setUp() {
+        queue = new ThumbnailQueue();
+        items = new ThumbnailQueueItem[size];
+        for (int i = 0; i < size; i++) {
+            ImageOption option = new ImageOption();
+            option.setId((long) i);
+            option.setFileUrl("https://example.supabase.co/storage/v1/object/public/thumbnails/option-" + i + ".jpg");
+            items[i] = new ThumbnailQueueItem(VIDEO_URL, option);
+            queue.add(items[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(2)
+    public ThumbnailQueueItem pollAndAdd() {
+        ThumbnailQueueItem item = queue.poll();
+        if (item != null) {
+            queue.add(item);
+        }
+        return item;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public ThumbnailQueueItem findByImageId() {
+        return queue.findByImageId(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public boolean deleteAndAdd() {
+        ThumbnailQueueItem item = items[ThreadLocalRandom.current().nextInt(size)];
+        boolean deleted = queue.delete(item);
+        if (deleted) {
+            queue.add(item);
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.ThumbnailTester.benchmarks;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.services.ThumbnailTestService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Winner selection over the collected stats at the end of a test.
+ * {@code getTestResults} is private, so it is called through a method handle resolved once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WinnerSelectionBenchmark {
+    private static final MethodHandle GET_TEST_RESULTS;
+
+    static {
+        try {
+            GET_TEST_RESULTS = MethodHandles.privateLookupIn(ThumbnailTestService.class, MethodHandles.lookup())
+                    .findVirtual(ThumbnailTestService.class, "getTestResults",
+                            MethodType.methodType(List.class, ThumbnailData.class, CriterionOfWinner.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"2", "10", "50"})
+    private int options;
+
+    @Param({"VIEWS", "CTR_ADV"})
+    private CriterionOfWinner criterion;
+
+    private ThumbnailTestService testService;
+    private ThumbnailData thumbnailData;
+
+    @Setup
+    public void setUp() {
+        testService = new ThumbnailTestService(null, null);
+        thumbnailData = new ThumbnailData();
+        List<ImageOption> imageOptions = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < options; i++) {
+            ImageOption option = new ImageOption();
+            ThumbnailStats stats = new ThumbnailStats();
+            stats.setViews(random.nextInt(100_000));
+            stats.setCtr(random.nextDouble() * 12);
+            stats.setAverageViewDuration(60 + random.nextDouble() * 300);
+            stats.setTotalWatchTime(random.nextLong(1_000_000));
+            option.setThumbnailStats(stats);
+            imageOptions.add(option);
+        }
+        thumbnailData.setImageOptions(imageOptions);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<ImageOption> getTestResults() throws Throwable {
+        return (List<ImageOption>) GET_TEST_RESULTS.invoke(testService, thumbnailData, criterion);
+    }
+}
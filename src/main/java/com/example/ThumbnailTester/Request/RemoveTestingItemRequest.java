@@ -0,0 +1,9 @@
+package com.example.ThumbnailTester.Request;
+
+import lombok.Data;
+
+@Data
+public class RemoveTestingItemRequest {
+    private String videoUrl;
+    private Long imageOptionId;
+}
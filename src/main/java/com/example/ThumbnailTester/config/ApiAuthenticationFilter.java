@@ -0,0 +1,51 @@
+package com.example.ThumbnailTester.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * Authenticates requests to the REST APIs that return a user's data, with the same
+ * {@value UserAuthenticator#GOOGLE_ID_HEADER} and {@value UserAuthenticator#REFRESH_TOKEN_HEADER} headers as a
+ * WebSocket CONNECT. The request's principal is then named by the Google ID; requests without valid credentials
+ * get 401.
+ */
+@Component
+public class ApiAuthenticationFilter extends OncePerRequestFilter {
+    private static final List<String> PROTECTED_PREFIXES = List.of("/api/history", "/api/stats/");
+
+    @Autowired
+    private UserAuthenticator userAuthenticator;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return PROTECTED_PREFIXES.stream().noneMatch(path::startsWith);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Principal principal = userAuthenticator.authenticate(request.getHeader(UserAuthenticator.GOOGLE_ID_HEADER),
+                request.getHeader(UserAuthenticator.REFRESH_TOKEN_HEADER));
+        if (principal == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        filterChain.doFilter(new HttpServletRequestWrapper(request) {
+            @Override
+            public Principal getUserPrincipal() {
+                return principal;
+            }
+        }, response);
+    }
+}
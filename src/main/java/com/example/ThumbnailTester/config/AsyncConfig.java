@@ -1,23 +1,99 @@
 package com.example.ThumbnailTester.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 @EnableAsync
-public class AsyncConfig {
+public class AsyncConfig implements AsyncConfigurer {
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    @Value("${thumbnail.executor.mode:platform}")
+    private String executorMode;
+
+    @Value("${thumbnail.executor.core-pool-size:50}")
+    private int corePoolSize;
+
+    @Value("${thumbnail.executor.max-pool-size:100}")
+    private int maxPoolSize;
+
+    @Value("${thumbnail.executor.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${thumbnail.scheduler.pool-size:4}")
+    private int schedulerPoolSize;
+
+    private final AtomicInteger runningTasks = new AtomicInteger();
+
+    /**
+     * Executor for @Async test submissions and lifecycle steps.
+     * In {@code virtual} mode every task gets its own virtual thread, so blocking Google and
+     * Supabase calls do not hold a platform thread; concurrency towards those services is
+     * still bounded by {@link com.example.ThumbnailTester.http.DependencyLimiter}.
+     */
     @Bean
     public Executor executor() {
+        if (MODE_VIRTUAL.equalsIgnoreCase(executorMode)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("ThumbnailTest-");
+            executor.setVirtualThreads(true);
+            executor.setTaskDecorator(countRunning());
+            return executor;
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(50);
-        executor.setMaxPoolSize(100);
-        executor.setQueueCapacity(500);
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
         executor.setThreadNamePrefix("ThumbnailTest-");
+        executor.setTaskDecorator(countRunning());
         executor.initialize();
         return executor;
     }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return executor();
+    }
+
+    /**
+     * @return the number of tasks currently running on {@link #executor()}, in either mode
+     */
+    public int getRunningTaskCount() {
+        return runningTasks.get();
+    }
+
+    private TaskDecorator countRunning() {
+        return task -> () -> {
+            runningTasks.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                runningTasks.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Timer threads that fire test lifecycle transitions. They only hand the step over to
+     * {@link #executor()}, so a handful of them can drive any number of waiting tests.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulerPoolSize);
+        scheduler.setThreadNamePrefix("ThumbnailTimer-");
+        scheduler.initialize();
+        return scheduler;
+    }
 }
@@ -0,0 +1,268 @@
+package com.example.ThumbnailTester.config;
+
+import com.example.ThumbnailTester.util.Backoff;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays WebSocket messages between the nodes of a cluster over Postgres {@code LISTEN/NOTIFY}, so a message reaches
+ * the sessions of its user whichever node they are connected to.
+ * <p>
+ * Every {@code /user/{googleId}/...} message published on this node is delivered locally as usual and also sent as
+ * a notification on {@value #CHANNEL}; the other nodes publish it on their broker channel, which delivers it to their
+ * sessions of that user, if any. Notifications are sent in batches by a sender thread, so publishing never waits
+ * for the database. Messages too large for a notification payload are stored in {@code websocket_relay} and
+ * notified by row id. Relaying is best effort: messages published while a node is not listening are not replayed.
+ * The listener holds one connection of the pool for as long as the application runs.
+ */
+@Component
+public class ClusterMessageRelay implements ChannelInterceptor {
+    private static final Logger log = LoggerFactory.getLogger(ClusterMessageRelay.class);
+
+    private static final String CHANNEL = "thumbnail_websocket";
+    private static final String RELAYED_HEADER = "thumbnailRelayedFrom";
+    private static final String USER_DESTINATION_PREFIX = "/user/";
+    // Postgres rejects notification payloads of 8000 bytes or more
+    private static final int MAX_NOTIFY_BYTES = 7900;
+    private static final long LISTEN_POLL_MILLIS = 1_000L;
+
+    private static final String NOTIFY = "SELECT pg_notify('" + CHANNEL + "', p) FROM unnest(?) AS p";
+    private static final String INSERT_LARGE = "INSERT INTO websocket_relay (payload) VALUES (?) RETURNING id";
+    private static final String SELECT_LARGE = "SELECT payload FROM websocket_relay WHERE id = ?";
+    private static final String DELETE_EXPIRED = "DELETE FROM websocket_relay WHERE created_at < LOCALTIMESTAMP - CAST(? AS interval)";
+
+    @Value("${thumbnail.cluster.relay.batch-size:100}")
+    private int batchSize;
+
+    @Value("${thumbnail.cluster.relay.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${thumbnail.cluster.relay.retention-ms:300000}")
+    private long retentionMillis;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    // the template sends on the broker channel this relay intercepts
+    @Lazy
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private BlockingQueue<Message<?>> outbox;
+    private volatile boolean running;
+    private Thread sender;
+    private Thread listener;
+
+    @PostConstruct
+    public void start() {
+        if (!clusterNode.isEnabled()) {
+            return;
+        }
+        outbox = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        sender = Thread.ofPlatform().name("websocket-relay-sender").daemon().start(this::sendLoop);
+        listener = Thread.ofPlatform().name("websocket-relay-listener").daemon().start(this::listenLoop);
+        taskScheduler.scheduleWithFixedDelay(this::deleteExpired, Duration.ofMillis(retentionMillis));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Queues messages published to a user destination on this node for the other nodes. Messages relayed from
+     * another node and the per-session copies the user destination handler makes are not relayed again.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!running || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || isRelayed(message)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination != null && destination.startsWith(USER_DESTINATION_PREFIX)
+                && SimpMessageHeaderAccessor.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, message.getHeaders()) == null
+                && !outbox.offer(message)) {
+            log.warn("WebSocket relay queue is full, {} is only delivered on this node", destination);
+        }
+        return message;
+    }
+
+    /**
+     * @return true if the message was published on another node and relayed to this one
+     */
+    public static boolean isRelayed(Message<?> message) {
+        return message.getHeaders().containsKey(RELAYED_HEADER);
+    }
+
+    private void sendLoop() {
+        List<Message<?>> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(outbox.take());
+                outbox.drainTo(batch, batchSize - 1);
+                publish(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Failed to relay {} WebSocket messages to the other nodes", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Sends the notifications of a batch in one statement. Each carries a sequence number, since Postgres folds
+     * identical payloads sent in one transaction into one notification.
+     */
+    private void publish(List<Message<?>> batch) throws Exception {
+        String[] payloads = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Message<?> message = batch.get(i);
+            ObjectNode envelope = envelope();
+            envelope.put("destination", SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+            Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+            if (contentType != null) {
+                envelope.put("contentType", contentType.toString());
+            }
+            Object payload = message.getPayload();
+            envelope.put("payload", payload instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(payload));
+
+            String json = objectMapper.writeValueAsString(envelope);
+            if (json.getBytes(StandardCharsets.UTF_8).length > MAX_NOTIFY_BYTES) {
+                Long id = jdbcTemplate.queryForObject(INSERT_LARGE, Long.class, json);
+                json = objectMapper.writeValueAsString(envelope().put("ref", id));
+            }
+            payloads[i] = json;
+        }
+        jdbcTemplate.query(NOTIFY, ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", payloads)), rs -> null);
+    }
+
+    private ObjectNode envelope() {
+        return objectMapper.createObjectNode()
+                .put("node", clusterNode.getId())
+                .put("seq", sequence.incrementAndGet());
+    }
+
+    private void listenLoop() {
+        int failures = 0;
+        while (running) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                connection.setAutoCommit(true);
+                statement.execute("LISTEN " + CHANNEL);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                log.info("Listening for WebSocket messages of other nodes");
+                failures = 0;
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications((int) LISTEN_POLL_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            deliver(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                failures++;
+                log.error("WebSocket relay listener failed, reconnecting", e);
+                try {
+                    Thread.sleep(Backoff.delayMillis(failures, 1_000L, 30_000L));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes a message of another node on the local broker channel, which delivers it to this node's sessions
+     * of its user.
+     */
+    private void deliver(String notification) {
+        try {
+            JsonNode envelope = objectMapper.readTree(notification);
+            if (clusterNode.getId().equals(envelope.path("node").asText())) {
+                return;
+            }
+            if (envelope.has("ref")) {
+                envelope = objectMapper.readTree(jdbcTemplate.queryForObject(SELECT_LARGE, String.class, envelope.get("ref").asLong()));
+            }
+
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(envelope.get("destination").asText());
+            if (envelope.hasNonNull("contentType")) {
+                accessor.setContentType(MimeType.valueOf(envelope.get("contentType").asText()));
+            }
+            accessor.setHeader(RELAYED_HEADER, envelope.get("node").asText());
+            byte[] payload = envelope.get("payload").asText().getBytes(StandardCharsets.UTF_8);
+            messagingTemplate.send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        } catch (Exception e) {
+            log.error("Failed to deliver relayed WebSocket message", e);
+        }
+    }
+
+    private void deleteExpired() {
+        try {
+            jdbcTemplate.update(DELETE_EXPIRED, retentionMillis + " milliseconds");
+        } catch (Exception e) {
+            log.error("Failed to delete relayed WebSocket messages", e);
+        }
+    }
+}
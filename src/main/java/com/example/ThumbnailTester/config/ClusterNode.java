@@ -0,0 +1,55 @@
+package com.example.ThumbnailTester.config;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Identity of this instance when several instances share one database ({@code thumbnail.cluster.enabled}).
+ * The id names the node in the leases of {@code test_runs} and in relayed WebSocket messages, so it must be unique
+ * among the running instances; by default it is the host name and process id.
+ */
+@Component
+public class ClusterNode {
+    private static final Logger log = LoggerFactory.getLogger(ClusterNode.class);
+
+    @Value("${thumbnail.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${thumbnail.cluster.node-id:}")
+    private String configuredId;
+
+    private String id;
+
+    @PostConstruct
+    public void init() {
+        id = configuredId == null || configuredId.isBlank() ? hostName() + ":" + ProcessHandle.current().pid() : configuredId.trim();
+        if (enabled) {
+            log.info("Clustered mode enabled, node id: {}", id);
+        }
+    }
+
+    /**
+     * @return true if tests are leased from the database and WebSocket messages are relayed to the other nodes
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.ThumbnailTester.config;
+
+import com.example.ThumbnailTester.http.CallMetricsInterceptor;
+import com.example.ThumbnailTester.http.DependencyConcurrencyInterceptor;
+import com.example.ThumbnailTester.http.DependencyLimiter;
+import com.example.ThumbnailTester.http.HttpTransportMetrics;
+import com.example.ThumbnailTester.http.OkHttpGoogleTransport;
+import com.google.api.client.http.HttpTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class HttpClientConfig {
+    @Value("${http.client.connect-timeout-ms:10000}")
+    private long connectTimeoutMillis;
+
+    @Value("${http.client.read-timeout-ms:30000}")
+    private long readTimeoutMillis;
+
+    @Value("${http.client.write-timeout-ms:30000}")
+    private long writeTimeoutMillis;
+
+    @Value("${http.client.max-idle-connections:20}")
+    private int maxIdleConnections;
+
+    @Value("${http.client.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Bean
+    public ConnectionPool connectionPool() {
+        return new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The single HTTP client used for Google OAuth, YouTube Data, YouTube Analytics and Supabase calls.
+     * OkHttp negotiates HTTP/2 over TLS and transparently requests and decodes gzip.
+     * Call metrics are recorded after the concurrency limit, so they exclude the wait for a permit.
+     */
+    @Bean
+    public OkHttpClient okHttpClient(ConnectionPool connectionPool, HttpTransportMetrics metrics, DependencyLimiter limiter,
+                                     MeterRegistry meterRegistry) {
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .readTimeout(Duration.ofMillis(readTimeoutMillis))
+                .writeTimeout(Duration.ofMillis(writeTimeoutMillis))
+                .addInterceptor(new DependencyConcurrencyInterceptor(limiter))
+                .addInterceptor(new CallMetricsInterceptor(meterRegistry))
+                .eventListener(metrics)
+                .build();
+    }
+
+    @Bean
+    public HttpTransport googleHttpTransport(OkHttpClient okHttpClient) {
+        return new OkHttpGoogleTransport(okHttpClient);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.ThumbnailTester.config;
+
+import com.example.ThumbnailTester.http.DependencyLimiter;
+import com.example.ThumbnailTester.http.ExternalDependency;
+import com.example.ThumbnailTester.http.HttpTransportMetrics;
+import com.example.ThumbnailTester.services.AccessTokenService;
+import com.example.ThumbnailTester.services.ImageFileCache;
+import com.example.ThumbnailTester.services.ImageNormalizationService;
+import com.example.ThumbnailTester.services.ImageValidationService;
+import com.example.ThumbnailTester.services.QuotaLedger;
+import com.example.ThumbnailTester.services.StatsSnapshotStore;
+import com.example.ThumbnailTester.services.ThumbnailStatsService;
+import com.example.ThumbnailTester.services.ThumbnailTestService;
+import com.example.ThumbnailTester.services.YouTubeAnalyticsCollector;
+import com.example.ThumbnailTester.services.YouTubeMetadataCache;
+import com.example.ThumbnailTester.util.AESUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Exposes the counters the services keep internally as Micrometer meters.
+ * The services stay free of metrics code; each binder reads their getters when Prometheus scrapes.
+ * Per-call latency is recorded by {@link com.example.ThumbnailTester.http.CallMetricsInterceptor},
+ * WebSocket traffic by {@link WebSocketConfig}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder executorMetrics(AsyncConfig asyncConfig, Executor executor) {
+        return registry -> {
+            Gauge.builder("thumbnail.executor.running", asyncConfig, AsyncConfig::getRunningTaskCount)
+                    .description("Tasks currently running on the test executor")
+                    .register(registry);
+            if (executor instanceof ThreadPoolTaskExecutor pool) {
+                Gauge.builder("thumbnail.executor.queued", pool, p -> p.getThreadPoolExecutor().getQueue().size())
+                        .description("Tasks waiting for a thread of the test executor")
+                        .register(registry);
+                Gauge.builder("thumbnail.executor.saturation", pool, p -> (double) p.getActiveCount() / p.getMaxPoolSize())
+                        .description("Busy threads of the test executor relative to its maximum pool size")
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder testMetrics(ThumbnailTestService thumbnailTestService, StatsSnapshotStore statsSnapshotStore,
+                                   ThumbnailStatsService thumbnailStatsService) {
+        return registry -> {
+            Gauge.builder("thumbnail.tests.active", thumbnailTestService, ThumbnailTestService::getActiveTestCount)
+                    .description("Test runs in progress")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.tests.stopped.early", thumbnailTestService, ThumbnailTestService::getEarlyStopCount)
+                    .description("Tests finished before all rounds ran because a winner was decided")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.stats.snapshots.written", statsSnapshotStore, StatsSnapshotStore::getWrittenCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.stats.updates.buffered", thumbnailStatsService, ThumbnailStatsService::getBufferedCount)
+                    .description("Stats and winner updates handed to the write-behind buffer")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.stats.updates.written", thumbnailStatsService, ThumbnailStatsService::getWrittenCount)
+                    .description("Rows written by write-behind flushes after coalescing")
+                    .register(registry);
+            Gauge.builder("thumbnail.stats.updates.pending", thumbnailStatsService, ThumbnailStatsService::getPendingCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder httpConnectionMetrics(HttpTransportMetrics metrics, DependencyLimiter limiter) {
+        return registry -> {
+            FunctionCounter.builder("thumbnail.http.connections.acquired", metrics, HttpTransportMetrics::getConnectionsAcquired)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.http.connections.opened", metrics, HttpTransportMetrics::getConnectionsOpened)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.http.connections.failed", metrics, HttpTransportMetrics::getConnectFailureCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.http.tls.handshakes", metrics, HttpTransportMetrics::getTlsHandshakeCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.http.tls.handshake.time", metrics, HttpTransportMetrics::getTlsHandshakeMillisTotal)
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            for (ExternalDependency dependency : ExternalDependency.values()) {
+                Gauge.builder("thumbnail.http.permits.available", limiter, l -> l.availablePermits(dependency))
+                        .description("Free concurrency permits per external dependency")
+                        .tag("dependency", dependency.name())
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder tokenMetrics(AccessTokenService accessTokenService, AESUtil aesUtil) {
+        return registry -> {
+            FunctionCounter.builder("thumbnail.token.cache.requests", accessTokenService, AccessTokenService::getHitCount)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.token.cache.requests", accessTokenService, AccessTokenService::getMissCount)
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.token.refreshes", accessTokenService, AccessTokenService::getRefreshCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.token.refresh.failures", accessTokenService, AccessTokenService::getRefreshFailureCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.token.reencryptions", accessTokenService, AccessTokenService::getReEncryptionCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.token.legacy.decryptions", aesUtil, AESUtil::getLegacyDecryptCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder youTubeMetrics(YouTubeMetadataCache metadataCache, YouTubeAnalyticsCollector analyticsCollector) {
+        return registry -> {
+            FunctionCounter.builder("thumbnail.metadata.cache.requests", metadataCache, YouTubeMetadataCache::getHitCount)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.metadata.cache.requests", metadataCache, YouTubeMetadataCache::getMissCount)
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.metadata.cache.requests", metadataCache, YouTubeMetadataCache::getNotModifiedCount)
+                    .tag("result", "not_modified")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.analytics.requests", analyticsCollector, YouTubeAnalyticsCollector::getRequestCount)
+                    .description("Stats requests of running tests")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.analytics.queries", analyticsCollector, YouTubeAnalyticsCollector::getQueryCount)
+                    .description("Report queries sent to YouTube Analytics")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder quotaMetrics(QuotaLedger quotaLedger) {
+        return registry -> {
+            for (QuotaLedger.Api api : QuotaLedger.Api.values()) {
+                Gauge.builder("thumbnail.quota.remaining", quotaLedger, q -> q.getRemainingUnits(api))
+                        .description("YouTube quota units left until the daily reset")
+                        .tag("api", api.name())
+                        .register(registry);
+            }
+            FunctionCounter.builder("thumbnail.quota.throttled", quotaLedger, QuotaLedger::getThrottledCount)
+                    .description("Calls that waited for a rate bucket to refill")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.quota.rejected", quotaLedger, QuotaLedger::getRejectedCount)
+                    .description("Calls refused because the daily quota or a rate bucket was used up")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder imageMetrics(ImageFileCache imageFileCache, ImageValidationService imageValidationService,
+                                    ImageNormalizationService imageNormalizationService) {
+        return registry -> {
+            FunctionCounter.builder("thumbnail.image.cache.requests", imageFileCache, ImageFileCache::getHitCount)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.cache.requests", imageFileCache, ImageFileCache::getMissCount)
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.cache.requests", imageFileCache, ImageFileCache::getRevalidationCount)
+                    .tag("result", "revalidated")
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.cache.evictions", imageFileCache, ImageFileCache::getEvictionCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.cache.saved", imageFileCache, ImageFileCache::getBytesSaved)
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("thumbnail.image.cache.size", imageFileCache, ImageFileCache::getSizeBytes)
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("thumbnail.image.validation.permits.available", imageValidationService,
+                            ImageValidationService::getAvailablePermits)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.normalized", imageNormalizationService,
+                            ImageNormalizationService::getNormalizedCount)
+                    .register(registry);
+            FunctionCounter.builder("thumbnail.image.normalization.saved", imageNormalizationService,
+                            ImageNormalizationService::getBytesSaved)
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.ThumbnailTester.config;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.services.AccessTokenService;
+import com.example.ThumbnailTester.services.UserService;
+import com.example.ThumbnailTester.util.AESUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+
+/**
+ * Authenticates clients by Google ID and the encrypted refresh token returned by {@code /api/youtube/exchange-code}.
+ * <p>
+ * For a known user the token must decrypt to the stored refresh token, or Google must report the account as its
+ * subject, as for a token issued when the user consented again; that token then replaces the stored one. For an
+ * unknown Google ID the token must be one this server encrypted and Google must report the account as its subject;
+ * the user is then stored with it, so later sessions are checked against the stored token.
+ */
+@Component
+public class UserAuthenticator {
+    private static final Logger log = LoggerFactory.getLogger(UserAuthenticator.class);
+
+    public static final String GOOGLE_ID_HEADER = "google-id";
+    public static final String REFRESH_TOKEN_HEADER = "refresh-token";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private AccessTokenService accessTokenService;
+
+    @Autowired
+    private AESUtil aesUtil;
+
+    /**
+     * @param googleId       the Google ID the client claims
+     * @param encryptedToken the encrypted refresh token the client holds
+     * @return the principal named by the Google ID, or null if the credentials are missing or do not match
+     */
+    public Principal authenticate(String googleId, String encryptedToken) {
+        if (isBlank(googleId) || isBlank(encryptedToken)) {
+            return null;
+        }
+        String token = decrypt(encryptedToken);
+        if (token == null) {
+            return reject(googleId);
+        }
+
+        UserData user = userService.getByGoogleId(googleId);
+        if (user == null) {
+            if (!accessTokenService.isIssuedTo(googleId, token)) {
+                return reject(googleId);
+            }
+            try {
+                userService.save(new UserData(googleId, encryptedToken));
+                log.info("Registered user with GoogleId: {}", googleId);
+            } catch (DataIntegrityViolationException e) {
+                // registered by a concurrent session of the same account
+                log.debug("User with GoogleId {} was registered concurrently", googleId);
+            }
+        } else if (!token.equals(decrypt(user.getRefreshToken()))) {
+            // stored tokens may have been re-encrypted since, so the plain texts are compared;
+            // a different one was issued when the user consented again and replaces the stored one
+            if (!accessTokenService.isIssuedTo(googleId, token)) {
+                return reject(googleId);
+            }
+            if (userService.replaceRefreshToken(googleId, user.getRefreshToken(), encryptedToken)) {
+                user.setRefreshToken(encryptedToken);
+                accessTokenService.invalidate(user);
+                log.info("Stored the new refresh token of user with GoogleId: {}", googleId);
+            }
+        }
+        return new GoogleIdPrincipal(googleId);
+    }
+
+    private Principal reject(String googleId) {
+        log.warn("Rejected credentials of user with GoogleId: {}", googleId);
+        return null;
+    }
+
+    private String decrypt(String encryptedToken) {
+        try {
+            return aesUtil.decrypt(encryptedToken);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(String str) {
+        return str == null || str.trim().isEmpty();
+    }
+
+    /**
+     * Principal of an authenticated client; its name is the key of {@code convertAndSendToUser}.
+     */
+    static final class GoogleIdPrincipal implements Principal {
+        private final String googleId;
+
+        GoogleIdPrincipal(String googleId) {
+            this.googleId = googleId;
+        }
+
+        @Override
+        public String getName() {
+            return googleId;
+        }
+    }
+}
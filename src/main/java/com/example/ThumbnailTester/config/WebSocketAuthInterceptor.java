@@ -0,0 +1,70 @@
+package com.example.ThumbnailTester.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+
+/**
+ * Authenticates STOMP sessions by Google ID, so messages can be routed to the sessions of one user.
+ * <p>
+ * The CONNECT frame carries the {@value UserAuthenticator#GOOGLE_ID_HEADER} and
+ * {@value UserAuthenticator#REFRESH_TOKEN_HEADER} headers, checked by {@link UserAuthenticator}.
+ * The session's principal is then named by the Google ID, which {@code convertAndSendToUser} resolves to its
+ * {@code /user/queue/...} subscriptions.
+ * <p>
+ * Clients may only subscribe to their own {@code /user/} destinations and only send to {@code /app/}, so no session
+ * can read the broker queues of another.
+ */
+@Component
+public class WebSocketAuthInterceptor implements ChannelInterceptor {
+    private static final String USER_DESTINATION_PREFIX = "/user/";
+    private static final String APPLICATION_DESTINATION_PREFIX = "/app/";
+
+    @Autowired
+    private UserAuthenticator userAuthenticator;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        switch (accessor.getCommand()) {
+            case CONNECT -> accessor.setUser(authenticate(accessor));
+            case SUBSCRIBE -> requirePrefix(accessor, USER_DESTINATION_PREFIX);
+            case SEND -> requirePrefix(accessor, APPLICATION_DESTINATION_PREFIX);
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    private Principal authenticate(StompHeaderAccessor accessor) {
+        String googleId = accessor.getFirstNativeHeader(UserAuthenticator.GOOGLE_ID_HEADER);
+        String refreshToken = accessor.getFirstNativeHeader(UserAuthenticator.REFRESH_TOKEN_HEADER);
+        if (googleId == null || refreshToken == null) {
+            throw new MessageDeliveryException("CONNECT requires the " + UserAuthenticator.GOOGLE_ID_HEADER + " and "
+                    + UserAuthenticator.REFRESH_TOKEN_HEADER + " headers");
+        }
+        Principal principal = userAuthenticator.authenticate(googleId, refreshToken);
+        if (principal == null) {
+            throw new MessageDeliveryException("Invalid credentials");
+        }
+        return principal;
+    }
+
+    private void requirePrefix(StompHeaderAccessor accessor, String prefix) {
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith(prefix)) {
+            throw new MessageDeliveryException(accessor.getCommand() + " to " + destination + " is not allowed");
+        }
+    }
+}
@@ -1,15 +1,41 @@
 package com.example.ThumbnailTester.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+/**
+ * STOMP over WebSocket. Services send with {@code convertAndSendToUser}, so every message reaches only the sessions
+ * of one user (see {@link WebSocketAuthInterceptor}) instead of every connected client. In clustered mode
+ * {@link ClusterMessageRelay} forwards these messages to the sessions connected to the other nodes.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    private static final String USER_DESTINATION_PREFIX = "/user/";
+    private static final String USER_QUEUE_PREFIX = "/user/queue/";
+
+    private final MeterRegistry meterRegistry;
+    private final WebSocketAuthInterceptor authInterceptor;
+    private final ClusterMessageRelay clusterMessageRelay;
+
+    public WebSocketConfig(MeterRegistry meterRegistry, WebSocketAuthInterceptor authInterceptor, ClusterMessageRelay clusterMessageRelay) {
+        this.meterRegistry = meterRegistry;
+        this.authInterceptor = authInterceptor;
+        this.clusterMessageRelay = clusterMessageRelay;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*").withSockJS();
@@ -18,8 +44,74 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");
-        registry.enableSimpleBroker("/topic");
+        registry.enableSimpleBroker("/queue");
+        // every message the services publish passes the broker channel once as /user/{googleId}/queue/...,
+        // then once more per session of that user; only the publication is counted here, on the node it was made on
+        registry.configureBrokerChannel().interceptors(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE
+                        && originalDestination(message) == null && !ClusterMessageRelay.isRelayed(message)) {
+                    count("thumbnail.websocket.messages", "Messages published to WebSocket destinations", message);
+                }
+                return message;
+            }
+        }, clusterMessageRelay);
     }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(authInterceptor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                    count("thumbnail.websocket.frames", "MESSAGE frames sent to WebSocket sessions", message);
+                }
+                return message;
+            }
+        });
+    }
+
+    private void count(String name, String description, Message<?> message) {
+        String destination = destinationTag(message);
+        if (destination != null) {
+            Counter.builder(name)
+                    .description(description)
+                    .tag("destination", destination)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    /**
+     * The destination without the user or session it was resolved for, e.g. {@code /user/queue/thumbnail/progress}
+     * for both {@code /user/{googleId}/queue/thumbnail/progress} and its per-session copies, so the tag has one value
+     * per destination rather than per user.
+     */
+    private static String destinationTag(Message<?> message) {
+        String destination = originalDestination(message);
+        if (destination == null) {
+            destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        }
+        if (destination == null || !destination.startsWith(USER_DESTINATION_PREFIX) || destination.startsWith(USER_QUEUE_PREFIX)) {
+            return destination;
+        }
+        int userEnd = destination.indexOf('/', USER_DESTINATION_PREFIX.length());
+        return userEnd < 0 ? USER_DESTINATION_PREFIX : "/user" + destination.substring(userEnd);
+    }
+
+    /**
+     * @return the {@code /user/queue/...} destination a message was resolved from, null if it was not resolved
+     */
+    private static String originalDestination(Message<?> message) {
+        return SimpMessageHeaderAccessor.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, message.getHeaders());
+    }
+
     @Override
     public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
         registration.setMessageSizeLimit(20000 * 1024); // 200KB
@@ -0,0 +1,54 @@
+package com.example.ThumbnailTester.controller;
+
+import com.example.ThumbnailTester.dto.StatsSnapshotBucket;
+import com.example.ThumbnailTester.services.StatsSnapshotStore;
+import com.example.ThumbnailTester.services.TestRunService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/stats")
+public class StatsSnapshotController {
+
+    @Autowired
+    private StatsSnapshotStore statsSnapshotStore;
+
+    @Autowired
+    private TestRunService testRunService;
+
+    /**
+     * Stats trajectory of the options of a test run, downsampled by the database.
+     *
+     * @param principal     the authenticated user, who must own the run
+     * @param runId         the test run
+     * @param imageOptionId only this option, or all options of the run if absent
+     * @param from          start of the range (ISO date-time), inclusive
+     * @param to            end of the range (ISO date-time), exclusive; defaults to now
+     * @param bucket        width of a bucket as ISO-8601 duration, e.g. {@code PT5M}
+     * @return one entry per option and non-empty bucket
+     */
+    @GetMapping("/runs/{runId}/snapshots")
+    public List<StatsSnapshotBucket> getSnapshots(Principal principal,
+                                                  @PathVariable long runId,
+                                                  @RequestParam(required = false) Long imageOptionId,
+                                                  @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                  @RequestParam(defaultValue = "PT5M") Duration bucket) {
+        if (!testRunService.isOwnedBy(runId, principal.getName())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+        try {
+            return statsSnapshotStore.downsample(runId, imageOptionId, from, to != null ? to : LocalDateTime.now(), bucket);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
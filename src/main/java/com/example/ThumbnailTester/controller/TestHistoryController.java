@@ -0,0 +1,45 @@
+package com.example.ThumbnailTester.controller;
+
+import com.example.ThumbnailTester.dto.TestHistoryPage;
+import com.example.ThumbnailTester.services.TestHistoryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.Principal;
+
+@RestController
+@RequestMapping("/api/history")
+public class TestHistoryController {
+
+    @Autowired
+    private TestHistoryService testHistoryService;
+
+    /**
+     * Past tests of the authenticated user with their options and stats, newest first. The response carries an
+     * ETag; a request with a matching {@code If-None-Match} header gets 304 Not Modified without a body.
+     *
+     * @param principal the user, authenticated by {@link com.example.ThumbnailTester.config.ApiAuthenticationFilter}
+     * @param before    {@code nextCursor} of the previous page, absent for the first page
+     * @param limit     tests per page
+     * @return the page
+     */
+    @GetMapping
+    public ResponseEntity<TestHistoryPage> getHistory(Principal principal,
+                                                      @RequestParam(required = false) Long before,
+                                                      @RequestParam(defaultValue = "50") int limit) {
+        try {
+            TestHistoryPage page = testHistoryService.getPage(principal.getName(), before, limit);
+            // Spring MVC answers 304 itself when the request's If-None-Match matches this ETag
+            return ResponseEntity.ok()
+                    .eTag(testHistoryService.etag(page))
+                    .cacheControl(CacheControl.noCache())
+                    .body(page);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package com.example.ThumbnailTester.controller;
+import com.example.ThumbnailTester.Request.RemoveTestingItemRequest;
 import com.example.ThumbnailTester.Request.ThumbnailRequest;
+import com.example.ThumbnailTester.config.ClusterNode;
 import com.example.ThumbnailTester.data.thumbnail.TestingMode;
-import com.example.ThumbnailTester.data.thumbnail.ThumbnailData; import com.example.ThumbnailTester.dto.ImageOption; import com.example.ThumbnailTester.dto.ThumbnailQueue; import com.example.ThumbnailTester.dto.ThumbnailQueueItem; import com.example.ThumbnailTester.mapper.Mapper; import com.example.ThumbnailTester.services.ThumbnailQueueService; import com.example.ThumbnailTester.services.ThumbnailTestService; import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.beans.factory.annotation.Autowired; import org.springframework.messaging.handler.annotation.MessageMapping; import org.springframework.messaging.handler.annotation.Payload; import org.springframework.messaging.simp.SimpMessagingTemplate; import org.springframework.stereotype.Controller;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData; import com.example.ThumbnailTester.dto.ThumbnailQueue; import com.example.ThumbnailTester.dto.ThumbnailQueueItem; import com.example.ThumbnailTester.mapper.Mapper; import com.example.ThumbnailTester.services.ThumbnailQueueService; import com.example.ThumbnailTester.services.TestQueueStore; import com.example.ThumbnailTester.services.TestRunService; import com.example.ThumbnailTester.services.ThumbnailTestService; import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.beans.factory.annotation.Autowired; import org.springframework.messaging.handler.annotation.MessageMapping; import org.springframework.messaging.handler.annotation.Payload; import org.springframework.messaging.simp.SimpMessagingTemplate; import org.springframework.stereotype.Controller;
+import java.security.Principal;
 @Controller public class WebSocketController { private final SimpMessagingTemplate messagingTemplate; private static final Logger log = LoggerFactory.getLogger(WebSocketController.class);
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
+
     @Autowired
     private ThumbnailTestService thumbnailTestService;
 
     @Autowired
     private ThumbnailQueueService thumbnailQueueService;
 
+    @Autowired
+    private TestRunService testRunService;
+
+    @Autowired
+    private TestQueueStore testQueueStore;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
     @Autowired
     private Mapper mapper;
 
@@ -17,55 +31,95 @@ import com.example.ThumbnailTester.data.thumbnail.ThumbnailData; import com.exam
     }
 
     @MessageMapping("/thumbnail/test")
-    public void handleTestMessage(@Payload ThumbnailRequest request) {
-        if(TestingMode.METRIC_BASED == TestingMode.valueOf(request.getTestConfRequest().getTestingMode())){
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "METRIC_BASED function is unavailable");
-            log.error("METRIC_BASED function is unavailable");
+    public void handleTestMessage(@Payload ThumbnailRequest request, Principal principal) {
+        if (request.getUserDTO() == null || !principal.getName().equals(request.getUserDTO().getGoogleId())) {
+            sendError(principal, "UnauthorizedUser");
+            log.error("Test request for another user than the session's");
+            return;
+        }
+
+        if(TestingMode.METRIC_BASED == TestingMode.valueOf(request.getTestConfRequest().getTestingMode())
+                && request.getTestConfRequest().getTestingByMetrics() <= 0){
+            sendError(principal, "InvalidTestConfiguration");
+            log.error("METRIC_BASED test without a metric target");
             return;
         }
 
         log.info("Received thumbnail request: {}", request.getVideoUrl());
 
         if (request.getImages() == null || request.getImages().isEmpty()) {
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "NoImagesProvided");
+            sendError(principal, "NoImagesProvided");
             return;
         }
 
         ThumbnailData thumbnailData = mapper.thumbnailRequestToData(request);
 
         if (thumbnailData.getTestConf() == null) {
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "InvalidTestConfiguration");
+            sendError(principal, "InvalidTestConfiguration");
             return;
         }
 
-        for (ImageOption imageOption : thumbnailData.getImageOptions()) {
-            ThumbnailQueueItem queueItem = new ThumbnailQueueItem(request.getVideoUrl(), imageOption);
-            thumbnailQueueService.addToQueue(queueItem.getVideoUrl(), queueItem);
-        }
-
         thumbnailTestService.runThumbnailTest(request, thumbnailData);
     }
 
     @MessageMapping("/remove-testingItem")
-    public void handleRemoveThumbnail(@Payload Long imageOptionId, @Payload String videoUrl) {
-        ThumbnailQueue queue = thumbnailQueueService.findItemByVideoUrl(videoUrl);
-        if (queue == null) {
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "QueueNotFound");
+    public void handleRemoveThumbnail(@Payload RemoveTestingItemRequest request, Principal principal) {
+        String videoUrl = request.getVideoUrl();
+        ThumbnailQueue queue = videoUrl != null ? thumbnailQueueService.findItemByVideoUrl(videoUrl) : null;
+        if (queue == null && !clusterNode.isEnabled()) {
+            sendError(principal, "QueueNotFound");
             return;
         }
 
-        ThumbnailQueueItem itemToRemove = queue.findByImageId(imageOptionId);
+        ThumbnailQueueItem itemToRemove = queue != null && request.getImageOptionId() != null ? queue.findByImageId(request.getImageOptionId()) : null;
 
+        if (itemToRemove == null && clusterNode.isEnabled() && request.getImageOptionId() != null) {
+            // the test may run on another node
+            cancelSlot(request.getImageOptionId(), principal);
+            return;
+        }
         if (itemToRemove == null) {
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "ItemNotFound");
+            sendError(principal, "ItemNotFound");
+            return;
+        }
+
+        if (itemToRemove.getRunId() == null || !testRunService.isOwnedBy(itemToRemove.getRunId(), principal.getName())) {
+            sendError(principal, "UnauthorizedUser");
+            log.error("Remove request for a test of another user than the session's");
             return;
         }
 
         if (itemToRemove.isActive()) {
-            messagingTemplate.convertAndSend("/topic/thumbnail/error", "ItemIsNowTesting");
+            sendError(principal, "ItemIsNowTesting");
+            return;
+        }
+
+        thumbnailTestService.removeOption(videoUrl, itemToRemove);
+    }
+
+    /**
+     * Cancels the pending slot of an option in the durable queue; the node running its test drops the option
+     * on its next step.
+     */
+    private void cancelSlot(long imageOptionId, Principal principal) {
+        Long runId = testQueueStore.findPendingRun(imageOptionId);
+        if (runId == null) {
+            sendError(principal, "ItemNotFound");
+            return;
+        }
+
+        if (!testRunService.isOwnedBy(runId, principal.getName())) {
+            sendError(principal, "UnauthorizedUser");
+            log.error("Remove request for a test of another user than the session's");
             return;
         }
 
-        thumbnailQueueService.deleteFromQueue(videoUrl, itemToRemove);
+        if (!testQueueStore.cancelSlot(runId, imageOptionId)) {
+            sendError(principal, "ItemIsNowTesting");
+        }
+    }
+
+    private void sendError(Principal principal, String message) {
+        messagingTemplate.convertAndSendToUser(principal.getName(), QUEUE_ERROR, message);
     }
 }
\ No newline at end of file
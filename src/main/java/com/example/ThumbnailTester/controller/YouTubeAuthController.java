@@ -3,6 +3,11 @@ package com.example.ThumbnailTester.controller;
 import com.example.ThumbnailTester.util.AESUtil;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,12 +16,6 @@ import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/api/youtube")
@@ -26,6 +25,12 @@ public class YouTubeAuthController {
     @Autowired
     private AESUtil aesUtil;
 
+    @Autowired
+    private OkHttpClient httpClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Value("${youtube.client.id}")
     private String clientId;
 
@@ -46,25 +51,24 @@ public class YouTubeAuthController {
     @PostMapping(value = "/exchange-code", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
     public RefreshTokenResponse exchangeCodeForRefreshToken(@RequestParam("code") String code) {
         try {
-            String requestBody = "code=" + URLEncoder.encode(aesUtil.decrypt(code), StandardCharsets.UTF_8)
-                    + "&client_id=" + URLEncoder.encode(clientId, StandardCharsets.UTF_8)
-                    + "&client_secret=" + URLEncoder.encode(clientSecret, StandardCharsets.UTF_8)
-                    + "&redirect_uri=" + URLEncoder.encode(redirectUri, StandardCharsets.UTF_8)
-                    + "&grant_type=authorization_code";
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(OAUTH_TOKEN_URL))
-                    .header("Content-Type", "application/x-www-form-urlencoded")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+            RequestBody requestBody = new FormBody.Builder()
+                    .add("code", aesUtil.decrypt(code))
+                    .add("client_id", clientId)
+                    .add("client_secret", clientSecret)
+                    .add("redirect_uri", redirectUri)
+                    .add("grant_type", "authorization_code")
                     .build();
 
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-            log.info("Token exchange response: {}", response.body());
+            Request request = new Request.Builder()
+                    .url(OAUTH_TOKEN_URL)
+                    .post(requestBody)
+                    .build();
 
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode jsonNode = mapper.readTree(response.body());
+            JsonNode jsonNode;
+            try (Response response = httpClient.newCall(request).execute()) {
+                log.info("Token exchange response status: {}", response.code());
+                jsonNode = objectMapper.readTree(response.body().byteStream());
+            }
 
             if (jsonNode.has("refresh_token")) {
                 String refreshToken = jsonNode.get("refresh_token").asText();
@@ -76,7 +80,7 @@ public class YouTubeAuthController {
             } else {
                 return new RefreshTokenResponse(null, "Unknown error during token exchange");
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             log.error("Exception during token exchange", e);
             return new RefreshTokenResponse(null, "Exception: " + e.getMessage());
         } catch (Exception e) {
@@ -0,0 +1,87 @@
+package com.example.ThumbnailTester.data.thumbnail;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Entity
+@Data
+@Table(name = "test_runs")
+@AllArgsConstructor
+@NoArgsConstructor
+public class TestRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "test_runs_seq")
+    @SequenceGenerator(name = "test_runs_seq", sequenceName = "test_runs_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "thumbnail_id", nullable = false, unique = true)
+    private Long thumbnailId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "state", nullable = false)
+    private TestRunState state;
+
+    @Column(name = "current_option_id")
+    private Long currentOptionId;
+
+    @Column(name = "slot_started_on")
+    private LocalDate slotStartedOn;
+
+    @Column(name = "confirm_deadline")
+    private LocalDateTime confirmDeadline;
+
+    @Column(name = "measure_deadline")
+    private LocalDateTime measureDeadline;
+
+    @Column(name = "next_fire_at")
+    private LocalDateTime nextFireAt;
+
+    @Column(name = "result_due_at")
+    private LocalDateTime resultDueAt;
+
+    // totals of the video when the current slot started measuring, null until the slot measures
+    @Column(name = "baseline_views")
+    private Integer baselineViews;
+
+    @Column(name = "baseline_average_view_duration")
+    private Double baselineAverageViewDuration;
+
+    @Column(name = "baseline_comments")
+    private Integer baselineComments;
+
+    @Column(name = "baseline_shares")
+    private Integer baselineShares;
+
+    @Column(name = "baseline_likes")
+    private Integer baselineLikes;
+
+    @Column(name = "baseline_subscribers_gained")
+    private Integer baselineSubscribersGained;
+
+    @Column(name = "baseline_average_view_percentage")
+    private Double baselineAverageViewPercentage;
+
+    @Column(name = "baseline_total_watch_time")
+    private Long baselineTotalWatchTime;
+
+    // clustered mode: the node executing the run and until when it holds the run
+    @Column(name = "owner_node")
+    private String ownerNode;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    public TestRun(Long thumbnailId, TestRunState state) {
+        this.thumbnailId = thumbnailId;
+        this.state = state;
+        this.updatedAt = LocalDateTime.now();
+    }
+}
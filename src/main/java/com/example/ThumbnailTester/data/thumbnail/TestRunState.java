@@ -0,0 +1,20 @@
+package com.example.ThumbnailTester.data.thumbnail;
+
+/**
+ * Lifecycle of a running test. The state names the step that runs when the run's timer fires:
+ * NEXT_OPTION → UPLOADING → CONFIRMING → MEASURING → COLLECTING → NEXT_OPTION … → FINALIZING → FINISHED.
+ */
+public enum TestRunState {
+    NEXT_OPTION,
+    UPLOADING,
+    CONFIRMING,
+    MEASURING,
+    COLLECTING,
+    FINALIZING,
+    FINISHED,
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == FINISHED || this == FAILED;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.ThumbnailTester.data.thumbnail;
+
+public enum TestSlotStatus {
+    PENDING,
+    ACTIVE,
+    DONE,
+    FAILED,
+    CANCELLED
+}
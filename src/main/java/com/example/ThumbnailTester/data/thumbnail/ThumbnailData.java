@@ -17,7 +17,8 @@ import java.util.List;
 @NoArgsConstructor
 public class ThumbnailData {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "thumbnails_seq")
+    @SequenceGenerator(name = "thumbnails_seq", sequenceName = "thumbnails_seq", allocationSize = 50)
     private Long id;
 
     @OneToMany(mappedBy = "thumbnail", cascade = CascadeType.ALL, orphanRemoval = true)
@@ -12,7 +12,8 @@ import lombok.NoArgsConstructor;
 @Table(name = "thumbnail_test_config")
 public class ThumbnailTestConf {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "thumbnail_test_config_seq")
+    @SequenceGenerator(name = "thumbnail_test_config_seq", sequenceName = "thumbnail_test_config_seq", allocationSize = 50)
     private Long id;
 
     @Enumerated(EnumType.STRING)
@@ -0,0 +1,21 @@
+package com.example.ThumbnailTester.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Size report of one thumbnail after the normalization stage; quality is null when the original was kept.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageNormalizationResult {
+    private Long imageOptionId;
+    private int width;
+    private int height;
+    private Float quality;
+    private long originalBytes;
+    private long normalizedBytes;
+    private long bytesSaved;
+}
@@ -18,7 +18,8 @@ import lombok.NoArgsConstructor;
 public class
 ImageOption {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_options_seq")
+    @SequenceGenerator(name = "image_options_seq", sequenceName = "image_options_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "file_url", nullable = false, columnDefinition = "TEXT")
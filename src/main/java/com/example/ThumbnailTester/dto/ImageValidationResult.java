@@ -0,0 +1,18 @@
+package com.example.ThumbnailTester.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of validating one submitted image option, pushed over WebSocket as soon as it is known.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageValidationResult {
+    private int index;
+    private String fileUrl;
+    private boolean valid;
+    private String error;
+}
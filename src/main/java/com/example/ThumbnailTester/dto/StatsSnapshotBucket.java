@@ -0,0 +1,28 @@
+package com.example.ThumbnailTester.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Stats of one option downsampled into a time bucket. Counters are the latest value within the bucket,
+ * averages are averaged over its samples.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsSnapshotBucket {
+    private long imageOptionId;
+    private LocalDateTime bucketStart;
+    private int samples;
+    private Integer views;
+    private Double averageViewDuration;
+    private Integer comments;
+    private Integer shares;
+    private Integer likes;
+    private Integer subscribersGained;
+    private Double averageViewPercentage;
+    private Long totalWatchTime;
+}
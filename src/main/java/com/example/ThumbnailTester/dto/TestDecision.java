@@ -0,0 +1,27 @@
+package com.example.ThumbnailTester.dto;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Final result of a test pushed on {@code /user/queue/thumbnail/final}: the options with their stats,
+ * the chosen winner and how certain the decision is.
+ */
+@Data
+@NoArgsConstructor
+public class TestDecision {
+    private List<ImageOption> options;
+    private CriterionOfWinner criterion;
+    private Long winnerOptionId;
+    // posterior probability that the winner is the best option, null if the criterion cannot be evaluated
+    private Double confidence;
+    // true if the confidence reached thumbnail.decision.confidence
+    private boolean decided;
+    private boolean stoppedEarly;
+    private int rounds;
+    private Map<Long, Double> winProbabilities;
+}
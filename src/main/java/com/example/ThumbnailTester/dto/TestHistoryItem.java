@@ -0,0 +1,45 @@
+package com.example.ThumbnailTester.dto;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.TestRunState;
+import com.example.ThumbnailTester.data.thumbnail.TestingMode;
+import com.example.ThumbnailTester.data.thumbnail.TestingType;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of one past test of a user: its configuration, the state of its run and its options.
+ */
+@Data
+@NoArgsConstructor
+public class TestHistoryItem {
+    private Long id;
+    private String videoUrl;
+    private TestingType testType;
+    private TestingMode testingMode;
+    private CriterionOfWinner criterionOfWinner;
+    private Long runId;
+    // null for tests created before runs were persisted
+    private TestRunState state;
+    private LocalDateTime updatedAt;
+    private List<TestHistoryOption> options = new ArrayList<>();
+
+    /**
+     * Constructor of the projection query; the options are attached by a second query.
+     */
+    public TestHistoryItem(Long id, String videoUrl, TestingType testType, TestingMode testingMode, CriterionOfWinner criterionOfWinner,
+                           Long runId, TestRunState state, LocalDateTime updatedAt) {
+        this.id = id;
+        this.videoUrl = videoUrl;
+        this.testType = testType;
+        this.testingMode = testingMode;
+        this.criterionOfWinner = criterionOfWinner;
+        this.runId = runId;
+        this.state = state;
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.ThumbnailTester.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One option of a past test with its stats, read by a projection query; stats are null if the option
+ * was never measured.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TestHistoryOption {
+    @JsonIgnore
+    private Long thumbnailId;
+    private Long id;
+    private String fileUrl;
+    private String text;
+    private boolean winner;
+    private Integer views;
+    private Double ctr;
+    private Double averageViewDuration;
+    private Double advCtr;
+    private Integer comments;
+    private Integer shares;
+    private Integer likes;
+    private Integer subscribersGained;
+    private Double averageViewPercentage;
+    private Long totalWatchTime;
+}
@@ -0,0 +1,19 @@
+package com.example.ThumbnailTester.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A page of a user's tests, newest first. {@code nextCursor} is passed as {@code before} to get
+ * the next page and is null on the last page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TestHistoryPage {
+    private List<TestHistoryItem> tests;
+    private Long nextCursor;
+}
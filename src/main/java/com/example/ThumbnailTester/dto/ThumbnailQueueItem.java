@@ -6,6 +6,8 @@ import lombok.Data;
 public class ThumbnailQueueItem {
     private String videoUrl;
     private ImageOption imageOption;
+    private Long runId;
+    private int attempts;
     boolean isActive;
 
     public ThumbnailQueueItem(String videoUrl, ImageOption imageOption) {
@@ -13,4 +15,9 @@ public class ThumbnailQueueItem {
         this.imageOption = imageOption;
         this.isActive = false;
     }
-}
\ No newline at end of file
+
+    public ThumbnailQueueItem(String videoUrl, ImageOption imageOption, Long runId) {
+        this(videoUrl, imageOption);
+        this.runId = runId;
+    }
+}
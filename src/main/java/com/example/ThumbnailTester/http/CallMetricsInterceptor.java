@@ -0,0 +1,136 @@
+package com.example.ThumbnailTester.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records latency and errors of every outgoing call, tagged by dependency and operation.
+ * The operation is derived from the request, e.g. {@code videos.list}, {@code thumbnails.set},
+ * {@code analytics.reports.query}, {@code oauth.token} or {@code image.download}.
+ * The timer runs until the response body is closed, so downloads are measured including the transfer.
+ */
+public class CallMetricsInterceptor implements Interceptor {
+    static final String METRIC_REQUESTS = "thumbnail.http.client.requests";
+    static final String METRIC_ERRORS = "thumbnail.http.client.errors";
+
+    private static final String YOUTUBE_DATA_PATH = "v3";
+
+    private final MeterRegistry registry;
+
+    public CallMetricsInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        ExternalDependency dependency = ExternalDependency.forHost(request.url().host());
+        String operation = operation(dependency, request);
+        Timer.Sample sample = Timer.start(registry);
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            stop(sample, dependency, operation, "IO_ERROR", "IO_ERROR");
+            errorCounter(dependency, operation, e.getClass().getSimpleName()).increment();
+            throw e;
+        }
+
+        int code = response.code();
+        String status = String.valueOf(code);
+        String outcome = outcome(code);
+        if (code >= 400) {
+            errorCounter(dependency, operation, status).increment();
+        }
+        if (response.body() == null) {
+            stop(sample, dependency, operation, outcome, status);
+            return response;
+        }
+        return response.newBuilder()
+                .body(new OnCloseResponseBody(response.body(), () -> stop(sample, dependency, operation, outcome, status)))
+                .build();
+    }
+
+    /**
+     * Names the API operation of a request; the names only depend on the API path and method,
+     * so the number of tag values stays bounded.
+     */
+    static String operation(ExternalDependency dependency, Request request) {
+        String method = request.method();
+        switch (dependency) {
+            case OAUTH:
+                return "oauth.token";
+            case YOUTUBE_ANALYTICS:
+                return request.url().encodedPath().endsWith("/reports") ? "analytics.reports.query" : "analytics.other";
+            case YOUTUBE_DATA:
+                List<String> segments = request.url().pathSegments();
+                int v3 = segments.indexOf(YOUTUBE_DATA_PATH);
+                if (v3 < 0 || v3 + 1 >= segments.size()) {
+                    return "youtube.other";
+                }
+                String resource = segments.get(v3 + 1);
+                if (v3 + 2 < segments.size()) {
+                    return resource + "." + segments.get(v3 + 2);
+                }
+                return resource + "." + verb(method);
+            default:
+                return "GET".equals(method) ? "image.download" : "image." + method.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static String verb(String method) {
+        switch (method) {
+            case "GET":
+                return "list";
+            case "PUT":
+                return "update";
+            case "POST":
+                return "insert";
+            case "DELETE":
+                return "delete";
+            default:
+                return method.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static String outcome(int code) {
+        if (code < 300) {
+            return "SUCCESS";
+        }
+        if (code < 400) {
+            return "REDIRECTION";
+        }
+        return code < 500 ? "CLIENT_ERROR" : "SERVER_ERROR";
+    }
+
+    private void stop(Timer.Sample sample, ExternalDependency dependency, String operation, String outcome, String status) {
+        sample.stop(Timer.builder(METRIC_REQUESTS)
+                .description("Outgoing calls to Google and Supabase")
+                .tag("dependency", dependency.name())
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private Counter errorCounter(ExternalDependency dependency, String operation, String error) {
+        return Counter.builder(METRIC_ERRORS)
+                .description("Outgoing calls that failed or returned an error status")
+                .tag("dependency", dependency.name())
+                .tag("operation", operation)
+                .tag("error", error)
+                .register(registry);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.ThumbnailTester.http;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of concurrent requests per external dependency, including synchronous calls
+ * which the OkHttp dispatcher limits do not cover.
+ * A permit is held until the response body is closed, not just until headers arrive.
+ */
+public class DependencyConcurrencyInterceptor implements Interceptor {
+    private final DependencyLimiter limiter;
+
+    public DependencyConcurrencyInterceptor(DependencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Semaphore semaphore = limiter.forHost(chain.request().url().host());
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection slot");
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+        if (response.body() == null) {
+            semaphore.release();
+            return response;
+        }
+        return response.newBuilder()
+                .body(new OnCloseResponseBody(response.body(), semaphore::release))
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.ThumbnailTester.http;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Concurrency limit per external dependency. The limits hold regardless of the executor mode,
+ * so running tests on virtual threads cannot flood Google or Supabase with unbounded parallel calls.
+ */
+@Component
+public class DependencyLimiter {
+    private final Map<ExternalDependency, Semaphore> semaphores = new EnumMap<>(ExternalDependency.class);
+
+    public DependencyLimiter(@Value("${thumbnail.limits.oauth:16}") int oauth,
+                             @Value("${thumbnail.limits.youtube-data:32}") int youtubeData,
+                             @Value("${thumbnail.limits.youtube-analytics:16}") int youtubeAnalytics,
+                             @Value("${thumbnail.limits.image-storage:32}") int imageStorage) {
+        semaphores.put(ExternalDependency.OAUTH, new Semaphore(oauth, true));
+        semaphores.put(ExternalDependency.YOUTUBE_DATA, new Semaphore(youtubeData, true));
+        semaphores.put(ExternalDependency.YOUTUBE_ANALYTICS, new Semaphore(youtubeAnalytics, true));
+        semaphores.put(ExternalDependency.IMAGE_STORAGE, new Semaphore(imageStorage, true));
+    }
+
+    public Semaphore forHost(String host) {
+        return semaphores.get(ExternalDependency.forHost(host));
+    }
+
+    public int availablePermits(ExternalDependency dependency) {
+        return semaphores.get(dependency).availablePermits();
+    }
+}
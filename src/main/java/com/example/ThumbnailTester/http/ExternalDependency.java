@@ -0,0 +1,29 @@
+package com.example.ThumbnailTester.http;
+
+import java.util.Set;
+
+/**
+ * External services the application calls, identified by request host.
+ * Anything that is not a Google API host is treated as image storage (Supabase).
+ */
+public enum ExternalDependency {
+    OAUTH(Set.of("oauth2.googleapis.com")),
+    YOUTUBE_DATA(Set.of("www.googleapis.com", "youtube.googleapis.com")),
+    YOUTUBE_ANALYTICS(Set.of("youtubeanalytics.googleapis.com")),
+    IMAGE_STORAGE(Set.of());
+
+    private final Set<String> hosts;
+
+    ExternalDependency(Set<String> hosts) {
+        this.hosts = hosts;
+    }
+
+    public static ExternalDependency forHost(String host) {
+        for (ExternalDependency dependency : values()) {
+            if (dependency.hosts.contains(host)) {
+                return dependency;
+            }
+        }
+        return IMAGE_STORAGE;
+    }
+}
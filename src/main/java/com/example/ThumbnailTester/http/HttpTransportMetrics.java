@@ -0,0 +1,102 @@
+package com.example.ThumbnailTester.http;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection-level counters of the shared HTTP client.
+ * Every call acquires a connection; only acquisitions that had to open a new socket
+ * pay a TCP connect and, for HTTPS, a TLS handshake. The difference is the reuse count.
+ */
+@Component
+public class HttpTransportMetrics extends EventListener {
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong tlsHandshakes = new AtomicLong();
+    private final AtomicLong tlsHandshakeNanos = new AtomicLong();
+    private final ThreadLocal<Long> handshakeStart = new ThreadLocal<>();
+
+    @Override
+    public void callStart(Call call) {
+        calls.incrementAndGet();
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        failedCalls.incrementAndGet();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connectionsOpened.incrementAndGet();
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+        connectFailures.incrementAndGet();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        handshakeStart.set(System.nanoTime());
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tlsHandshakes.incrementAndGet();
+        Long start = handshakeStart.get();
+        if (start != null) {
+            tlsHandshakeNanos.addAndGet(System.nanoTime() - start);
+            handshakeStart.remove();
+        }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        connectionsAcquired.incrementAndGet();
+    }
+
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public long getFailedCallCount() {
+        return failedCalls.get();
+    }
+
+    public long getConnectionsAcquired() {
+        return connectionsAcquired.get();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getConnectFailureCount() {
+        return connectFailures.get();
+    }
+
+    public long getConnectionsReused() {
+        return Math.max(0L, connectionsAcquired.get() - connectionsOpened.get());
+    }
+
+    public long getTlsHandshakeCount() {
+        return tlsHandshakes.get();
+    }
+
+    public double getTlsHandshakeMillisTotal() {
+        return tlsHandshakeNanos.get() / 1_000_000.0;
+    }
+}
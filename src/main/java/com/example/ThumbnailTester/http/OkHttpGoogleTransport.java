@@ -0,0 +1,155 @@
+package com.example.ThumbnailTester.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Google API client transport backed by the shared {@link OkHttpClient}, so YouTube Data calls
+ * reuse the same connection pool and TLS sessions as the rest of the application.
+ * Timeouts come from the shared client configuration.
+ */
+public class OkHttpGoogleTransport extends HttpTransport {
+    private final OkHttpClient client;
+
+    public OkHttpGoogleTransport(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        return new OkHttpRequest(client, method, url);
+    }
+
+    private static final class OkHttpRequest extends LowLevelHttpRequest {
+        private final OkHttpClient client;
+        private final String method;
+        private final Request.Builder builder;
+
+        private OkHttpRequest(OkHttpClient client, String method, String url) {
+            this.client = client;
+            this.method = method;
+            this.builder = new Request.Builder().url(url);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            builder.addHeader(name, value);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            if (getContentEncoding() != null) {
+                builder.header("Content-Encoding", getContentEncoding());
+            }
+            builder.method(method, buildBody());
+            return new OkHttpResponse(client.newCall(builder.build()).execute());
+        }
+
+        private RequestBody buildBody() {
+            if (getStreamingContent() == null) {
+                boolean needsBody = "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+                return needsBody ? RequestBody.create(new byte[0], null) : null;
+            }
+            MediaType mediaType = getContentType() != null ? MediaType.parse(getContentType()) : null;
+            long contentLength = getContentLength();
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return mediaType;
+                }
+
+                @Override
+                public long contentLength() {
+                    return contentLength;
+                }
+
+                @Override
+                public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                    getStreamingContent().writeTo(sink.outputStream());
+                }
+            };
+        }
+    }
+
+    private static final class OkHttpResponse extends LowLevelHttpResponse {
+        private final Response response;
+
+        private OkHttpResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public InputStream getContent() {
+            ResponseBody body = response.body();
+            return body != null ? body.byteStream() : null;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return response.header("Content-Encoding");
+        }
+
+        @Override
+        public long getContentLength() {
+            ResponseBody body = response.body();
+            return body != null ? body.contentLength() : -1;
+        }
+
+        @Override
+        public String getContentType() {
+            return response.header("Content-Type");
+        }
+
+        @Override
+        public String getStatusLine() {
+            return response.protocol() + " " + response.code() + " " + response.message();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.code();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return response.message();
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return response.headers().size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return response.headers().name(index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return response.headers().value(index);
+        }
+
+        @Override
+        public void disconnect() {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.ThumbnailTester.http;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response body that runs a callback exactly once when it is closed,
+ * so interceptors can hold a resource or a timer until the body has been consumed.
+ */
+final class OnCloseResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private final BufferedSource source;
+
+    OnCloseResponseBody(ResponseBody delegate, Runnable onClose) {
+        this.delegate = delegate;
+        AtomicBoolean closed = new AtomicBoolean();
+        this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (closed.compareAndSet(false, true)) {
+                        onClose.run();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+
+    @NotNull
+    @Override
+    public BufferedSource source() {
+        return source;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.ThumbnailTester.repositories;
+
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestRunState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface TestRunRepository extends JpaRepository<TestRun, Long> {
+    TestRun findByThumbnailId(long thumbnailId);
+
+    List<TestRun> findAllByStateNotIn(Collection<TestRunState> states);
+
+    /**
+     * @return true if the run tests a thumbnail of the user
+     */
+    @Query("select count(r) > 0 from TestRun r join ThumbnailData t on t.id = r.thumbnailId "
+            + "where r.id = :runId and t.user.googleId = :googleId")
+    boolean isOwnedBy(@Param("runId") long runId, @Param("googleId") String googleId);
+}
@@ -1,16 +1,48 @@
 package com.example.ThumbnailTester.repositories;
 
 import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
+import com.example.ThumbnailTester.dto.TestHistoryItem;
+import com.example.ThumbnailTester.dto.TestHistoryOption;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ThumbnailRepository extends JpaRepository<ThumbnailData, Long> {
     ThumbnailData getThumbnailByUserId(long userId);
 
-    List<ThumbnailData> findAllByUserId(long userID);
-
     ThumbnailData findByVideoUrl(String videoUrl);
+
+    @EntityGraph(attributePaths = {"imageOptions", "imageOptions.thumbnailStats", "testConf", "user"})
+    Optional<ThumbnailData> findWithOptionsById(Long id);
+
+    /**
+     * Keyset page of a user's tests, newest first, projected with their configuration and run state.
+     *
+     * @param googleId the user
+     * @param before   only tests with a smaller id, {@link Long#MAX_VALUE} for the first page
+     * @param limit    the page size
+     */
+    @Query("select new com.example.ThumbnailTester.dto.TestHistoryItem(t.id, t.videoUrl, c.testType, c.testingMode, c.criterionOfWinner, "
+            + "r.id, r.state, r.updatedAt) "
+            + "from ThumbnailData t join t.user u left join t.testConf c left join TestRun r on r.thumbnailId = t.id "
+            + "where u.googleId = :googleId and t.id < :before order by t.id desc")
+    List<TestHistoryItem> findHistoryPage(@Param("googleId") String googleId, @Param("before") long before, Limit limit);
+
+    /**
+     * Options and stats of several tests in a single join, ordered by test and option.
+     */
+    @Query("select new com.example.ThumbnailTester.dto.TestHistoryOption(o.thumbnail.id, o.id, o.fileUrl, o.text, o.isWinner, "
+            + "s.views, s.ctr, s.averageViewDuration, s.advCtr, s.comments, s.shares, s.likes, s.subscribersGained, "
+            + "s.averageViewPercentage, s.totalWatchTime) "
+            + "from ImageOption o left join o.thumbnailStats s "
+            + "where o.thumbnail.id in :thumbnailIds order by o.thumbnail.id, o.id")
+    List<TestHistoryOption> findHistoryOptions(@Param("thumbnailIds") Collection<Long> thumbnailIds);
 }
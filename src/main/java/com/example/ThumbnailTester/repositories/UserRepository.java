@@ -2,11 +2,27 @@ package com.example.ThumbnailTester.repositories;
 
 import com.example.ThumbnailTester.data.user.UserData;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
 public interface UserRepository extends JpaRepository<UserData, Long> {
     boolean existsById(Long id);
 
     UserData findByGoogleId(String googleId);
+
+    /**
+     * Replaces the stored refresh token only if it still holds the expected ciphertext,
+     * so a token saved concurrently by a new sign-in is never overwritten.
+     *
+     * @return the number of updated rows, 0 if the token had changed
+     */
+    @Modifying
+    @Transactional
+    @Query("update UserData u set u.refreshToken = :newToken where u.googleId = :googleId and u.refreshToken = :oldToken")
+    int replaceRefreshToken(@Param("googleId") String googleId, @Param("oldToken") String oldToken,
+                            @Param("newToken") String newToken);
 }
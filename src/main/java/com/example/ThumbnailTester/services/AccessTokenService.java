@@ -0,0 +1,272 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.repositories.UserRepository;
+import com.example.ThumbnailTester.util.AESUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user cache of OAuth access tokens shared by the YouTube Data and Analytics services.
+ * Tokens are served until shortly before their {@code expires_in} runs out; inside the
+ * refresh-ahead window the cached token is still returned while a background refresh replaces it.
+ * Concurrent refreshes for the same user are collapsed into a single in-flight request.
+ * A stored refresh token that is still legacy ECB or under a retired key is re-encrypted
+ * with the active key after it was used successfully.
+ */
+@Service
+public class AccessTokenService {
+    private static final Logger log = LoggerFactory.getLogger(AccessTokenService.class);
+
+    private static final String OAUTH_TOKEN_URL = "https://oauth2.googleapis.com/token";
+    private static final String TOKEN_INFO_URL = "https://oauth2.googleapis.com/tokeninfo";
+    private static final long DEFAULT_EXPIRES_IN_SECONDS = 3600L;
+
+    @Value("${youtube.client.id}")
+    private String clientId;
+
+    @Value("${youtube.client.secret}")
+    private String clientSecret;
+
+    @Value("${youtube.token.refresh-ahead-seconds:300}")
+    private long refreshAheadSeconds;
+
+    @Value("${youtube.token.min-validity-seconds:30}")
+    private long minValiditySeconds;
+
+    @Autowired
+    private AESUtil aesUtil;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private Executor executor;
+
+    @Autowired
+    private OkHttpClient httpClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedToken>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicLong reEncryptions = new AtomicLong();
+
+    /**
+     * Returns a valid access token for the user, refreshing it only when the cached one
+     * is missing or about to expire.
+     *
+     * @param user the user whose refresh token is used
+     * @return the access token or null if it could not be obtained
+     */
+    public String getAccessToken(UserData user) {
+        String key = user.getGoogleId();
+        long now = System.currentTimeMillis();
+        CachedToken cached = tokens.get(key);
+
+        if (cached != null && cached.expiresAtMillis - now > minValiditySeconds * 1000L) {
+            hits.incrementAndGet();
+            if (cached.expiresAtMillis - now <= refreshAheadSeconds * 1000L) {
+                refresh(user, false);
+            }
+            return cached.accessToken;
+        }
+
+        misses.incrementAndGet();
+        try {
+            CachedToken token = refresh(user, true).join();
+            return token != null ? token.accessToken : null;
+        } catch (CompletionException e) {
+            log.error("Failed to obtain access token for user with GoogleId: {}", key, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Checks that a refresh token was issued to a Google account, by asking Google's tokeninfo endpoint for the
+     * subject of an access token obtained with it. The access token is not cached.
+     *
+     * @param googleId     the account the token should belong to
+     * @param refreshToken the plain refresh token
+     * @return true if Google reports the account as the token's subject
+     */
+    public boolean isIssuedTo(String googleId, String refreshToken) {
+        try {
+            CachedToken token = requestToken(refreshToken);
+            if (token == null) {
+                return false;
+            }
+            Request request = new Request.Builder()
+                    .url(TOKEN_INFO_URL)
+                    .post(new FormBody.Builder().add("access_token", token.accessToken).build())
+                    .build();
+            JsonNode jsonNode;
+            try (Response response = httpClient.newCall(request).execute()) {
+                jsonNode = objectMapper.readTree(response.body().byteStream());
+            }
+            return googleId.equals(jsonNode.path("sub").asText(null));
+        } catch (Exception e) {
+            log.warn("Failed to verify the refresh token of user with GoogleId: {}", googleId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Drops the cached token of the user, e.g. after the API rejected it with 401.
+     *
+     * @param user the user whose token should be forgotten
+     */
+    public void invalidate(UserData user) {
+        tokens.remove(user.getGoogleId());
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailures.get();
+    }
+
+    public long getReEncryptionCount() {
+        return reEncryptions.get();
+    }
+
+    /**
+     * Starts a refresh for the user unless one is already running, in which case the running one is returned.
+     * A caller that has no usable token runs the refresh inline; refresh-ahead runs on the async executor
+     * and is skipped while the executor rejects tasks, since the cached token is still valid.
+     */
+    private CompletableFuture<CachedToken> refresh(UserData user, boolean inline) {
+        String key = user.getGoogleId();
+        String encryptedRefreshToken = user.getRefreshToken();
+
+        CompletableFuture<CachedToken> created = new CompletableFuture<>();
+        CompletableFuture<CachedToken> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        Runnable task = () -> {
+            try {
+                String refreshToken = aesUtil.decrypt(encryptedRefreshToken);
+                CachedToken token = requestToken(refreshToken);
+                if (token != null) {
+                    tokens.put(key, token);
+                    reEncryptIfNeeded(user, encryptedRefreshToken, refreshToken);
+                }
+                created.complete(token);
+            } catch (Exception e) {
+                refreshFailures.incrementAndGet();
+                created.completeExceptionally(e);
+            } finally {
+                inFlight.remove(key, created);
+            }
+        };
+
+        if (inline) {
+            task.run();
+            return created;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("Executor saturated, skipping refresh-ahead for user with GoogleId: {}", key);
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Rewrites the stored refresh token under the active key. Failures are only logged,
+     * the old ciphertext keeps working and the next refresh tries again.
+     */
+    private void reEncryptIfNeeded(UserData user, String encryptedRefreshToken, String refreshToken) {
+        if (!aesUtil.needsReEncryption(encryptedRefreshToken)) {
+            return;
+        }
+        try {
+            String reEncrypted = aesUtil.encrypt(refreshToken);
+            if (userRepository.replaceRefreshToken(user.getGoogleId(), encryptedRefreshToken, reEncrypted) > 0) {
+                user.setRefreshToken(reEncrypted);
+                reEncryptions.incrementAndGet();
+                log.info("Re-encrypted refresh token of user with GoogleId: {}", user.getGoogleId());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to re-encrypt refresh token of user with GoogleId: {}", user.getGoogleId(), e);
+        }
+    }
+
+    private CachedToken requestToken(String refreshToken) throws Exception {
+        log.info("Refreshing access token");
+        refreshes.incrementAndGet();
+        RequestBody requestBody = new FormBody.Builder()
+                .add("client_id", clientId)
+                .add("client_secret", clientSecret)
+                .add("refresh_token", refreshToken)
+                .add("grant_type", "refresh_token")
+                .build();
+
+        Request request = new Request.Builder()
+                .url(OAUTH_TOKEN_URL)
+                .post(requestBody)
+                .build();
+
+        JsonNode jsonNode;
+        try (Response response = httpClient.newCall(request).execute()) {
+            jsonNode = objectMapper.readTree(response.body().byteStream());
+        }
+
+        if (!jsonNode.has("access_token")) {
+            refreshFailures.incrementAndGet();
+            log.error("Failed to obtain access token: {}", jsonNode.path("error"));
+            return null;
+        }
+
+        long expiresIn = jsonNode.path("expires_in").asLong(DEFAULT_EXPIRES_IN_SECONDS);
+        return new CachedToken(jsonNode.get("access_token").asText(), System.currentTimeMillis() + expiresIn * 1000L);
+    }
+
+    private static final class CachedToken {
+        private final String accessToken;
+        private final long expiresAtMillis;
+
+        private CachedToken(String accessToken, long expiresAtMillis) {
+            this.accessToken = accessToken;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.ThumbnailTester.services;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of the images downloaded from Supabase storage.
+ * Files are named {@code <sha256(url)>-<sha256(content)><ext>}, so an image is downloaded once and shared by
+ * validation, upload and every later test that reuses it. A file is served without a request for
+ * {@code thumbnail.image-cache.ttl-seconds} after it was downloaded or revalidated; after that the next acquire
+ * sends a conditional GET with its ETag and Last-Modified, and a changed object behind the same URL lands
+ * in a new file. Files left by a previous run have no validators and are downloaded again on first use.
+ * The cache is bounded by size and evicts least recently used files, skipping files that are still acquired;
+ * a replaced file is deleted when its last reader releases it. Downloads are written to a temp file and
+ * renamed into place, so readers never see a partial image.
+ */
+@Service
+public class ImageFileCache {
+    private static final Logger log = LoggerFactory.getLogger(ImageFileCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern CACHE_FILE_NAME = Pattern.compile("([0-9a-f]{64})-([0-9a-f]{64})(\\.[A-Za-z0-9]+)?");
+
+    @Value("${thumbnail.image-cache.dir:${java.io.tmpdir}/thumbnails}")
+    private String cacheDir;
+
+    @Value("${thumbnail.image-cache.max-bytes:536870912}")
+    private long maxBytes;
+
+    @Value("${thumbnail.image-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Autowired
+    private SupaBaseImageService supaBaseImageService;
+
+    private Path directory;
+    private long totalBytes;
+
+    // URL hash -> entry, in access order; guarded by itself together with totalBytes and retired
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // files replaced by a newer download that are still acquired
+    private final Map<File, Entry> retired = new HashMap<>();
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Picks up the files left by a previous run and removes unfinished downloads.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Path.of(cacheDir);
+        Files.createDirectories(directory);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparingLong(ImageFileCache::lastModified))
+                    .toList();
+        }
+        synchronized (entries) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = CACHE_FILE_NAME.matcher(name);
+                if (!matcher.matches()) {
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        deleteQuietly(file);
+                    }
+                    continue;
+                }
+                Entry entry = new Entry(file.toFile(), file.toFile().length());
+                Entry previous = entries.put(matcher.group(1), entry);
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                    deleteQuietly(previous.file.toPath());
+                }
+                totalBytes += entry.size;
+            }
+            evictIfNeeded();
+        }
+        log.info("Image cache at {} holds {} files, {} bytes", directory, entries.size(), totalBytes);
+    }
+
+    /**
+     * Returns the local copy of the image, downloading it on a miss and revalidating it once it is older
+     * than the TTL. The file stays on disk until it is released with {@link #release(URL, File)}.
+     *
+     * @param url the URL of the image
+     * @return the cached file or null if it could not be downloaded
+     */
+    public File acquire(URL url) {
+        String urlHash = sha256Hex(url.toString().getBytes(StandardCharsets.UTF_8));
+        while (true) {
+            Entry stale;
+            synchronized (entries) {
+                Entry entry = entries.get(urlHash);
+                if (entry != null && entry.file.exists() && isFresh(entry)) {
+                    entry.refs++;
+                    hits.incrementAndGet();
+                    bytesSaved.addAndGet(entry.size);
+                    return entry.file;
+                }
+                stale = entry != null && entry.file.exists() ? entry : null;
+            }
+
+            CompletableFuture<Entry> created = new CompletableFuture<>();
+            CompletableFuture<Entry> existing = inFlight.putIfAbsent(urlHash, created);
+            if (existing != null) {
+                Entry entry;
+                try {
+                    entry = existing.join();
+                } catch (CompletionException e) {
+                    return null;
+                }
+                if (acquireDownloaded(urlHash, entry)) {
+                    return entry.file;
+                }
+                continue;
+            }
+
+            try {
+                Entry entry = fetch(url, urlHash, stale);
+                created.complete(entry);
+                return entry.file;
+            } catch (Exception e) {
+                created.completeExceptionally(e);
+                return null;
+            } finally {
+                inFlight.remove(urlHash, created);
+            }
+        }
+    }
+
+    /**
+     * Hands a file obtained from {@link #acquire(URL)} back to the cache so it can be evicted again.
+     *
+     * @param url  the URL the file was acquired for
+     * @param file the file {@link #acquire(URL)} returned
+     */
+    public void release(URL url, File file) {
+        String urlHash = sha256Hex(url.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (entries) {
+            Entry entry = entries.get(urlHash);
+            if (entry != null && entry.file.equals(file)) {
+                if (entry.refs > 0) {
+                    entry.refs--;
+                }
+            } else {
+                Entry replaced = retired.get(file);
+                if (replaced != null && --replaced.refs <= 0) {
+                    retired.remove(file);
+                    totalBytes -= replaced.size;
+                    deleteQuietly(file.toPath());
+                }
+            }
+            evictIfNeeded();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of acquires answered by a 304 to a conditional GET
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getSizeBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Acquires the entry another thread downloaded or revalidated, unless the downloader released it
+     * and it was evicted or replaced since.
+     */
+    private boolean acquireDownloaded(String urlHash, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(urlHash) != entry || !entry.file.exists()) {
+                return false;
+            }
+            entry.refs++;
+        }
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.size);
+        return true;
+    }
+
+    /**
+     * Downloads the image, or revalidates the stale entry with a conditional GET.
+     *
+     * @return the acquired entry
+     */
+    private Entry fetch(URL url, String urlHash, Entry stale) throws IOException {
+        Path temp = Files.createTempFile(directory, urlHash, TEMP_SUFFIX);
+        try {
+            SupaBaseImageService.Download download = stale != null
+                    ? supaBaseImageService.downloadTo(url, temp, stale.etag, stale.lastModified)
+                    : supaBaseImageService.downloadTo(url, temp, null, null);
+            if (download == null) {
+                misses.incrementAndGet();
+                throw new IOException("Failed to download " + url);
+            }
+            if (download.isNotModified()) {
+                synchronized (entries) {
+                    if (entries.get(urlHash) == stale && stale.file.exists()) {
+                        stale.validatedAtMillis = System.currentTimeMillis();
+                        stale.refs++;
+                        revalidations.incrementAndGet();
+                        bytesSaved.addAndGet(stale.size);
+                        return stale;
+                    }
+                }
+                // evicted while it was revalidated
+                return fetch(url, urlHash, null);
+            }
+
+            misses.incrementAndGet();
+            Path target = directory.resolve(urlHash + "-" + download.getContentHash() + extensionOf(supaBaseImageService.getFileName(url)));
+            File file = target.toFile();
+            Entry entry;
+            synchronized (entries) {
+                // moved under the lock, so eviction never deletes the file of an entry that is being replaced
+                moveAtomically(temp, target);
+                Entry previous = entries.get(urlHash);
+                entry = previous != null && previous.file.equals(file) ? previous : retired.remove(file);
+                if (entry == null) {
+                    entry = new Entry(file, Files.size(target));
+                    totalBytes += entry.size;
+                }
+                if (entry != previous) {
+                    entries.put(urlHash, entry);
+                    if (previous != null) {
+                        retire(previous);
+                    }
+                }
+                entry.etag = download.getEtag();
+                entry.lastModified = download.getLastModified();
+                entry.validatedAtMillis = System.currentTimeMillis();
+                entry.refs++;
+                evictIfNeeded();
+            }
+            log.info("Cached image {} as {} ({} bytes)", url, target.getFileName(), entry.size);
+            return entry;
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    private boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.validatedAtMillis < ttlSeconds * 1000L;
+    }
+
+    /**
+     * Deletes a file replaced by a newer download, or keeps it until its readers release it.
+     * Must be called while holding the lock on {@link #entries}.
+     */
+    private void retire(Entry entry) {
+        if (entry.refs > 0) {
+            retired.put(entry.file, entry);
+        } else {
+            totalBytes -= entry.size;
+            deleteQuietly(entry.file.toPath());
+        }
+    }
+
+    /**
+     * Removes least recently used files that are not acquired until the cache fits its size bound.
+     * Must be called while holding the lock on {@link #entries}.
+     */
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refs > 0) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= entry.size;
+            evictions.incrementAndGet();
+            deleteQuietly(entry.file.toPath());
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        String extension = dotIndex > 0 ? fileName.substring(dotIndex) : "";
+        return extension.matches("\\.[A-Za-z0-9]+") ? extension : "";
+    }
+
+    private static long lastModified(Path file) {
+        return file.toFile().lastModified();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete file: {}", file, e);
+        }
+    }
+
+    private static String sha256Hex(byte[] input) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(input));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    private static final class Entry {
+        private final File file;
+        private final long size;
+        private int refs;
+        private String etag;
+        private String lastModified;
+        private long validatedAtMillis;
+
+        private Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
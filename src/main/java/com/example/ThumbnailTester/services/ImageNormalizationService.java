@@ -0,0 +1,372 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ImageNormalizationResult;
+import com.example.ThumbnailTester.util.ImageProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional processing stage between download and upload. When enabled, every thumbnail is cropped
+ * (or letterboxed) to 16:9, downsized to at most 1280x720 and re-encoded as JPEG with the highest
+ * quality that still fits {@code thumbnail.normalize.target-bytes}. Validation then accepts images
+ * of any aspect ratio, up to {@code thumbnail.normalize.max-input-bytes} and
+ * {@code thumbnail.normalize.max-input-pixels}. Images are decoded with source subsampling and only the
+ * cropped region is read, so no more than about twice the output resolution is held in memory.
+ */
+@Service
+public class ImageNormalizationService {
+    private static final Logger log = LoggerFactory.getLogger(ImageNormalizationService.class);
+
+    private static final String QUEUE_NORMALIZED = "/queue/thumbnail/normalized";
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+    private static final int TARGET_WIDTH = 1280;
+    private static final int ASPECT_RATIO_WIDTH = 16;
+    private static final int ASPECT_RATIO_HEIGHT = 9;
+    private static final float MAX_QUALITY = 0.95f;
+    private static final int QUALITY_SEARCH_STEPS = 6;
+    private static final long MAX_UPLOAD_BYTES = 2L * 1024 * 1024;
+
+    public static final String MODE_CROP = "crop";
+    public static final String MODE_LETTERBOX = "letterbox";
+
+    @Value("${thumbnail.normalize.enabled:false}")
+    private boolean enabled;
+
+    @Value("${thumbnail.normalize.mode:" + MODE_CROP + "}")
+    private String mode;
+
+    @Value("${thumbnail.normalize.target-bytes:1048576}")
+    private long targetBytes;
+
+    @Value("${thumbnail.normalize.min-quality:0.5}")
+    private float minQuality;
+
+    @Value("${thumbnail.normalize.max-input-bytes:20971520}")
+    private long maxInputBytes;
+
+    @Value("${thumbnail.normalize.max-input-pixels:50000000}")
+    private long maxInputPixels;
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final AtomicLong normalizedImages = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public ImageNormalizationService(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaxInputBytes() {
+        return maxInputBytes;
+    }
+
+    /**
+     * Checks whether an image in this format and of these dimensions can be decoded by the stage.
+     *
+     * @param imageInfo the probed header of the image
+     * @return true if the stage can normalize the image
+     */
+    public boolean canNormalize(ImageProbe.ImageInfo imageInfo) {
+        return imageInfo.getFormat() != ImageProbe.Format.WEBP
+                && imageInfo.getWidth() >= ASPECT_RATIO_WIDTH && imageInfo.getHeight() >= ASPECT_RATIO_HEIGHT
+                && (long) imageInfo.getWidth() * imageInfo.getHeight() <= maxInputPixels;
+    }
+
+    /**
+     * Prepares an image for {@code thumbnails.set}: the normalized copy when the stage is enabled,
+     * otherwise the original file with the MIME type of its actual format.
+     *
+     * @param user          the user who started the test and receives the progress report
+     * @param original      the downloaded image
+     * @param imageOptionId the option the image belongs to, used in the progress report
+     * @return the file to upload; {@link PreparedImage#discard()} must be called after the upload
+     * @throws IOException if the image cannot be read or encoded
+     */
+    public PreparedImage prepareForUpload(UserData user, File original, Long imageOptionId) throws IOException {
+        ImageProbe.ImageInfo imageInfo;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(original.toPath()))) {
+            imageInfo = ImageProbe.probe(in);
+        }
+        if (imageInfo == null) {
+            throw new IOException("Not an image: " + original.getName());
+        }
+        if (!enabled) {
+            return new PreparedImage(original, imageInfo.getFormat().getMimeType(), false);
+        }
+
+        long originalBytes = original.length();
+        if (imageInfo.getFormat() == ImageProbe.Format.JPEG && originalBytes <= targetBytes
+                && imageInfo.getWidth() == TARGET_WIDTH && isAspectRatio16by9(imageInfo.getWidth(), imageInfo.getHeight())) {
+            report(user, imageOptionId, originalBytes, originalBytes, imageInfo.getWidth(), imageInfo.getHeight(), null);
+            return new PreparedImage(original, JPEG_MIME_TYPE, false);
+        }
+
+        BufferedImage normalized = normalize(original);
+
+        Encoded encoded = encodeWithinTarget(normalized);
+        if (encoded.bytes.length > MAX_UPLOAD_BYTES) {
+            throw new IOException("Normalized image is still larger than 2 MB: " + encoded.bytes.length + " bytes");
+        }
+
+        // the .tmp suffix lets the image cache clean up copies left behind by a crash
+        Path file = Files.createTempFile(original.toPath().getParent(), "normalized-", ".jpg.tmp");
+        Files.write(file, encoded.bytes);
+        report(user, imageOptionId, originalBytes, encoded.bytes.length, normalized.getWidth(), normalized.getHeight(), encoded.quality);
+        return new PreparedImage(file.toFile(), JPEG_MIME_TYPE, true);
+    }
+
+    public long getNormalizedCount() {
+        return normalizedImages.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Reads the image through an {@link ImageReader} and crops or letterboxes it, checking its dimensions
+     * again since the file may have changed since validation.
+     */
+    private BufferedImage normalize(File original) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(original)) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + original.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width < ASPECT_RATIO_WIDTH || height < ASPECT_RATIO_HEIGHT || (long) width * height > maxInputPixels) {
+                    throw new IOException("Cannot normalize an image of " + width + "x" + height + " pixels");
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                return MODE_LETTERBOX.equalsIgnoreCase(mode) ? letterbox(reader, param, width, height) : crop(reader, param, width, height);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Cuts the largest centered 16:9 region out of the image and scales it down to the target size.
+     * Only that region is decoded.
+     */
+    private BufferedImage crop(ImageReader reader, ImageReadParam param, int width, int height) throws IOException {
+        int cropWidth = width;
+        int cropHeight = height;
+        if ((long) width * ASPECT_RATIO_HEIGHT > (long) height * ASPECT_RATIO_WIDTH) {
+            cropWidth = height * ASPECT_RATIO_WIDTH / ASPECT_RATIO_HEIGHT;
+        } else {
+            cropHeight = width * ASPECT_RATIO_HEIGHT / ASPECT_RATIO_WIDTH;
+        }
+        int outWidth = outputWidth(cropWidth);
+        int outHeight = outWidth * ASPECT_RATIO_HEIGHT / ASPECT_RATIO_WIDTH;
+
+        param.setSourceRegion(new Rectangle((width - cropWidth) / 2, (height - cropHeight) / 2, cropWidth, cropHeight));
+        param.setSourceSubsampling(subsampling(cropWidth, outWidth), subsampling(cropHeight, outHeight), 0, 0);
+        BufferedImage region = reader.read(0, param);
+        BufferedImage output = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        draw(output, downscale(region, outWidth, outHeight), 0, 0, outWidth, outHeight);
+        return output;
+    }
+
+    /**
+     * Fits the whole image into a 16:9 canvas of the target size, padding the remaining area with black.
+     */
+    private BufferedImage letterbox(ImageReader reader, ImageReadParam param, int width, int height) throws IOException {
+        int canvasWidth = outputWidth(Math.max(width, height * ASPECT_RATIO_WIDTH / ASPECT_RATIO_HEIGHT));
+        int canvasHeight = canvasWidth * ASPECT_RATIO_HEIGHT / ASPECT_RATIO_WIDTH;
+
+        double scale = Math.min((double) canvasWidth / width, (double) canvasHeight / height);
+        int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+
+        param.setSourceSubsampling(subsampling(width, scaledWidth), subsampling(height, scaledHeight), 0, 0);
+        BufferedImage source = reader.read(0, param);
+        BufferedImage output = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = output.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, canvasWidth, canvasHeight);
+        graphics.dispose();
+        draw(output, downscale(source, scaledWidth, scaledHeight),
+                (canvasWidth - scaledWidth) / 2, (canvasHeight - scaledHeight) / 2, scaledWidth, scaledHeight);
+        return output;
+    }
+
+    /**
+     * Keeps every n-th pixel of a source dimension so that at most twice the target remains.
+     */
+    private static int subsampling(int source, int target) {
+        long twice = 2L * target;
+        return (int) Math.max(1, (source + twice - 1) / twice);
+    }
+
+    /**
+     * Width of the output: the target width for large images, otherwise the source width
+     * rounded down to a multiple of 16 so the height stays an exact 9/16 of it.
+     */
+    private static int outputWidth(int sourceWidth) {
+        int width = Math.min(TARGET_WIDTH, sourceWidth);
+        return Math.max(ASPECT_RATIO_WIDTH, width - width % ASPECT_RATIO_WIDTH);
+    }
+
+    /**
+     * Halves the image with bilinear filtering until one more step would pass the target,
+     * which keeps large reductions sharp without the cost of bicubic sampling.
+     */
+    private static BufferedImage downscale(BufferedImage image, int targetWidth, int targetHeight) {
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            width /= 2;
+            height /= 2;
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            draw(step, current, 0, 0, width, height);
+            current = step;
+        }
+        return current;
+    }
+
+    private static void draw(BufferedImage target, BufferedImage source, int x, int y, int width, int height) {
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, x, y, width, height, Color.BLACK, null);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Binary-searches the JPEG quality for the largest encoding that fits the target size.
+     * Falls back to the minimum quality when even that is over the target.
+     */
+    private Encoded encodeWithinTarget(BufferedImage image) throws IOException {
+        Encoded best = null;
+        float low = minQuality;
+        float high = MAX_QUALITY;
+
+        Encoded top = encode(image, high);
+        if (top.bytes.length <= targetBytes) {
+            return top;
+        }
+        for (int step = 0; step < QUALITY_SEARCH_STEPS; step++) {
+            float quality = (low + high) / 2;
+            Encoded encoded = encode(image, quality);
+            if (encoded.bytes.length <= targetBytes) {
+                best = encoded;
+                low = quality;
+            } else {
+                high = quality;
+            }
+        }
+        return best != null ? best : encode(image, minQuality);
+    }
+
+    private static Encoded encode(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return new Encoded(out.toByteArray(), quality);
+    }
+
+    private void report(UserData user, Long imageOptionId, long originalBytes, long normalizedBytes, int width, int height, Float quality) {
+        long saved = originalBytes - normalizedBytes;
+        normalizedImages.incrementAndGet();
+        bytesSaved.addAndGet(Math.max(0, saved));
+        log.info("Normalized image option {} to {}x{} at quality {}: {} -> {} bytes", imageOptionId, width, height,
+                quality, originalBytes, normalizedBytes);
+        messagingTemplate.convertAndSendToUser(user.getGoogleId(), QUEUE_NORMALIZED,
+                new ImageNormalizationResult(imageOptionId, width, height, quality, originalBytes, normalizedBytes, saved));
+    }
+
+    private static boolean isAspectRatio16by9(int width, int height) {
+        return width * ASPECT_RATIO_HEIGHT == height * ASPECT_RATIO_WIDTH;
+    }
+
+    private static final class Encoded {
+        private final byte[] bytes;
+        private final float quality;
+
+        private Encoded(byte[] bytes, float quality) {
+            this.bytes = bytes;
+            this.quality = quality;
+        }
+    }
+
+    /**
+     * The file handed to the upload and whether it was created by the stage.
+     */
+    public static final class PreparedImage {
+        private final File file;
+        private final String mimeType;
+        private final boolean temporary;
+
+        private PreparedImage(File file, String mimeType, boolean temporary) {
+            this.file = file;
+            this.mimeType = mimeType;
+            this.temporary = temporary;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Deletes the normalized copy; the original stays in the image cache.
+         */
+        public void discard() {
+            if (temporary && !file.delete()) {
+                log.warn("Failed to delete normalized image: {}", file.getAbsolutePath());
+            }
+        }
+    }
+}
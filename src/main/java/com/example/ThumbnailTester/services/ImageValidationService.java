@@ -0,0 +1,178 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.dto.ImageValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads and validates the image options of a test in parallel.
+ * Each request runs at most {@code per-request-concurrency} workers, one of them on the calling thread,
+ * and all requests together hold at most {@code global-concurrency} images at a time.
+ * The first invalid image fails the whole request and the remaining images are skipped.
+ * Every per-image outcome is pushed to {@value #QUEUE_VALIDATION} of the requesting user as it completes.
+ */
+@Service
+public class ImageValidationService {
+    private static final Logger log = LoggerFactory.getLogger(ImageValidationService.class);
+
+    private static final String QUEUE_VALIDATION = "/queue/thumbnail/validation";
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
+    private static final String ERR_INVALID_IMAGE_URL = "Invalid image URL";
+    private static final String ERR_CANCELLED = "Cancelled";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int perRequestConcurrency;
+    private final Semaphore globalPermits;
+
+    @Autowired
+    private ImageFileCache imageFileCache;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private Executor executor;
+
+    public ImageValidationService(SimpMessagingTemplate messagingTemplate,
+                                  @Value("${thumbnail.validation.per-request-concurrency:4}") int perRequestConcurrency,
+                                  @Value("${thumbnail.validation.global-concurrency:16}") int globalConcurrency) {
+        this.messagingTemplate = messagingTemplate;
+        this.perRequestConcurrency = perRequestConcurrency;
+        this.globalPermits = new Semaphore(globalConcurrency, true);
+    }
+
+    /**
+     * Validates all image options, stopping at the first one that turns out to be invalid.
+     *
+     * @param user         the user who started the test and receives the outcomes
+     * @param imageOptions the options to download and check
+     * @return true if every image is valid, false on the first invalid one
+     */
+    public boolean validateAll(UserData user, List<ImageOption> imageOptions) {
+        if (imageOptions.isEmpty()) {
+            return true;
+        }
+        int workers = Math.max(1, Math.min(perRequestConcurrency, imageOptions.size()));
+        Validation validation = new Validation(user.getGoogleId(), imageOptions, workers);
+        // the calling thread is one of the workers, so validation progresses even when the executor is saturated
+        for (int i = 1; i < workers; i++) {
+            try {
+                executor.execute(() -> work(validation));
+            } catch (RejectedExecutionException e) {
+                log.warn("Validation worker rejected by executor, continuing with fewer workers");
+                validation.remainingWorkers.decrementAndGet();
+            }
+        }
+        work(validation);
+        return validation.outcome.join();
+    }
+
+    /**
+     * @return how many more images may be validated concurrently across all requests
+     */
+    public int getAvailablePermits() {
+        return globalPermits.availablePermits();
+    }
+
+    private void work(Validation validation) {
+        try {
+            int index;
+            while ((index = validation.next.getAndIncrement()) < validation.options.size()) {
+                if (validation.failed.get()) {
+                    publish(validation, new ImageValidationResult(index, validation.options.get(index).getFileUrl(), false, ERR_CANCELLED));
+                    continue;
+                }
+                String error = validateOne(validation, validation.options.get(index));
+                if (error == null) {
+                    publish(validation, new ImageValidationResult(index, validation.options.get(index).getFileUrl(), true, null));
+                } else if (validation.failed.compareAndSet(false, true)) {
+                    publish(validation, new ImageValidationResult(index, validation.options.get(index).getFileUrl(), false, error));
+                    messagingTemplate.convertAndSendToUser(validation.googleId, QUEUE_ERROR, error);
+                    validation.outcome.complete(false);
+                } else {
+                    publish(validation, new ImageValidationResult(index, validation.options.get(index).getFileUrl(), false, ERR_CANCELLED));
+                }
+            }
+        } catch (Exception e) {
+            log.error("Image validation worker failed", e);
+            validation.failed.set(true);
+            validation.outcome.complete(false);
+        } finally {
+            if (validation.remainingWorkers.decrementAndGet() == 0) {
+                validation.outcome.complete(!validation.failed.get());
+            }
+        }
+    }
+
+    /**
+     * @return null if the image is valid, otherwise the reason it is not
+     */
+    private String validateOne(Validation validation, ImageOption option) throws InterruptedException {
+        String fileUrl = option.getFileUrl();
+        if (fileUrl == null || fileUrl.isEmpty()) {
+            log.error("Invalid image URL: null or empty");
+            return ERR_INVALID_IMAGE_URL;
+        }
+        URL url;
+        try {
+            url = URI.create(fileUrl).toURL();
+        } catch (IllegalArgumentException | MalformedURLException e) {
+            log.error("Invalid image URL: {}", fileUrl, e);
+            return ERR_INVALID_IMAGE_URL;
+        }
+
+        globalPermits.acquire();
+        try {
+            if (validation.failed.get()) {
+                return ERR_CANCELLED;
+            }
+            File file = imageFileCache.acquire(url);
+            try {
+                return thumbnailService.checkImage(file);
+            } finally {
+                if (file != null) {
+                    imageFileCache.release(url, file);
+                }
+            }
+        } finally {
+            globalPermits.release();
+        }
+    }
+
+    private void publish(Validation validation, ImageValidationResult result) {
+        messagingTemplate.convertAndSendToUser(validation.googleId, QUEUE_VALIDATION, result);
+    }
+
+    private static final class Validation {
+        private final String googleId;
+        private final List<ImageOption> options;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicInteger remainingWorkers;
+        private final CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+
+        private Validation(String googleId, List<ImageOption> options, int workers) {
+            this.googleId = googleId;
+            this.options = options;
+            this.remainingWorkers = new AtomicInteger(workers);
+        }
+    }
+}
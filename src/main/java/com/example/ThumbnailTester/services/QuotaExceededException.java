@@ -0,0 +1,11 @@
+package com.example.ThumbnailTester.services;
+
+/**
+ * Thrown when a YouTube API call is not admitted because the daily quota or a rate bucket is used up.
+ * Nothing was sent to Google; the call may be retried after {@link #getRetryAfterMillis()}.
+ */
+public class QuotaExceededException extends RetryableApiException {
+    public QuotaExceededException(String message, long retryAfterMillis) {
+        super(message, 0, retryAfterMillis);
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts YouTube API calls against the project's daily quota and paces them with token buckets.
+ * Every operation has a unit cost; writes such as {@code thumbnails.set} cost far more than reads.
+ * A call is charged to the daily ledger of its API, which resets at midnight Pacific time like Google's,
+ * and drawn from a global and a per-user bucket. Short bucket waits are slept through; longer ones
+ * and an exhausted day fail with {@link QuotaExceededException} so the caller can reschedule.
+ * <p>
+ * The daily ledger is the {@code youtube_quota_usage} table, so all nodes draw from one quota and a restart keeps
+ * what was spent. A call adds its cost with an upsert that only applies while the sum stays within the quota, and
+ * the quota day is taken from the database clock. The token buckets pace the calls of this node only.
+ */
+@Service
+public class QuotaLedger {
+    private static final Logger log = LoggerFactory.getLogger(QuotaLedger.class);
+
+    private static final ZoneId QUOTA_ZONE = ZoneId.of("America/Los_Angeles");
+    private static final String QUOTA_DAY = "CAST(now() AT TIME ZONE '" + QUOTA_ZONE.getId() + "' AS date)";
+
+    private static final String CHARGE = "INSERT INTO youtube_quota_usage (api, quota_day, used_units) VALUES (?, " + QUOTA_DAY + ", ?) "
+            + "ON CONFLICT (api, quota_day) DO UPDATE SET used_units = youtube_quota_usage.used_units + EXCLUDED.used_units "
+            + "WHERE youtube_quota_usage.used_units + EXCLUDED.used_units <= ? RETURNING used_units";
+    private static final String EXHAUST = "INSERT INTO youtube_quota_usage (api, quota_day, used_units) VALUES (?, " + QUOTA_DAY + ", ?) "
+            + "ON CONFLICT (api, quota_day) DO UPDATE SET used_units = GREATEST(youtube_quota_usage.used_units, EXCLUDED.used_units)";
+    private static final String SELECT_USED = "SELECT used_units FROM youtube_quota_usage WHERE api = ? AND quota_day = " + QUOTA_DAY;
+
+    public enum Api {
+        DATA,
+        ANALYTICS
+    }
+
+    /**
+     * Operations and their cost in quota units, as listed in Google's quota calculator.
+     */
+    public enum Operation {
+        VIDEOS_LIST(Api.DATA, 1),
+        CHANNELS_LIST(Api.DATA, 1),
+        VIDEOS_UPDATE(Api.DATA, 50),
+        THUMBNAILS_SET(Api.DATA, 50),
+        REPORTS_QUERY(Api.ANALYTICS, 1);
+
+        private final Api api;
+        private final int cost;
+
+        Operation(Api api, int cost) {
+            this.api = api;
+            this.cost = cost;
+        }
+
+        public Api getApi() {
+            return api;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Api, Long> dailyUnits = new EnumMap<>(Api.class);
+    private final long reserveUnits;
+    private final long maxWaitMillis;
+    private final double userBurst;
+    private final double userRate;
+
+    // all state below is guarded by this
+    private final Map<Api, TokenBucket> globalBuckets = new EnumMap<>(Api.class);
+    private final Map<String, TokenBucket> userBuckets = new HashMap<>();
+    private LocalDate quotaDay;
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public QuotaLedger(JdbcTemplate jdbcTemplate,
+                       @Value("${youtube.quota.data.daily-units:10000}") long dataDailyUnits,
+                       @Value("${youtube.quota.analytics.daily-units:100000}") long analyticsDailyUnits,
+                       @Value("${youtube.quota.reserve-units:500}") long reserveUnits,
+                       @Value("${youtube.quota.global.burst-units:500}") double globalBurst,
+                       @Value("${youtube.quota.global.units-per-second:5}") double globalRate,
+                       @Value("${youtube.quota.user.burst-units:200}") double userBurst,
+                       @Value("${youtube.quota.user.units-per-second:1}") double userRate,
+                       @Value("${youtube.quota.max-wait-ms:5000}") long maxWaitMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        dailyUnits.put(Api.DATA, dataDailyUnits);
+        dailyUnits.put(Api.ANALYTICS, analyticsDailyUnits);
+        this.reserveUnits = reserveUnits;
+        this.userBurst = userBurst;
+        this.userRate = userRate;
+        this.maxWaitMillis = maxWaitMillis;
+        for (Api api : Api.values()) {
+            globalBuckets.put(api, new TokenBucket(globalBurst, globalRate));
+        }
+        quotaDay = LocalDate.now(QUOTA_ZONE);
+    }
+
+    /**
+     * Charges one call of the operation, waiting briefly if a bucket is momentarily empty.
+     *
+     * @param user      the user the call is made for
+     * @param operation the API operation
+     * @throws QuotaExceededException if the daily quota is used up or the buckets would need too long to refill
+     */
+    public void acquire(UserData user, Operation operation) throws QuotaExceededException {
+        Api api = operation.getApi();
+        long waitMillis;
+        synchronized (this) {
+            rollOver();
+            long nowNanos = System.nanoTime();
+            TokenBucket global = globalBuckets.get(api);
+            TokenBucket perUser = userBuckets.computeIfAbsent(api + "|" + user.getGoogleId(),
+                    k -> new TokenBucket(userBurst, userRate));
+            waitMillis = Math.max(global.waitMillis(operation.getCost(), nowNanos), perUser.waitMillis(operation.getCost(), nowNanos));
+            if (waitMillis > maxWaitMillis) {
+                rejected.incrementAndGet();
+                throw new QuotaExceededException("Rate limit for " + operation + " reached", waitMillis);
+            }
+
+            // reserve now and sleep outside the lock; the buckets go negative until the wait is over
+            global.take(operation.getCost(), nowNanos);
+            perUser.take(operation.getCost(), nowNanos);
+        }
+
+        // the upsert only checks the sum when the day's row exists already
+        List<Long> charged = operation.getCost() > dailyUnits.get(api) ? List.of()
+                : jdbcTemplate.queryForList(CHARGE, Long.class, api.name(), operation.getCost(), dailyUnits.get(api));
+        if (charged.isEmpty()) {
+            rejected.incrementAndGet();
+            throw new QuotaExceededException("Daily " + api + " quota exhausted", millisUntilReset());
+        }
+
+        if (waitMillis > 0) {
+            throttled.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QuotaExceededException("Interrupted while waiting for quota", waitMillis);
+            }
+        }
+    }
+
+    /**
+     * Records that Google rejected a call with {@code quotaExceeded}, so no further calls are sent today.
+     *
+     * @param api the API whose quota ran out
+     */
+    public void markExhausted(Api api) {
+        log.warn("YouTube {} quota reported exhausted, blocking calls until the daily reset", api);
+        jdbcTemplate.update(EXHAUST, api.name(), dailyUnits.get(api));
+    }
+
+    /**
+     * @param api the API
+     * @return the units left today
+     */
+    public long getRemainingUnits(Api api) {
+        List<Long> used = jdbcTemplate.queryForList(SELECT_USED, Long.class, api.name());
+        return Math.max(0, dailyUnits.get(api) - (used.isEmpty() ? 0 : used.get(0)));
+    }
+
+    /**
+     * Tells whether a new test that needs about the given Data API units fits into today's remaining quota,
+     * keeping {@code youtube.quota.reserve-units} back for the tests already running.
+     *
+     * @param estimatedUnits the units the test is expected to spend
+     * @return true if the test can be admitted
+     */
+    public boolean canAdmit(long estimatedUnits) {
+        return getRemainingUnits(Api.DATA) - reserveUnits >= estimatedUnits;
+    }
+
+    /**
+     * @return milliseconds until the quota resets at midnight Pacific time
+     */
+    public long millisUntilReset() {
+        ZonedDateTime now = ZonedDateTime.now(QUOTA_ZONE);
+        return Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay(QUOTA_ZONE)).toMillis();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Forgets the per-user buckets of the previous day, so the map does not grow with every user ever seen.
+     */
+    private void rollOver() {
+        LocalDate today = LocalDate.now(QUOTA_ZONE);
+        if (!today.equals(quotaDay)) {
+            quotaDay = today;
+            userBuckets.clear();
+        }
+    }
+
+    /**
+     * Token bucket that allows reservations: the balance may go negative, and the deficit is the wait.
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double unitsPerNano;
+        private double tokens;
+        private long updatedNanos;
+
+        private TokenBucket(double capacity, double unitsPerSecond) {
+            this.capacity = capacity;
+            this.unitsPerNano = unitsPerSecond / 1_000_000_000.0;
+            this.tokens = capacity;
+            this.updatedNanos = System.nanoTime();
+        }
+
+        private long waitMillis(int cost, long nowNanos) {
+            refill(nowNanos);
+            double missing = Math.min(cost, capacity) - tokens;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing / unitsPerNano / 1_000_000.0);
+        }
+
+        private void take(int cost, long nowNanos) {
+            refill(nowNanos);
+            tokens -= Math.min(cost, capacity);
+        }
+
+        private void refill(long nowNanos) {
+            tokens = Math.min(capacity, tokens + (nowNanos - updatedNanos) * unitsPerNano);
+            updatedNanos = nowNanos;
+        }
+    }
+}
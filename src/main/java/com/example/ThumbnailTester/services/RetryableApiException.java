@@ -0,0 +1,39 @@
+package com.example.ThumbnailTester.services;
+
+import java.io.IOException;
+
+/**
+ * A failed API call that is expected to succeed later, i.e. a 429 or 5xx response or a throttled call.
+ * Callers reschedule the step with backoff instead of failing it.
+ */
+public class RetryableApiException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * @param message          the error reported by the API
+     * @param statusCode       the HTTP status, or 0 if the call was never sent
+     * @param retryAfterMillis the delay requested by the API, or 0 if it did not ask for one
+     */
+    public RetryableApiException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @param statusCode an HTTP status code
+     * @return true for 429 Too Many Requests and 5xx server errors
+     */
+    public static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.dto.StatsSnapshotBucket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time series of the stats of each option while it is measured, kept in the monthly partitioned
+ * {@code thumbnail_stats_snapshot} table. Samples are buffered and written as multi-row inserts,
+ * so ingestion costs one statement per few hundred samples. Reads are downsampled into time buckets
+ * by Postgres, so charts never load raw samples into the JVM.
+ */
+@Service
+public class StatsSnapshotStore {
+    private static final Logger log = LoggerFactory.getLogger(StatsSnapshotStore.class);
+
+    private static final String INSERT_PREFIX = "INSERT INTO thumbnail_stats_snapshot (run_id, image_option_id, sampled_at, views, average_view_duration, "
+            + "comments, shares, likes, subscribers_gained, average_view_percentage, total_watch_time) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 11;
+    // the Postgres wire protocol counts bind parameters in 16 bits
+    private static final int MAX_BIND_PARAMETERS = 32767;
+    private static final int MAX_ROWS_PER_INSERT = MAX_BIND_PARAMETERS / COLUMNS;
+
+    // views, likes, etc. are cumulative within a slot, so a bucket reports the last value it saw
+    private static final String SELECT_BUCKETS_TEMPLATE = "SELECT image_option_id, date_bin(CAST(? AS interval), sampled_at, TIMESTAMP '2000-01-01') AS bucket, "
+            + "count(*) AS samples, max(views) AS views, avg(average_view_duration) AS average_view_duration, "
+            + "max(comments) AS comments, max(shares) AS shares, max(likes) AS likes, max(subscribers_gained) AS subscribers_gained, "
+            + "avg(average_view_percentage) AS average_view_percentage, max(total_watch_time) AS total_watch_time "
+            + "FROM thumbnail_stats_snapshot WHERE run_id = ? AND sampled_at >= ? AND sampled_at < ?%s "
+            + "GROUP BY image_option_id, bucket ORDER BY image_option_id, bucket";
+    private static final String SELECT_BUCKETS = String.format(SELECT_BUCKETS_TEMPLATE, "");
+    private static final String SELECT_OPTION_BUCKETS = String.format(SELECT_BUCKETS_TEMPLATE, " AND image_option_id = ?");
+
+    private static final String CREATE_PARTITION = "CREATE TABLE IF NOT EXISTS %s PARTITION OF thumbnail_stats_snapshot FOR VALUES FROM ('%s') TO ('%s')";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    private static final RowMapper<StatsSnapshotBucket> BUCKET_MAPPER = (rs, i) -> new StatsSnapshotBucket(
+            rs.getLong("image_option_id"),
+            rs.getTimestamp("bucket").toLocalDateTime(),
+            rs.getInt("samples"),
+            (Integer) rs.getObject("views"),
+            (Double) rs.getObject("average_view_duration"),
+            (Integer) rs.getObject("comments"),
+            (Integer) rs.getObject("shares"),
+            (Integer) rs.getObject("likes"),
+            (Integer) rs.getObject("subscribers_gained"),
+            (Double) rs.getObject("average_view_percentage"),
+            (Long) rs.getObject("total_watch_time"));
+
+    @Value("${thumbnail.snapshot.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${thumbnail.snapshot.rows-per-insert:500}")
+    private int rowsPerInsert;
+
+    @Value("${thumbnail.snapshot.max-buckets:2000}")
+    private int maxBuckets;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final ConcurrentLinkedQueue<Sample> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (rowsPerInsert < 1 || rowsPerInsert > MAX_ROWS_PER_INSERT) {
+            int clamped = Math.max(1, Math.min(rowsPerInsert, MAX_ROWS_PER_INSERT));
+            log.warn("thumbnail.snapshot.rows-per-insert={} is outside 1..{}, using {}", rowsPerInsert, MAX_ROWS_PER_INSERT, clamped);
+            rowsPerInsert = clamped;
+        }
+        ensurePartitions();
+        taskScheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(flushIntervalMillis));
+        taskScheduler.scheduleWithFixedDelay(this::ensurePartitions, Duration.ofDays(1));
+    }
+
+    /**
+     * Buffers one sample of an option's stats.
+     *
+     * @param runId         the run the option is tested in
+     * @param imageOptionId the sampled option
+     * @param stats         its stats at this moment
+     */
+    public void record(long runId, long imageOptionId, ThumbnailStats stats) {
+        pending.add(new Sample(runId, imageOptionId, LocalDateTime.now(), stats));
+        if (pendingCount.incrementAndGet() >= rowsPerInsert) {
+            flush();
+        }
+    }
+
+    /**
+     * Downsamples the samples of a run into fixed time buckets.
+     *
+     * @param runId         the run
+     * @param imageOptionId only this option, or null for all options of the run
+     * @param from          start of the range, inclusive
+     * @param to            end of the range, exclusive
+     * @param bucket        width of a bucket
+     * @return one row per option and bucket that has samples, ordered by option and time
+     * @throws IllegalArgumentException if the range is empty or would produce more than {@code thumbnail.snapshot.max-buckets} buckets
+     */
+    public List<StatsSnapshotBucket> downsample(long runId, Long imageOptionId, LocalDateTime from, LocalDateTime to, Duration bucket) {
+        if (!to.isAfter(from) || bucket.isNegative() || bucket.isZero()) {
+            throw new IllegalArgumentException("Empty range or bucket");
+        }
+        if (Duration.between(from, to).dividedBy(bucket) > maxBuckets) {
+            throw new IllegalArgumentException("Range needs more than " + maxBuckets + " buckets");
+        }
+
+        String interval = bucket.toSeconds() + " seconds";
+        if (imageOptionId == null) {
+            return jdbcTemplate.query(SELECT_BUCKETS, BUCKET_MAPPER, interval, runId, Timestamp.valueOf(from), Timestamp.valueOf(to));
+        }
+        return jdbcTemplate.query(SELECT_OPTION_BUCKETS, BUCKET_MAPPER, interval, runId, Timestamp.valueOf(from), Timestamp.valueOf(to), imageOptionId);
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Writes the buffered samples, {@code thumbnail.snapshot.rows-per-insert} rows per statement.
+     * Samples of a failed insert are put back and written with the next flush.
+     */
+    @PreDestroy
+    public synchronized void flush() {
+        List<Sample> samples = new ArrayList<>();
+        Sample sample;
+        while ((sample = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            samples.add(sample);
+        }
+
+        for (int start = 0; start < samples.size(); start += rowsPerInsert) {
+            List<Sample> chunk = samples.subList(start, Math.min(samples.size(), start + rowsPerInsert));
+            try {
+                jdbcTemplate.update(insertSql(chunk.size()), insertArgs(chunk));
+                written.addAndGet(chunk.size());
+            } catch (Exception e) {
+                log.error("Failed to write {} stats snapshots, will retry", chunk.size(), e);
+                pending.addAll(chunk);
+                pendingCount.addAndGet(chunk.size());
+            }
+        }
+    }
+
+    /**
+     * Creates the partitions of this and the next month, so samples never land in the default partition.
+     */
+    public void ensurePartitions() {
+        LocalDate month = LocalDate.now().withDayOfMonth(1);
+        for (int i = 0; i < 2; i++, month = month.plusMonths(1)) {
+            String table = "thumbnail_stats_snapshot_" + month.format(PARTITION_SUFFIX);
+            try {
+                jdbcTemplate.execute(String.format(CREATE_PARTITION, table, month, month.plusMonths(1)));
+            } catch (Exception e) {
+                log.error("Failed to create stats snapshot partition {}", table, e);
+            }
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (INSERT_ROW.length() + 2)).append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(INSERT_ROW);
+        }
+        return sql.toString();
+    }
+
+    private static Object[] insertArgs(List<Sample> samples) {
+        Object[] args = new Object[samples.size() * COLUMNS];
+        int i = 0;
+        for (Sample s : samples) {
+            args[i++] = s.runId;
+            args[i++] = s.imageOptionId;
+            args[i++] = Timestamp.valueOf(s.sampledAt);
+            args[i++] = s.views;
+            args[i++] = s.averageViewDuration;
+            args[i++] = s.comments;
+            args[i++] = s.shares;
+            args[i++] = s.likes;
+            args[i++] = s.subscribersGained;
+            args[i++] = s.averageViewPercentage;
+            args[i++] = s.totalWatchTime;
+        }
+        return args;
+    }
+
+    /**
+     * Copy of the stats taken when the sample was recorded, since the entity keeps changing.
+     */
+    private static final class Sample {
+        private final long runId;
+        private final long imageOptionId;
+        private final LocalDateTime sampledAt;
+        private final Integer views;
+        private final Double averageViewDuration;
+        private final Integer comments;
+        private final Integer shares;
+        private final Integer likes;
+        private final Integer subscribersGained;
+        private final Double averageViewPercentage;
+        private final Long totalWatchTime;
+
+        private Sample(long runId, long imageOptionId, LocalDateTime sampledAt, ThumbnailStats stats) {
+            this.runId = runId;
+            this.imageOptionId = imageOptionId;
+            this.sampledAt = sampledAt;
+            this.views = stats.getViews();
+            this.averageViewDuration = stats.getAverageViewDuration();
+            this.comments = stats.getComments();
+            this.shares = stats.getShares();
+            this.likes = stats.getLikes();
+            this.subscribersGained = stats.getSubscribersGained();
+            this.averageViewPercentage = stats.getAverageViewPercentage();
+            this.totalWatchTime = stats.getTotalWatchTime();
+        }
+    }
+}
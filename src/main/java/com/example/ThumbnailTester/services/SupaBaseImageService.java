@@ -1,63 +1,79 @@
 package com.example.ThumbnailTester.services;
-import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.stereotype.Service;
-import java.io.File; import java.io.FileOutputStream; import java.io.InputStream; import java.io.OutputStream; import java.net.URL; import java.nio.file.Paths; import java.security.MessageDigest; import java.security.NoSuchAlgorithmException;
-import java.util.Random;
+import com.example.ThumbnailTester.util.ImageProbe; import okhttp3.OkHttpClient; import okhttp3.Request; import okhttp3.Response; import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.beans.factory.annotation.Autowired; import org.springframework.stereotype.Service;
+import java.io.File; import java.io.FilterInputStream; import java.io.IOException; import java.io.InputStream; import java.io.OutputStream; import java.net.URL; import java.nio.file.Files; import java.nio.file.Path; import java.nio.file.Paths; import java.security.DigestInputStream; import java.security.MessageDigest;
+import java.util.HexFormat;
 
 @Service public class SupaBaseImageService { private static final Logger log = LoggerFactory.getLogger(SupaBaseImageService.class);
     private static final String THUMBNAILS_DIR_NAME = "thumbnails";
     private static final int BUFFER_SIZE = 16 * 1024; // 16 KB
     private static final int MAX_DOWNLOAD_ATTEMPTS = 3;
-    private static final Random random = new Random();
+
+    @Autowired
+    private OkHttpClient httpClient;
 
     /**
-     * Downloads a file from the given URL and saves it to a unique file in the temp thumbnails directory.
+     * Downloads the file at the given URL to the target path and hashes its content while streaming.
+     * The image header is probed as soon as it arrives, so a body that is not an image is rejected
+     * without downloading the rest of it.
+     * With the validators of a copy downloaded before, the request is conditional and Supabase answers
+     * 304 without a body if the object did not change.
      * Retries download up to MAX_DOWNLOAD_ATTEMPTS times if incomplete or error occurs.
      *
-     * @param url the URL to download from
-     * @return the downloaded File or null if failed
+     * @param url          the URL to download from
+     * @param target       the file to write, overwritten on every attempt
+     * @param etag         the ETag of the local copy, or null
+     * @param lastModified the Last-Modified of the local copy, or null
+     * @return the outcome or null if failed
      */
-    public File getFileFromPath(URL url) {
-        log.info("getFileFromPath started with url: {}", url);
-        String fileName = getUniqueFileName(url);
-        File directory = new File(System.getProperty("java.io.tmpdir"), THUMBNAILS_DIR_NAME);
-
-        if (!directory.exists()) {
-            boolean created = directory.mkdirs();
-            if (!created) {
-                log.error("Failed to create directory: {}", directory.getAbsolutePath());
+    public Download downloadTo(URL url, Path target, String etag, String lastModified) {
+        log.info("downloadTo started with url: {}", url);
+        for (int attempt = 1; attempt <= MAX_DOWNLOAD_ATTEMPTS; attempt++) {
+            log.info("Download attempt {}/{} for file: {}", attempt, MAX_DOWNLOAD_ATTEMPTS, target);
+            Request.Builder builder = new Request.Builder().url(url).get();
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
             }
-        }
-
-        File file = new File(directory, fileName);
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+            try (Response response = httpClient.newCall(builder.build()).execute();
+                 OutputStream out = Files.newOutputStream(target)) {
+                if (response.code() == 304 && (etag != null || lastModified != null)) {
+                    log.info("File at URL: {} is not modified", url);
+                    return new Download(null, etag, lastModified);
+                }
+                if (!response.isSuccessful() || response.body() == null) {
+                    throw new IOException("Unexpected response status: " + response.code());
+                }
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                TeeInputStream in = new TeeInputStream(new DigestInputStream(response.body().byteStream(), digest), out);
+                ImageProbe.ImageInfo imageInfo = ImageProbe.probe(in);
+                if (imageInfo == null) {
+                    log.error("Response from URL: {} is not an image, content type: {}", url, response.header("Content-Type"));
+                    return null;
+                }
+                log.info("Probed {} image {}x{} while downloading", imageInfo.getFormat(), imageInfo.getWidth(), imageInfo.getHeight());
 
-        for (int attempt = 1; attempt <= MAX_DOWNLOAD_ATTEMPTS; attempt++) {
-            log.info("Download attempt {}/{} for file: {}", attempt, MAX_DOWNLOAD_ATTEMPTS, file.getAbsolutePath());
-            try (InputStream in = url.openStream(); OutputStream out = new FileOutputStream(file)) {
                 byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+                while (in.read(buffer) != -1) {
+                    // the tee writes every byte read to the file
                 }
                 out.flush();
+                long size = in.getCount();
 
                 // Check if file size is reasonable (non-zero)
-                if (file.length() > 0) {
-                    log.info("Download succeeded on attempt {} with file size: {} bytes", attempt, file.length());
-                    return file;
+                if (size > 0) {
+                    log.info("Download succeeded on attempt {} with file size: {} bytes", attempt, size);
+                    return new Download(HexFormat.of().formatHex(digest.digest()), response.header("ETag"), response.header("Last-Modified"));
                 } else {
                     log.warn("Downloaded file size is zero, retrying...");
                 }
             } catch (Exception e) {
                 log.error("Error downloading file from URL: {} on attempt {}", url, attempt, e);
             }
-
-            // Delete incomplete or zero-length file before retrying
-            if (file.exists() && !file.delete()) {
-                log.warn("Failed to delete incomplete file: {}", file.getAbsolutePath());
-            }
         }
 
-        log.error("Failed to download file after {} attempts: {}", MAX_DOWNLOAD_ATTEMPTS, file.getAbsolutePath());
+        log.error("Failed to download file after {} attempts: {}", MAX_DOWNLOAD_ATTEMPTS, url);
         return null;
     }
 
@@ -101,50 +117,89 @@ import java.util.Random;
     }
 
     /**
-     * Generates a unique filename based on the URL by appending an MD5 hash.
-     *
-     * @param url the URL
-     * @return unique filename string
+     * Outcome of {@link #downloadTo}: the content hash of a downloaded body, or none if the local copy is
+     * still current, and the validators to send with the next conditional request.
      */
-    public String getUniqueFileName(URL url) {
-        String originalFileName = getFileName(url);
-        String extension = "";
-
-        int dotIndex = originalFileName.lastIndexOf('.');
-        if (dotIndex > 0) {
-            extension = originalFileName.substring(dotIndex);
-            originalFileName = originalFileName.substring(0, dotIndex);
+    public static final class Download {
+        private final String contentHash;
+        private final String etag;
+        private final String lastModified;
+
+        private Download(String contentHash, String etag, String lastModified) {
+            this.contentHash = contentHash;
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
 
-        String urlString = url.toString();
-        String hash = md5Hex(urlString);
+        /**
+         * @return true if the server answered 304 and nothing was downloaded
+         */
+        public boolean isNotModified() {
+            return contentHash == null;
+        }
 
-        // Добавляем рандомный числовой суффикс
-        int randomSuffix = random.nextInt(1_000_000); // число от 0 до 999999
+        public String getContentHash() {
+            return contentHash;
+        }
 
-        return originalFileName + "_" + hash + "_" + randomSuffix + extension;
-    }
+        public String getEtag() {
+            return etag;
+        }
 
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
 
     /**
-     * Computes MD5 hash of the input string and returns it as hex.
-     * Falls back to sanitized input string if MD5 is not available.
-     *
-     * @param input the input string
-     * @return MD5 hex string or sanitized input
+     * Copies every byte read from the wrapped stream to the output, so header probing
+     * and the rest of the download share a single pass over the response body.
      */
-    private String md5Hex(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(input.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private long count;
+
+        private TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                out.write(b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                out.write(b, off, bytesRead);
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 1))];
+            while (skipped < n) {
+                int bytesRead = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (bytesRead == -1) {
+                    break;
+                }
+                skipped += bytesRead;
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            log.error("MD5 algorithm not found", e);
-            return input.replaceAll("[^a-zA-Z0-9]", "");
+            return skipped;
+        }
+
+        private long getCount() {
+            return count;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.dto.TestHistoryItem;
+import com.example.ThumbnailTester.dto.TestHistoryOption;
+import com.example.ThumbnailTester.dto.TestHistoryPage;
+import com.example.ThumbnailTester.repositories.ThumbnailRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read side of a user's past tests. A page costs two projection queries, one for the tests and one
+ * joining the options of all of them with their stats, whatever the number of tests and options;
+ * no entity is loaded, so nothing is fetched lazily per row.
+ */
+@Service
+public class TestHistoryService {
+
+    @Value("${thumbnail.history.max-page-size:100}")
+    private int maxPageSize;
+
+    @Autowired
+    private ThumbnailRepository thumbnailRepository;
+
+    /**
+     * Loads a page of a user's tests, newest first.
+     *
+     * @param googleId the user
+     * @param before   cursor from the previous page, or null for the first page
+     * @param limit    number of tests, capped at {@code thumbnail.history.max-page-size}
+     * @return the page; empty if the user has no tests or does not exist
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    @Transactional(readOnly = true)
+    public TestHistoryPage getPage(String googleId, Long before, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        int pageSize = Math.min(limit, maxPageSize);
+
+        // one extra row tells whether there is a next page without a count query
+        List<TestHistoryItem> tests = thumbnailRepository.findHistoryPage(googleId, before != null ? before : Long.MAX_VALUE, Limit.of(pageSize + 1));
+        boolean hasMore = tests.size() > pageSize;
+        if (hasMore) {
+            tests = tests.subList(0, pageSize);
+        }
+        if (tests.isEmpty()) {
+            return new TestHistoryPage(tests, null);
+        }
+
+        Map<Long, TestHistoryItem> byId = new LinkedHashMap<>();
+        tests.forEach(test -> byId.put(test.getId(), test));
+        for (TestHistoryOption option : thumbnailRepository.findHistoryOptions(byId.keySet())) {
+            byId.get(option.getThumbnailId()).getOptions().add(option);
+        }
+        return new TestHistoryPage(List.copyOf(tests), hasMore ? tests.get(tests.size() - 1).getId() : null);
+    }
+
+    /**
+     * Entity tag of a page: a SHA-256 digest of every value it contains in a fixed textual form, so it changes
+     * whenever a test, its run state or any of its stats change, and is the same on every node and after restarts.
+     *
+     * @param page a page
+     * @return the tag, quoted
+     */
+    public String etag(TestHistoryPage page) {
+        StringBuilder canonical = new StringBuilder();
+        for (TestHistoryItem test : page.getTests()) {
+            append(canonical, test.getId(), test.getVideoUrl(), name(test.getTestType()), name(test.getTestingMode()),
+                    name(test.getCriterionOfWinner()), test.getRunId(), name(test.getState()), test.getUpdatedAt());
+            for (TestHistoryOption option : test.getOptions()) {
+                append(canonical, option.getId(), option.getFileUrl(), option.getText(), option.isWinner(), option.getViews(),
+                        option.getCtr(), option.getAverageViewDuration(), option.getAdvCtr(), option.getComments(),
+                        option.getShares(), option.getLikes(), option.getSubscribersGained(),
+                        option.getAverageViewPercentage(), option.getTotalWatchTime());
+            }
+        }
+        append(canonical, page.getNextCursor());
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return "\"" + HexFormat.of().formatHex(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Appends values length-prefixed, so no two different sequences of values give the same text.
+     */
+    private static void append(StringBuilder canonical, Object... values) {
+        for (Object value : values) {
+            if (value == null) {
+                canonical.append("-;");
+            } else {
+                String text = value.toString();
+                canonical.append(text.length()).append(':').append(text).append(';');
+            }
+        }
+    }
+
+    private static String name(Enum<?> value) {
+        return value != null ? value.name() : null;
+    }
+}
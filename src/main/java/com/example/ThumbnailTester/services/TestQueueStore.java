@@ -0,0 +1,325 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.config.ClusterNode;
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestSlotStatus;
+import com.example.ThumbnailTester.dto.ImageOption;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Durable state of the test queue: the {@code test_runs} lifecycle rows and the {@code test_slots} queue.
+ * Slots are inserted in one JDBC batch per test. Lifecycle and slot updates are buffered, coalesced per row
+ * and flushed in a single batched transaction on a short interval or when the buffer fills up, so the
+ * write cost stays flat with the number of running tests. A crash can lose at most one flush interval
+ * of transitions, which are then replayed from the previous state on recovery.
+ * In clustered mode updates only apply to runs this node owns, so a node that lost the lease of a run cannot
+ * overwrite the progress of the node that took it over. A slot removed by the user is cancelled directly instead,
+ * from whichever node received the request, and no later update reverts it.
+ */
+@Service
+public class TestQueueStore {
+    private static final Logger log = LoggerFactory.getLogger(TestQueueStore.class);
+
+    private static final String INSERT_SLOT = "INSERT INTO test_slots (run_id, image_option_id, position, status, attempts) VALUES (?, ?, ?, ?, 0)";
+    // a cancelled slot stays cancelled, also if the node running the test wrote a new state before it learned of it
+    private static final String UPDATE_SLOT = "UPDATE test_slots SET status = ?, attempts = ?, next_fire_at = ?, updated_at = ? "
+            + "WHERE run_id = ? AND image_option_id = ? AND status <> 'CANCELLED'";
+    private static final String UPDATE_RUN = "UPDATE test_runs SET state = ?, current_option_id = ?, slot_started_on = ?, confirm_deadline = ?, measure_deadline = ?, next_fire_at = ?, result_due_at = ?, "
+            + "baseline_views = ?, baseline_average_view_duration = ?, baseline_comments = ?, baseline_shares = ?, baseline_likes = ?, "
+            + "baseline_subscribers_gained = ?, baseline_average_view_percentage = ?, baseline_total_watch_time = ?, updated_at = ? WHERE id = ?";
+    private static final String UPDATE_SLOT_FENCED = UPDATE_SLOT
+            + " AND EXISTS (SELECT 1 FROM test_runs r WHERE r.id = test_slots.run_id AND r.owner_node = ?)";
+    private static final String UPDATE_RUN_FENCED = UPDATE_RUN + " AND owner_node = ?";
+    private static final String SELECT_SLOTS = "SELECT image_option_id, status, attempts FROM test_slots WHERE run_id = ? ORDER BY position";
+    private static final String SELECT_PENDING_RUN = "SELECT s.run_id FROM test_slots s JOIN test_runs r ON r.id = s.run_id "
+            + "WHERE s.image_option_id = ? AND s.status = 'PENDING' AND r.state NOT IN ('FINISHED', 'FAILED')";
+    private static final String CANCEL_SLOT = "UPDATE test_slots SET status = 'CANCELLED', updated_at = ? "
+            + "WHERE run_id = ? AND image_option_id = ? AND status = 'PENDING'";
+    private static final String SELECT_CANCELLED = "SELECT image_option_id FROM test_slots WHERE run_id = ? AND status = 'CANCELLED'";
+
+    @Value("${thumbnail.queue.flush-interval-ms:200}")
+    private long flushIntervalMillis;
+
+    @Value("${thumbnail.queue.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    private final Map<Long, RunUpdate> pendingRuns = new ConcurrentHashMap<>();
+    private final Map<String, SlotUpdate> pendingSlots = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void startFlushing() {
+        taskScheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(flushIntervalMillis));
+    }
+
+    /**
+     * Inserts the queue of a new run, one slot per option in test order.
+     *
+     * @param runId   the run the slots belong to
+     * @param options the image options to test
+     */
+    public void insertSlots(long runId, List<ImageOption> options) {
+        List<Integer> positions = IntStream.range(0, options.size()).boxed().toList();
+        jdbcTemplate.batchUpdate(INSERT_SLOT, positions, batchSize, (ps, position) -> {
+            ps.setLong(1, runId);
+            ps.setLong(2, options.get(position).getId());
+            ps.setInt(3, position);
+            ps.setString(4, TestSlotStatus.PENDING.name());
+        });
+    }
+
+    /**
+     * Buffers the current lifecycle state of a run; a later update of the same run replaces it.
+     *
+     * @param run the run whose state changed
+     */
+    public void updateRun(TestRun run) {
+        pendingRuns.put(run.getId(), new RunUpdate(run));
+        flushIfFull();
+    }
+
+    /**
+     * Buffers the state of a slot; a later update of the same slot replaces it.
+     */
+    public void updateSlot(long runId, long imageOptionId, TestSlotStatus status, int attempts, LocalDateTime nextFireAt) {
+        pendingSlots.put(runId + ":" + imageOptionId, new SlotUpdate(runId, imageOptionId, status, attempts, nextFireAt));
+        flushIfFull();
+    }
+
+    public List<SlotRow> loadSlots(long runId) {
+        return jdbcTemplate.query(SELECT_SLOTS, (rs, i) -> new SlotRow(
+                rs.getLong("image_option_id"),
+                TestSlotStatus.valueOf(rs.getString("status")),
+                rs.getInt("attempts")), runId);
+    }
+
+    /**
+     * @param imageOptionId the option
+     * @return the unfinished run in which the option still waits for a slot, or null if there is none
+     */
+    public Long findPendingRun(long imageOptionId) {
+        List<Long> runIds = jdbcTemplate.queryForList(SELECT_PENDING_RUN, Long.class, imageOptionId);
+        return runIds.isEmpty() ? null : runIds.get(0);
+    }
+
+    /**
+     * Cancels a pending slot right away, bypassing the buffer, for a test that may be running on another node.
+     * That node drops the option on its next step (see {@link #loadCancelled}).
+     *
+     * @return true if the slot was still pending and is now cancelled
+     */
+    public boolean cancelSlot(long runId, long imageOptionId) {
+        return jdbcTemplate.update(CANCEL_SLOT, Timestamp.valueOf(LocalDateTime.now()), runId, imageOptionId) > 0;
+    }
+
+    /**
+     * @return the ids of the options of the run whose slots were cancelled
+     */
+    public List<Long> loadCancelled(long runId) {
+        return jdbcTemplate.queryForList(SELECT_CANCELLED, Long.class, runId);
+    }
+
+    /**
+     * Writes all buffered updates in one transaction. Updates that fail are put back unless
+     * a newer update of the same row arrived in the meantime.
+     */
+    @PreDestroy
+    public synchronized void flush() {
+        if (pendingRuns.isEmpty() && pendingSlots.isEmpty()) {
+            return;
+        }
+
+        List<RunUpdate> runs = new ArrayList<>();
+        for (Long id : pendingRuns.keySet()) {
+            RunUpdate update = pendingRuns.remove(id);
+            if (update != null) {
+                runs.add(update);
+            }
+        }
+        List<SlotUpdate> slots = new ArrayList<>();
+        for (String key : pendingSlots.keySet()) {
+            SlotUpdate update = pendingSlots.remove(key);
+            if (update != null) {
+                slots.add(update);
+            }
+        }
+
+        boolean fenced = clusterNode.isEnabled();
+        try {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate(fenced ? UPDATE_RUN_FENCED : UPDATE_RUN, runs, batchSize, (ps, u) -> {
+                    ps.setString(1, u.state);
+                    setNullableLong(ps, 2, u.currentOptionId);
+                    ps.setObject(3, u.slotStartedOn != null ? Date.valueOf(u.slotStartedOn) : null, Types.DATE);
+                    ps.setObject(4, toTimestamp(u.confirmDeadline), Types.TIMESTAMP);
+                    ps.setObject(5, toTimestamp(u.measureDeadline), Types.TIMESTAMP);
+                    ps.setObject(6, toTimestamp(u.nextFireAt), Types.TIMESTAMP);
+                    ps.setObject(7, toTimestamp(u.resultDueAt), Types.TIMESTAMP);
+                    ps.setObject(8, u.baselineViews, Types.INTEGER);
+                    ps.setObject(9, u.baselineAverageViewDuration, Types.DOUBLE);
+                    ps.setObject(10, u.baselineComments, Types.INTEGER);
+                    ps.setObject(11, u.baselineShares, Types.INTEGER);
+                    ps.setObject(12, u.baselineLikes, Types.INTEGER);
+                    ps.setObject(13, u.baselineSubscribersGained, Types.INTEGER);
+                    ps.setObject(14, u.baselineAverageViewPercentage, Types.DOUBLE);
+                    ps.setObject(15, u.baselineTotalWatchTime, Types.BIGINT);
+                    ps.setTimestamp(16, now);
+                    ps.setLong(17, u.id);
+                    if (fenced) {
+                        ps.setString(18, clusterNode.getId());
+                    }
+                });
+                jdbcTemplate.batchUpdate(fenced ? UPDATE_SLOT_FENCED : UPDATE_SLOT, slots, batchSize, (ps, u) -> {
+                    ps.setString(1, u.status.name());
+                    ps.setInt(2, u.attempts);
+                    ps.setObject(3, toTimestamp(u.nextFireAt), Types.TIMESTAMP);
+                    ps.setTimestamp(4, now);
+                    ps.setLong(5, u.runId);
+                    ps.setLong(6, u.imageOptionId);
+                    if (fenced) {
+                        ps.setString(7, clusterNode.getId());
+                    }
+                });
+            });
+            log.debug("Flushed {} run and {} slot updates", runs.size(), slots.size());
+        } catch (Exception e) {
+            log.error("Failed to flush test queue updates, will retry", e);
+            runs.forEach(u -> pendingRuns.putIfAbsent(u.id, u));
+            slots.forEach(u -> pendingSlots.putIfAbsent(u.runId + ":" + u.imageOptionId, u));
+        }
+    }
+
+    private void flushIfFull() {
+        if (pendingRuns.size() + pendingSlots.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private static Timestamp toTimestamp(LocalDateTime value) {
+        return value != null ? Timestamp.valueOf(value) : null;
+    }
+
+    private static void setNullableLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value != null) {
+            ps.setLong(index, value);
+        } else {
+            ps.setNull(index, Types.BIGINT);
+        }
+    }
+
+    /**
+     * Snapshot of the columns of a run taken when the update was buffered.
+     */
+    private static final class RunUpdate {
+        private final long id;
+        private final String state;
+        private final Long currentOptionId;
+        private final LocalDate slotStartedOn;
+        private final LocalDateTime confirmDeadline;
+        private final LocalDateTime measureDeadline;
+        private final LocalDateTime nextFireAt;
+        private final LocalDateTime resultDueAt;
+        private final Integer baselineViews;
+        private final Double baselineAverageViewDuration;
+        private final Integer baselineComments;
+        private final Integer baselineShares;
+        private final Integer baselineLikes;
+        private final Integer baselineSubscribersGained;
+        private final Double baselineAverageViewPercentage;
+        private final Long baselineTotalWatchTime;
+
+        private RunUpdate(TestRun run) {
+            this.id = run.getId();
+            this.state = run.getState().name();
+            this.currentOptionId = run.getCurrentOptionId();
+            this.slotStartedOn = run.getSlotStartedOn();
+            this.confirmDeadline = run.getConfirmDeadline();
+            this.measureDeadline = run.getMeasureDeadline();
+            this.nextFireAt = run.getNextFireAt();
+            this.resultDueAt = run.getResultDueAt();
+            this.baselineViews = run.getBaselineViews();
+            this.baselineAverageViewDuration = run.getBaselineAverageViewDuration();
+            this.baselineComments = run.getBaselineComments();
+            this.baselineShares = run.getBaselineShares();
+            this.baselineLikes = run.getBaselineLikes();
+            this.baselineSubscribersGained = run.getBaselineSubscribersGained();
+            this.baselineAverageViewPercentage = run.getBaselineAverageViewPercentage();
+            this.baselineTotalWatchTime = run.getBaselineTotalWatchTime();
+        }
+    }
+
+    private static final class SlotUpdate {
+        private final long runId;
+        private final long imageOptionId;
+        private final TestSlotStatus status;
+        private final int attempts;
+        private final LocalDateTime nextFireAt;
+
+        private SlotUpdate(long runId, long imageOptionId, TestSlotStatus status, int attempts, LocalDateTime nextFireAt) {
+            this.runId = runId;
+            this.imageOptionId = imageOptionId;
+            this.status = status;
+            this.attempts = attempts;
+            this.nextFireAt = nextFireAt;
+        }
+    }
+
+    public static final class SlotRow {
+        private final long imageOptionId;
+        private final TestSlotStatus status;
+        private final int attempts;
+
+        private SlotRow(long imageOptionId, TestSlotStatus status, int attempts) {
+            this.imageOptionId = imageOptionId;
+            this.status = status;
+            this.attempts = attempts;
+        }
+
+        public long getImageOptionId() {
+            return imageOptionId;
+        }
+
+        public TestSlotStatus getStatus() {
+            return status;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
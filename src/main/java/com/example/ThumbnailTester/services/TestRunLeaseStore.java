@@ -0,0 +1,139 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.config.ClusterNode;
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Array;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Leases of {@code test_runs} in clustered mode. A node executes a run only while it holds the run's lease:
+ * it takes a lease when it starts a test or claims an unfinished run whose lease is missing or expired, renews the
+ * leases of its running tests every heartbeat, and gives them up on shutdown so another node resumes them at once.
+ * Claims use {@code FOR UPDATE SKIP LOCKED}, so nodes claiming at the same time get disjoint runs without waiting
+ * for each other. Lease times are taken from the database clock.
+ */
+@Service
+public class TestRunLeaseStore {
+    private static final Logger log = LoggerFactory.getLogger(TestRunLeaseStore.class);
+
+    private static final String CLAIM = "UPDATE test_runs SET owner_node = ?, lease_expires_at = LOCALTIMESTAMP + CAST(? AS interval) "
+            + "WHERE id IN (SELECT id FROM test_runs WHERE state NOT IN ('FINISHED', 'FAILED') "
+            + "AND (lease_expires_at IS NULL OR lease_expires_at < LOCALTIMESTAMP) ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) "
+            + "RETURNING id";
+    private static final String RENEW = "UPDATE test_runs SET lease_expires_at = LOCALTIMESTAMP + CAST(? AS interval) "
+            + "WHERE id = ANY (?) AND owner_node = ? AND state NOT IN ('FINISHED', 'FAILED') RETURNING id";
+    private static final String LEASE_EXPIRY = "SELECT LOCALTIMESTAMP + CAST(? AS interval)";
+    private static final String RELEASE = "UPDATE test_runs SET lease_expires_at = NULL "
+            + "WHERE owner_node = ? AND state NOT IN ('FINISHED', 'FAILED')";
+
+    @Value("${thumbnail.cluster.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${thumbnail.cluster.heartbeat-interval-ms:10000}")
+    private long heartbeatIntervalMillis;
+
+    @Value("${thumbnail.cluster.max-runs-per-node:500}")
+    private int maxRunsPerNode;
+
+    @Value("${thumbnail.cluster.claim-batch-size:20}")
+    private int claimBatchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    private volatile long renewedAtNanos = System.nanoTime();
+
+    public boolean isEnabled() {
+        return clusterNode.isEnabled();
+    }
+
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    /**
+     * Marks a new run as leased by this node, so it is stored with its lease. The expiry comes from the database
+     * clock, like the ones set by claims and renewals.
+     *
+     * @param run the run about to be inserted
+     */
+    public void lease(TestRun run) {
+        if (isEnabled()) {
+            run.setOwnerNode(clusterNode.getId());
+            run.setLeaseExpiresAt(jdbcTemplate.queryForObject(LEASE_EXPIRY, LocalDateTime.class, interval(leaseMillis)));
+        }
+    }
+
+    /**
+     * Takes over unfinished runs nobody holds a valid lease on, at most {@code thumbnail.cluster.claim-batch-size}
+     * per call and only while this node runs fewer than {@code thumbnail.cluster.max-runs-per-node} tests.
+     *
+     * @param running the number of tests this node is running
+     * @return the ids of the claimed runs
+     */
+    public List<Long> claim(int running) {
+        int limit = Math.min(claimBatchSize, maxRunsPerNode - running);
+        if (limit <= 0) {
+            return List.of();
+        }
+        List<Long> claimed = jdbcTemplate.queryForList(CLAIM, Long.class, clusterNode.getId(), interval(leaseMillis), limit);
+        if (!claimed.isEmpty()) {
+            log.info("Claimed test runs {}", claimed);
+        }
+        return claimed;
+    }
+
+    /**
+     * Extends the leases of the given runs.
+     *
+     * @param runIds the runs this node is executing
+     * @return the runs whose lease this node still holds; a missing one was taken over after its lease expired
+     */
+    public Set<Long> renew(Collection<Long> runIds) {
+        Set<Long> held = new HashSet<>(jdbcTemplate.query(RENEW, ps -> {
+            Array ids = ps.getConnection().createArrayOf("bigint", runIds.toArray());
+            ps.setString(1, interval(leaseMillis));
+            ps.setArray(2, ids);
+            ps.setString(3, clusterNode.getId());
+        }, (rs, i) -> rs.getLong(1)));
+        renewedAtNanos = System.nanoTime();
+        return held;
+    }
+
+    /**
+     * @return false if the last renewal is older than a lease, so another node may already run the tests of this one
+     */
+    public boolean isHeld() {
+        return !isEnabled() || System.nanoTime() - renewedAtNanos < Duration.ofMillis(leaseMillis).toNanos();
+    }
+
+    /**
+     * Expires the leases of this node, so other nodes can claim its runs right away.
+     */
+    public void release() {
+        if (!isEnabled()) {
+            return;
+        }
+        int released = jdbcTemplate.update(RELEASE, clusterNode.getId());
+        log.info("Released the leases of {} test runs", released);
+    }
+
+    private static String interval(long millis) {
+        return millis + " milliseconds";
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestRunState;
+import com.example.ThumbnailTester.repositories.TestRunRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+
+@Service
+public class TestRunService {
+    @Autowired
+    private TestRunRepository testRunRepository;
+
+    public TestRun save(TestRun testRun) {
+        testRun.setUpdatedAt(LocalDateTime.now());
+        return testRunRepository.save(testRun);
+    }
+
+    public TestRun getByThumbnailId(long thumbnailId) {
+        return testRunRepository.findByThumbnailId(thumbnailId);
+    }
+
+    public List<TestRun> getByIds(List<Long> ids) {
+        return testRunRepository.findAllById(ids);
+    }
+
+    public boolean isOwnedBy(long runId, String googleId) {
+        return testRunRepository.isOwnedBy(runId, googleId);
+    }
+
+    public List<TestRun> getUnfinished() {
+        return testRunRepository.findAllByStateNotIn(EnumSet.of(TestRunState.FINISHED, TestRunState.FAILED));
+    }
+}
@@ -1,18 +1,61 @@
 package com.example.ThumbnailTester.services;
 
+import com.example.ThumbnailTester.data.thumbnail.TestSlotStatus;
+import com.example.ThumbnailTester.dto.ImageOption;
 import com.example.ThumbnailTester.dto.ThumbnailQueue;
 import com.example.ThumbnailTester.dto.ThumbnailQueueItem;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Queues of image options waiting for their test slot, keyed by video URL.
+ * The in-memory queues are the working set; every change is written through to
+ * {@code test_slots} so the queues can be rebuilt after a restart.
+ * The depth of each queue is exported as {@value #METRIC_QUEUE_DEPTH}, tagged by video URL.
+ */
 @Service
 public class ThumbnailQueueService {
+    private static final String METRIC_QUEUE_DEPTH = "thumbnail.queue.depth";
+
     private final Map<String, ThumbnailQueue> thumbnailQueues = new ConcurrentHashMap<>();
 
+    @Autowired
+    private TestQueueStore testQueueStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     public ThumbnailQueue getQueue(String videoUrl) {
-        return thumbnailQueues.computeIfAbsent(videoUrl, k -> new ThumbnailQueue());
+        return thumbnailQueues.computeIfAbsent(videoUrl, k -> {
+            ThumbnailQueue queue = new ThumbnailQueue();
+            Gauge.builder(METRIC_QUEUE_DEPTH, queue, q -> q.getQueue().size())
+                    .description("Image options waiting for their test slot")
+                    .tag("video", videoUrl)
+                    .register(meterRegistry);
+            return queue;
+        });
+    }
+
+    /**
+     * Creates the durable queue of a run and fills the in-memory queue of its video.
+     *
+     * @param runId    the run the options are tested in
+     * @param videoUrl the video under test
+     * @param options  the options in test order
+     */
+    public void enqueueRun(long runId, String videoUrl, List<ImageOption> options) {
+        testQueueStore.insertSlots(runId, options);
+        ThumbnailQueue queue = getQueue(videoUrl);
+        for (ImageOption option : options) {
+            queue.add(new ThumbnailQueueItem(videoUrl, option, runId));
+        }
     }
 
     public void addToQueue(String videoUrl, ThumbnailQueueItem item) {
@@ -31,12 +74,31 @@ public class ThumbnailQueueService {
 
     public void deleteFromQueue(String videoUrl, ThumbnailQueueItem item) {
         ThumbnailQueue queue = thumbnailQueues.get(videoUrl);
-        if (queue != null) {
-            queue.delete(item);
+        if (queue != null && queue.delete(item)) {
+            markSlot(item, TestSlotStatus.CANCELLED, null);
         }
     }
 
+    /**
+     * Records the state of a queue item's slot in the durable queue.
+     *
+     * @param item       the queue item
+     * @param status     the new slot status
+     * @param nextFireAt when the slot's next lifecycle step fires, or null
+     */
+    public void markSlot(ThumbnailQueueItem item, TestSlotStatus status, LocalDateTime nextFireAt) {
+        if (item.getRunId() == null || item.getImageOption().getId() == null) {
+            return;
+        }
+        testQueueStore.updateSlot(item.getRunId(), item.getImageOption().getId(), status, item.getAttempts(), nextFireAt);
+    }
+
     public void clearQueue(String videoUrl) {
-        thumbnailQueues.remove(videoUrl);
+        if (thumbnailQueues.remove(videoUrl) != null) {
+            Gauge gauge = meterRegistry.find(METRIC_QUEUE_DEPTH).tag("video", videoUrl).gauge();
+            if (gauge != null) {
+                meterRegistry.remove(gauge);
+            }
+        }
     }
 }
@@ -1,17 +1,21 @@
 package com.example.ThumbnailTester.services;
-import com.example.ThumbnailTester.data.thumbnail.ThumbnailData; import com.example.ThumbnailTester.repositories.ThumbnailRepository; import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.beans.factory.annotation.Autowired; import org.springframework.messaging.simp.SimpMessagingTemplate; import org.springframework.stereotype.Service;
-import javax.imageio.ImageIO; import java.awt.*; import java.io.File; import java.io.IOException;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailData; import com.example.ThumbnailTester.data.user.UserData; import com.example.ThumbnailTester.repositories.ThumbnailRepository; import com.example.ThumbnailTester.util.ImageProbe; import org.slf4j.Logger; import org.slf4j.LoggerFactory; import org.springframework.beans.factory.annotation.Autowired; import org.springframework.messaging.simp.SimpMessagingTemplate; import org.springframework.stereotype.Service;
+import java.io.BufferedInputStream; import java.io.File; import java.io.FileInputStream; import java.io.IOException; import java.io.InputStream; import java.util.Optional;
 @Service public class ThumbnailService { private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
-    private static final String TOPIC_ERROR = "/topic/thumbnail/error";
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
     private static final double MAX_FILE_SIZE = 2.0;
     private static final int ASPECT_RATIO_WIDTH = 16;
     private static final int ASPECT_RATIO_HEIGHT = 9;
+    private static final int PROBE_BUFFER_SIZE = 8 * 1024;
 
     private final SimpMessagingTemplate messagingTemplate;
 
     @Autowired
     private ThumbnailRepository thumbnailRepository;
 
+    @Autowired
+    private ImageNormalizationService imageNormalizationService;
+
     public ThumbnailService(SimpMessagingTemplate messagingTemplate) {
         this.messagingTemplate = messagingTemplate;
     }
@@ -27,52 +31,81 @@ import javax.imageio.ImageIO; import java.awt.*; import java.io.File; import jav
         return thumbnailData;
     }
 
+    /**
+     * Loads a thumbnail test together with its options, stats, configuration and user,
+     * so the graph can be used after the persistence context is closed.
+     *
+     * @param id the thumbnail data ID
+     * @return the thumbnail data or empty if it does not exist
+     */
+    public Optional<ThumbnailData> getWithOptions(long id) {
+        return thumbnailRepository.findWithOptionsById(id);
+    }
+
     /**
      * Validates the image file by checking its size and aspect ratio.
+     * Dimensions are read from the image header, the pixels are never decoded.
      *
+     * @param user      the user who receives the error
      * @param fileImage the image file to validate
      * @return true if valid, false otherwise
      */
-    public boolean isValid(File fileImage) {
+    public boolean isValid(UserData user, File fileImage) {
+        String error = checkImage(fileImage);
+        if (error != null) {
+            sendError(user, error);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the size and aspect ratio of the image file without reporting anything.
+     * With normalization enabled only the input limits of that stage apply.
+     *
+     * @param fileImage the image file to check
+     * @return null if the image is valid, otherwise the reason it is not
+     */
+    public String checkImage(File fileImage) {
         Double sizeMb = getFileSizeMegaBytes(fileImage);
         if (sizeMb == null) {
-            sendError("Failed to get file size.");
-            safeDeleteFile(fileImage);
-            return false;
+            return "Failed to get file size.";
         }
 
-        Image image = null;
-        try {
-            image = ImageIO.read(fileImage);
+        ImageProbe.ImageInfo imageInfo;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(fileImage), PROBE_BUFFER_SIZE)) {
+            imageInfo = ImageProbe.probe(in);
         } catch (IOException e) {
             log.error("Error reading image file", e);
-            safeDeleteFile(fileImage);
-            return false;
+            return "Failed to read image.";
         }
 
-        if (image == null) {
+        if (imageInfo == null) {
             log.error("Image could not be read or is null");
-            safeDeleteFile(fileImage);
-            return false;
+            return "Failed to read image.";
         }
-        boolean sizeValid = sizeMb <= MAX_FILE_SIZE;
-        boolean is169 = isAspectRatio16by9(image);
 
-        if (!sizeValid){
+        if (imageNormalizationService.isEnabled()) {
+            // the normalization stage crops and compresses the image before upload
+            if (fileImage.length() > imageNormalizationService.getMaxInputBytes()) {
+                log.info("Image is too large to normalize");
+                return "Image is too large to normalize";
+            }
+            if (!imageNormalizationService.canNormalize(imageInfo)) {
+                log.info("Image {} of {}x{} cannot be normalized", imageInfo.getFormat(), imageInfo.getWidth(), imageInfo.getHeight());
+                return "Image format or dimensions are not supported";
+            }
+            return null;
+        }
+        if (sizeMb > MAX_FILE_SIZE) {
             log.info("Size of image is bigger than 2mb");
-            sendError("Size of image is bigger than 2mb");
-            safeDeleteFile(fileImage);
-            return false;
+            return "Size of image is bigger than 2mb";
         }
-        if(!is169){
+        if (!isAspectRatio16by9(imageInfo.getWidth(), imageInfo.getHeight())) {
             log.info("Image is not 16:9");
-            sendError("Image is not 16:9");
-            safeDeleteFile(fileImage);
-            return false;
+            return "Image is not 16:9";
         }
-        safeDeleteFile(fileImage);
-
-        return sizeValid&&is169;
+        return null;
     }
 
     /**
@@ -92,12 +125,11 @@ import javax.imageio.ImageIO; import java.awt.*; import java.io.File; import jav
     /**
      * Checks if the image has a 16:9 aspect ratio.
      *
-     * @param image the image to check
+     * @param width  the image width in pixels
+     * @param height the image height in pixels
      * @return true if aspect ratio is 16:9, false otherwise
      */
-    private boolean isAspectRatio16by9(Image image) {
-        int width = image.getWidth(null);
-        int height = image.getHeight(null);
+    private boolean isAspectRatio16by9(int width, int height) {
         if (width <= 0 || height <= 0) {
             log.warn("Invalid image dimensions: width={}, height={}", width, height);
             return false;
@@ -107,27 +139,12 @@ import javax.imageio.ImageIO; import java.awt.*; import java.io.File; import jav
     }
 
     /**
-     * Safely deletes a file, logging any failure.
-     *
-     * @param file the file to delete
-     */
-    private void safeDeleteFile(File file) {
-        if (file != null && file.exists()) {
-            boolean deleted = file.delete();
-            if (!deleted) {
-                log.warn("Failed to delete file: {}", file.getAbsolutePath());
-            }else{
-                log.info("File with name:"+file.getName()+" has been deleted");
-            }
-        }
-    }
-
-    /**
-     * Sends an error message via WebSocket.
+     * Sends an error message via WebSocket to the sessions of the user.
      *
+     * @param user    the recipient
      * @param message the error message
      */
-    private void sendError(String message) {
-        messagingTemplate.convertAndSend(TOPIC_ERROR, message);
+    private void sendError(UserData user, String message) {
+        messagingTemplate.convertAndSendToUser(user.getGoogleId(), QUEUE_ERROR, message);
     }
 }
\ No newline at end of file
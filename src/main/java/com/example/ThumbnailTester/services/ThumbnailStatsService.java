@@ -1,19 +1,206 @@
 package com.example.ThumbnailTester.services;
 
 import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
-import com.example.ThumbnailTester.repositories.ThumbnailRepository;
 import com.example.ThumbnailTester.repositories.ThumbnailStatsRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Targeted writes of the rows that change while a test runs, so a slot never merges the whole
+ * {@link com.example.ThumbnailTester.data.thumbnail.ThumbnailData} graph.
+ * <p>
+ * New stats rows are inserted right away, since the test needs their id. Later stats values are written
+ * behind: they are buffered, coalesced per row and flushed in a single batched transaction on a short interval,
+ * when the buffer fills up and on shutdown. Database round trips therefore follow the flush rate rather than the
+ * number of running tests. A crash can lose at most one flush interval of values, which the next poll of a
+ * resumed test writes again. Winner flags are written right away: a test sets them once, just before it
+ * finishes, and a finished test is never resumed to write them again.
+ */
 @Service
 public class ThumbnailStatsService {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailStatsService.class);
+
+    private static final String UPDATE_STATS = "UPDATE thumbnail_stats SET views = ?, ctr = ?, average_view_duration = ?, adv_ctr = ?, comments = ?, "
+            + "shares = ?, likes = ?, subscribers_gained = ?, average_view_percentage = ?, total_watch_time = ? WHERE id = ?";
+    private static final String UPDATE_WINNER = "UPDATE image_options SET is_winner = COALESCE(id = ?, FALSE) WHERE thumbnail_id = ?";
+
+    @Value("${thumbnail.stats.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${thumbnail.stats.batch-size:500}")
+    private int batchSize;
+
     @Autowired
     private ThumbnailStatsRepository statsRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Autowired
-    private ThumbnailRepository thumbnailRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final Map<Long, StatsUpdate> pendingStats = new ConcurrentHashMap<>();
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    @PostConstruct
+    public void startFlushing() {
+        taskScheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(flushIntervalMillis));
+    }
+
+    /**
+     * Inserts new stats of an option, or buffers the values of an existing row; a later update of
+     * the same row replaces them.
+     *
+     * @param thumbnailStats the stats, bound to their image option
+     * @return the stats, with the id assigned if they were new
+     */
+    public ThumbnailStats save(ThumbnailStats thumbnailStats) {
+        if (thumbnailStats.getId() == null) {
+            return statsRepository.save(thumbnailStats);
+        }
+        pendingStats.put(thumbnailStats.getId(), new StatsUpdate(thumbnailStats));
+        buffered.incrementAndGet();
+        flushIfFull();
+        return thumbnailStats;
+    }
+
+    /**
+     * Writes the winner flags of a test before it finishes.
+     *
+     * @param thumbnailId the test
+     * @param winnerId    the winning option, or null if there is none
+     */
+    public void markWinner(long thumbnailId, Long winnerId) {
+        jdbcTemplate.update(UPDATE_WINNER, ps -> {
+            setNullable(ps, 1, winnerId, Types.BIGINT);
+            ps.setLong(2, thumbnailId);
+        });
+    }
+
+    /**
+     * @return the number of updates handed to the buffer
+     */
+    public long getBufferedCount() {
+        return buffered.get();
+    }
+
+    /**
+     * @return the number of rows written by flushes; the difference to {@link #getBufferedCount()} was coalesced or is pending
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public int getPendingCount() {
+        return pendingStats.size();
+    }
+
+    /**
+     * Writes all buffered updates in one transaction. Updates that fail are put back unless
+     * a newer update of the same row arrived in the meantime.
+     */
+    @PreDestroy
+    public synchronized void flush() {
+        if (pendingStats.isEmpty()) {
+            return;
+        }
+
+        List<StatsUpdate> stats = new ArrayList<>();
+        for (Long id : pendingStats.keySet()) {
+            StatsUpdate update = pendingStats.remove(id);
+            if (update != null) {
+                stats.add(update);
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate(UPDATE_STATS, stats, batchSize, (ps, u) -> {
+                    setNullable(ps, 1, u.views, Types.INTEGER);
+                    setNullable(ps, 2, u.ctr, Types.DOUBLE);
+                    setNullable(ps, 3, u.averageViewDuration, Types.DOUBLE);
+                    setNullable(ps, 4, u.advCtr, Types.DOUBLE);
+                    setNullable(ps, 5, u.comments, Types.INTEGER);
+                    setNullable(ps, 6, u.shares, Types.INTEGER);
+                    setNullable(ps, 7, u.likes, Types.INTEGER);
+                    setNullable(ps, 8, u.subscribersGained, Types.INTEGER);
+                    setNullable(ps, 9, u.averageViewPercentage, Types.DOUBLE);
+                    setNullable(ps, 10, u.totalWatchTime, Types.BIGINT);
+                    ps.setLong(11, u.id);
+                });
+            });
+            written.addAndGet(stats.size());
+            log.debug("Flushed {} stats updates", stats.size());
+        } catch (Exception e) {
+            log.error("Failed to flush stats updates, will retry", e);
+            stats.forEach(u -> pendingStats.putIfAbsent(u.id, u));
+        }
+    }
+
+    private void flushIfFull() {
+        if (getPendingCount() >= batchSize) {
+            flush();
+        }
+    }
+
+    private static void setNullable(PreparedStatement ps, int index, Object value, int sqlType) throws SQLException {
+        if (value != null) {
+            ps.setObject(index, value, sqlType);
+        } else {
+            ps.setNull(index, sqlType);
+        }
+    }
+
+    /**
+     * Copy of the stats values taken when the update was buffered, since the entity keeps changing.
+     */
+    private static final class StatsUpdate {
+        private final long id;
+        private final Integer views;
+        private final Double ctr;
+        private final Double averageViewDuration;
+        private final Double advCtr;
+        private final Integer comments;
+        private final Integer shares;
+        private final Integer likes;
+        private final Integer subscribersGained;
+        private final Double averageViewPercentage;
+        private final Long totalWatchTime;
 
-    public void save(ThumbnailStats thumbnailStats) {
-        statsRepository.save(thumbnailStats);
+        private StatsUpdate(ThumbnailStats stats) {
+            this.id = stats.getId();
+            this.views = stats.getViews();
+            this.ctr = stats.getCtr();
+            this.averageViewDuration = stats.getAverageViewDuration();
+            this.advCtr = stats.getAdvCtr();
+            this.comments = stats.getComments();
+            this.shares = stats.getShares();
+            this.likes = stats.getLikes();
+            this.subscribersGained = stats.getSubscribersGained();
+            this.averageViewPercentage = stats.getAverageViewPercentage();
+            this.totalWatchTime = stats.getTotalWatchTime();
+        }
     }
 }
@@ -4,23 +4,42 @@ import com.example.ThumbnailTester.Request.ThumbnailRequest;
 import com.example.ThumbnailTester.data.thumbnail.*;
 import com.example.ThumbnailTester.data.user.UserData;
 import com.example.ThumbnailTester.dto.ImageOption;
+import com.example.ThumbnailTester.dto.TestDecision;
 import com.example.ThumbnailTester.dto.ThumbnailQueue;
 import com.example.ThumbnailTester.dto.ThumbnailQueueItem;
-import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.example.ThumbnailTester.util.Backoff;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service for managing thumbnail tests.
@@ -28,7 +47,19 @@ import java.util.List;
  * - Uploading thumbnails
  * - Updating video titles
  * - Collecting analytics data
- * - Sending progress and result notifications via WebSocket
+ * - Sending progress and result notifications via WebSocket to the user who started the test
+ * Each test runs as a persisted {@link TestRun} state machine whose transitions are fired by
+ * {@link TaskScheduler} timers, so no thread is parked while a slot waits for time to pass.
+ * A step that YouTube throttled is fired again after an exponential backoff instead of failing the slot,
+ * and a test is only admitted if its estimated quota cost fits into today's remaining quota.
+ * While an option is measured its stats are polled periodically and sampled into {@link StatsSnapshotStore};
+ * in {@link TestingMode#METRIC_BASED} mode the slot ends as soon as the option reached {@code testingByMetrics},
+ * otherwise (or at the latest) once its measuring time has passed.
+ * For criteria the {@link WinnerDecisionEngine} can evaluate, the measuring time of every option is split
+ * into rounds; after each slot the engine updates the win probabilities, drops clear losers from the queue
+ * and stops the test as soon as one option is ahead at the configured confidence.
+ * In clustered mode a node only runs the tests it holds the lease of (see {@link TestRunLeaseStore}): every heartbeat
+ * it renews its leases, stops tests another node took over, and claims unfinished tests whose node is gone.
  */
 @Service
 public class ThumbnailTestService {
@@ -38,12 +69,18 @@ public class ThumbnailTestService {
     private static final long DEFAULT_TITLE_UPDATE_TIMEOUT_MILLIS = 100_000L;
     private static final long DEFAULT_TITLE_UPDATE_POLL_INTERVAL_MILLIS = 5_000L;
     private static final long THUMBNAIL_UPLOAD_WAIT_MILLIS = 10_000L;
+    private static final long REJECTED_STEP_RETRY_MILLIS = 1_000L;
+    private static final long LEASE_WAIT_RETRY_MILLIS = 5_000L;
 
-    // WebSocket topics
-    private static final String TOPIC_ERROR = "/topic/thumbnail/error";
-    private static final String TOPIC_PROGRESS = "/topic/thumbnail/progress";
-    private static final String TOPIC_FINAL = "/topic/thumbnail/final";
-    private static final String TOPIC_RESULT = "/topic/thumbnail/result";
+    // Estimated Data API units per option: upload, title update with its reads, and a few confirmation polls
+    private static final int TITLE_CONFIRM_POLLS_ESTIMATE = 5;
+    private static final int OWNERSHIP_CHECK_UNITS = 2;
+
+    // WebSocket queues, delivered to the sessions of the test's user only
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
+    private static final String QUEUE_PROGRESS = "/queue/thumbnail/progress";
+    private static final String QUEUE_FINAL = "/queue/thumbnail/final";
+    private static final String QUEUE_RESULT = "/queue/thumbnail/result";
 
     // Error messages
     private static final String ERR_NO_IMAGES_PROVIDED = "NoImagesProvided";
@@ -58,15 +95,28 @@ public class ThumbnailTestService {
     private static final String ERR_ERROR_UPDATING_TITLE = "Error with updating title";
     private static final String ERR_FINAL_RESULT_ERROR = "FinalResultError";
     private static final String ERR_TOO_MANY_REQUESTS_BY_USER = "The user has uploaded too many thumbnails recently. Please try the request again later";
+    private static final String ERR_QUOTA_EXHAUSTED = "QuotaExhausted";
+    private static final String ERR_ANALYTICS_RETRIES_EXHAUSTED = "Error retrieving YouTube Analytics data";
 
     private final SimpMessagingTemplate messagingTemplate;
     private final TaskScheduler taskScheduler;
+    private final Map<Long, ActiveTest> activeTests = new ConcurrentHashMap<>();
+    private final AtomicLong earlyStops = new AtomicLong();
 
     @Autowired
     private ThumbnailService thumbnailService;
 
     @Autowired
-    private SupaBaseImageService supaBaseImageService;
+    private ThumbnailStatsService thumbnailStatsService;
+
+    @Autowired
+    private ImageFileCache imageFileCache;
+
+    @Autowired
+    private ImageValidationService imageValidationService;
+
+    @Autowired
+    private ImageNormalizationService imageNormalizationService;
 
     @Autowired
     private YouTubeService youTubeService;
@@ -75,16 +125,80 @@ public class ThumbnailTestService {
     private UserService userService;
 
     @Autowired
-    private YouTubeAnalyticsService youTubeAnalyticsService;
+    private YouTubeAnalyticsCollector youTubeAnalyticsCollector;
 
     @Autowired
     private ThumbnailQueueService thumbnailQueueService;
 
+    @Autowired
+    private TestRunService testRunService;
+
+    @Autowired
+    private TestQueueStore testQueueStore;
+
+    @Autowired
+    private TestRunLeaseStore testRunLeaseStore;
+
+    @Autowired
+    private QuotaLedger quotaLedger;
+
+    @Autowired
+    private WinnerDecisionEngine winnerDecisionEngine;
+
+    @Autowired
+    private StatsSnapshotStore statsSnapshotStore;
+
+    @Autowired
+    private Executor executor;
+
+    @Value("${youtube.retry.max-attempts:6}")
+    private int retryMaxAttempts;
+
+    @Value("${youtube.retry.base-delay-ms:2000}")
+    private long retryBaseDelayMillis;
+
+    @Value("${youtube.retry.max-delay-ms:300000}")
+    private long retryMaxDelayMillis;
+
+    @Value("${thumbnail.stats.poll-interval-ms:900000}")
+    private long statsPollIntervalMillis;
+
+    @Value("${thumbnail.metric.max-duration-minutes:1440}")
+    private long metricMaxDurationMinutes;
+
     public ThumbnailTestService(SimpMessagingTemplate messagingTemplate, TaskScheduler taskScheduler) {
         this.messagingTemplate = messagingTemplate;
         this.taskScheduler = taskScheduler;
     }
 
+    /**
+     * @return the number of test runs currently in progress
+     */
+    public int getActiveTestCount() {
+        return activeTests.size();
+    }
+
+    /**
+     * @return the number of tests that were stopped before all rounds ran because a winner was decided
+     */
+    public long getEarlyStopCount() {
+        return earlyStops.get();
+    }
+
+    /**
+     * Removes a queued option from its running test. The option is left out of later rounds and cannot win.
+     *
+     * @param videoUrl the video whose queue holds the item
+     * @param item     the queued item of the option
+     */
+    public void removeOption(String videoUrl, ThumbnailQueueItem item) {
+        ActiveTest test = activeTests.get(item.getRunId());
+        if (test != null) {
+            test.excluded.add(item.getImageOption().getId());
+        }
+        thumbnailQueueService.deleteFromQueue(videoUrl, item);
+    }
+
     @Async
     public void runThumbnailTest(ThumbnailRequest thumbnailRequest, ThumbnailData thumbnailData) {
         try {
@@ -95,21 +209,33 @@ public class ThumbnailTestService {
             List<ImageOption> imageOptions = thumbnailData.getImageOptions();
 
             if (imageOptions == null || imageOptions.isEmpty()) {
-                sendError(ERR_NO_IMAGES_PROVIDED);
+                sendError(userData, ERR_NO_IMAGES_PROVIDED);
                 return;
             }
 
-            if (!validateImageOptions(imageOptions)) {
+            long estimatedUnits = estimateQuotaUnits(testConf.getTestType(), imageOptions.size() * decisionRounds(testConf));
+            if (!quotaLedger.canAdmit(estimatedUnits)) {
+                log.warn("Rejecting test needing ~{} quota units, {} left today", estimatedUnits,
+                        quotaLedger.getRemainingUnits(QuotaLedger.Api.DATA));
+                sendError(userData, ERR_QUOTA_EXHAUSTED);
+                thumbnailQueueService.clearQueue(thumbnailData.getVideoUrl());
+                return;
+            }
+
+            if (!imageValidationService.validateAll(userData, imageOptions)) {
+                thumbnailQueueService.clearQueue(thumbnailData.getVideoUrl());
                 return;
             }
 
             String videoId = youTubeService.getVideoIdFromUrl(thumbnailData.getVideoUrl());
             if (videoId == null) {
-                sendError(ERR_INVALID_VIDEO_URL);
+                sendError(userData, ERR_INVALID_VIDEO_URL);
+                thumbnailQueueService.clearQueue(thumbnailData.getVideoUrl());
                 return;
             }
 
             if (!validateVideoOwnership(userData, videoId)) {
+                thumbnailQueueService.clearQueue(thumbnailData.getVideoUrl());
                 return; // Errors sent inside method
             }
 
@@ -124,112 +250,257 @@ public class ThumbnailTestService {
             }
 
             startTest(thumbnailRequest, testConf.getTestType(), thumbnailData);
-            scheduleFinalResults(thumbnailRequest, thumbnailData);
 
         } catch (Exception e) {
             log.error("Thumbnail test failed", e);
-            sendError(ERR_INTERNAL_SERVER);
+            sendError(thumbnailData.getUser(), ERR_INTERNAL_SERVER);
         }
     }
 
-    private boolean validateImageOptions(List<ImageOption> imageOptions) {
-        for (ImageOption option : imageOptions) {
-            String fileUrl = option.getFileUrl();
-            if (fileUrl == null || fileUrl.isEmpty()) {
-                log.error("Invalid image URL: null or empty");
-                return false;
-            }
-            try {
-                File file = supaBaseImageService.getFileFromPath(new URL(fileUrl));
-                if (!thumbnailService.isValid(file)) {
-                    return false;
-                }
-            } catch (MalformedURLException e) {
-                log.error("Invalid image URL: {}", fileUrl, e);
-                return false;
-            }
+    /**
+     * Estimates the Data API units a test spends, so it is only started if today's quota can carry it.
+     */
+    private long estimateQuotaUnits(TestingType testingType, int slotCount) {
+        long perOption = 0;
+        if (testingType == TestingType.THUMBNAIL || testingType == TestingType.THUMBNAILTEXT) {
+            perOption += QuotaLedger.Operation.THUMBNAILS_SET.getCost();
         }
-        return true;
+        if (testingType == TestingType.TEXT || testingType == TestingType.THUMBNAILTEXT) {
+            perOption += QuotaLedger.Operation.VIDEOS_LIST.getCost() + QuotaLedger.Operation.VIDEOS_UPDATE.getCost()
+                    + TITLE_CONFIRM_POLLS_ESTIMATE * QuotaLedger.Operation.VIDEOS_LIST.getCost();
+        }
+        return OWNERSHIP_CHECK_UNITS + perOption * slotCount;
     }
 
-
     private boolean validateVideoOwnership(UserData userData, String videoId) {
         String videoOwnerChannelId = youTubeService.getVideoOwnerChannelId(userData, videoId);
         String userChannelId = youTubeService.getUserChannelId(userData);
 
         if (videoOwnerChannelId == null) {
-            sendError(ERR_VIDEO_NOT_FOUND);
+            sendError(userData, ERR_VIDEO_NOT_FOUND);
             return false;
         }
         if (userChannelId == null) {
-            sendError(ERR_USER_CHANNEL_NOT_FOUND);
+            sendError(userData, ERR_USER_CHANNEL_NOT_FOUND);
             return false;
         }
         if (!userChannelId.equals(videoOwnerChannelId)) {
-            sendError(ERR_UNAUTHORIZED_VIDEO_ACCESS);
+            sendError(userData, ERR_UNAUTHORIZED_VIDEO_ACCESS);
             return false;
         }
         return true;
     }
 
-    private void scheduleFinalResults(ThumbnailRequest thumbnailRequest, ThumbnailData thumbnailData) {
-        long delayMillis = thumbnailRequest.getTestConfRequest().getTestingByTimeMinutes() * 60_000L;
+    private void scheduleFinalResults(ActiveTest test, long delayMillis) {
+        ThumbnailData thumbnailData = test.thumbnailData;
         taskScheduler.schedule(() -> {
+            if (test.released) {
+                return;
+            }
             try {
-                List<ImageOption> results = getTestResults(thumbnailData, thumbnailData.getTestConf().getCriterionOfWinner());
-                messagingTemplate.convertAndSend(TOPIC_RESULT, results);
+                List<ImageOption> results = getTestResults(thumbnailData, thumbnailData.getTestConf().getCriterionOfWinner(), test.excluded);
+                send(thumbnailData.getUser(), QUEUE_RESULT, results);
             } catch (Exception e) {
                 log.error("Error sending final test results", e);
-                sendError(ERR_ERROR_SENDING_RESULTS);
+                sendError(thumbnailData.getUser(), ERR_ERROR_SENDING_RESULTS);
             }
-        }, new java.util.Date(System.currentTimeMillis() + delayMillis));
+            test.run.setResultDueAt(null);
+            testQueueStore.updateRun(test.run);
+        }, Instant.now().plusMillis(delayMillis));
     }
 
-    @Async
-    public void startTest(ThumbnailRequest thumbnailRequest, TestingType testingType, ThumbnailData thumbnailData) {
+    /**
+     * Creates the persisted run of a test and fires its first transition.
+     * From here on the test only occupies a thread while a step is actually executing.
+     */
+    private void startTest(ThumbnailRequest thumbnailRequest, TestingType testingType, ThumbnailData thumbnailData) {
         log.info("Starting test with type: {}", testingType);
-        List<ImageOption> imageOptions = thumbnailData.getImageOptions();
-        List<String> texts = thumbnailRequest.getTexts();
-        long delayMillis = thumbnailRequest.getTestConfRequest().getTestingByTimeMinutes() * 60_000L;
+        ThumbnailTestConf testConf = thumbnailData.getTestConf();
+        long delayMillis = slotDurationMillis(testConf);
 
-        ThumbnailQueue thumbnailQueue = thumbnailQueueService.getQueue(thumbnailRequest.getVideoUrl());
+        int count = calculateTestCount(testingType, thumbnailData.getImageOptions(), thumbnailRequest.getTexts());
+        log.info("Number of tests to run: {}", count);
 
-        for (ImageOption imageOption : imageOptions) {
-            thumbnailQueue.add(new ThumbnailQueueItem(thumbnailRequest.getVideoUrl(), imageOption));
+        if (count == 0) {
+            sendError(thumbnailData.getUser(), ERR_INVALID_INPUTS);
+            thumbnailQueueService.clearQueue(thumbnailData.getVideoUrl());
+            return;
         }
-        log.info("Thumbnail queue initialized: {}", thumbnailQueue);
 
-        int count = calculateTestCount(testingType, imageOptions, texts);
-        log.info("Number of tests to run: {}", count);
+        // a metric-based slot ends at an unknown time, so there is no interim result after the first slot
+        boolean metricBased = testConf.getTestingMode() == TestingMode.METRIC_BASED;
+        TestRun run = new TestRun(thumbnailData.getId(), TestRunState.NEXT_OPTION);
+        if (!metricBased) {
+            run.setResultDueAt(LocalDateTime.now().plus(Duration.ofMillis(delayMillis)));
+        }
+        testRunLeaseStore.lease(run);
+        run = testRunService.save(run);
+        thumbnailQueueService.enqueueRun(run.getId(), thumbnailData.getVideoUrl(), thumbnailData.getImageOptions());
 
-        if (count == 0) {
-            sendError(ERR_INVALID_INPUTS);
+        ActiveTest test = new ActiveTest(run, thumbnailData, testingType, delayMillis, decisionRounds(testConf));
+        activeTests.put(run.getId(), test);
+        if (!metricBased) {
+            scheduleFinalResults(test, delayMillis);
+        }
+        transition(test, TestRunState.NEXT_OPTION, 0);
+    }
+
+    /**
+     * Time an option is measured per slot: {@code testingByTimeMinutes} split over the decision rounds.
+     * It caps a METRIC_BASED slot as well; a METRIC_BASED test without a time limit is capped at
+     * {@code thumbnail.metric.max-duration-minutes}.
+     */
+    private long slotDurationMillis(ThumbnailTestConf testConf) {
+        long minutes = testConf.getTestingByTimeMinutes();
+        if (testConf.getTestingMode() == TestingMode.METRIC_BASED && minutes <= 0) {
+            minutes = metricMaxDurationMinutes;
+        }
+        return minutes * 60_000L / decisionRounds(testConf);
+    }
+
+    /**
+     * Number of slots per option. Only TIME_BASED tests on a criterion the engine can evaluate are split
+     * into rounds; a METRIC_BASED slot already ends on its own target.
+     */
+    private int decisionRounds(ThumbnailTestConf testConf) {
+        if (testConf.getTestingMode() == TestingMode.METRIC_BASED || !winnerDecisionEngine.supports(testConf.getCriterionOfWinner())) {
+            return 1;
+        }
+        return winnerDecisionEngine.getMaxRounds();
+    }
+
+    /**
+     * Resumes every unfinished test after a restart from its persisted run and slots.
+     * A step that was cut off by the shutdown is executed again.
+     * In clustered mode the node instead starts its lease heartbeat, which claims its share of the unfinished tests;
+     * leases left behind by a previous process with the same node id are given up first.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedTests() {
+        if (testRunLeaseStore.isEnabled()) {
+            testRunLeaseStore.release();
+            taskScheduler.scheduleWithFixedDelay(this::heartbeat, Duration.ofMillis(testRunLeaseStore.getHeartbeatIntervalMillis()));
             return;
         }
 
-        ThumbnailQueueItem queueItem;
-        log.info("Processing queue items");
+        List<TestRun> runs = testRunService.getUnfinished();
+        log.info("Resuming {} unfinished tests", runs.size());
+        resumeAll(runs);
+    }
 
-        while ((queueItem = thumbnailQueue.poll()) != null) {
-            thumbnailQueue.delete(queueItem);
-            queueItem.setActive(true);
+    /**
+     * Renews the leases of the running tests, stops the ones another node took over and claims unleased tests
+     * while this node has capacity.
+     */
+    private void heartbeat() {
+        try {
+            Set<Long> running = new HashSet<>(activeTests.keySet());
+            Set<Long> held = testRunLeaseStore.renew(running);
+            for (Long runId : running) {
+                if (!held.contains(runId)) {
+                    stopLocally(runId);
+                }
+            }
+
+            List<Long> claimed = testRunLeaseStore.claim(activeTests.size());
+            if (!claimed.isEmpty()) {
+                resumeAll(testRunService.getByIds(claimed));
+            }
+        } catch (Exception e) {
+            log.error("Test run lease heartbeat failed", e);
+        }
+    }
+
+    /**
+     * Drops a test whose lease this node lost; its timers find it gone, also if the test is resumed here again later,
+     * and its buffered writes are fenced off.
+     */
+    private void stopLocally(long runId) {
+        ActiveTest test = activeTests.remove(runId);
+        if (test != null) {
+            test.released = true;
+            thumbnailQueueService.clearQueue(test.thumbnailData.getVideoUrl());
+            log.warn("Lease of test run {} was taken over by another node, stopped it here", runId);
+        }
+    }
+
+    /**
+     * Hands the running tests over to the other nodes on shutdown, after writing their last transitions.
+     */
+    @PreDestroy
+    public void releaseLeases() {
+        if (testRunLeaseStore.isEnabled()) {
+            testQueueStore.flush();
+            testRunLeaseStore.release();
+        }
+    }
+
+    private void resumeAll(List<TestRun> runs) {
+        for (TestRun run : runs) {
             try {
-                processSingleTestSync(thumbnailData, queueItem, delayMillis, testingType);
+                resume(run);
             } catch (Exception e) {
-                log.error("Error during processing single test", e);
-                sendError(ERR_INTERNAL_SERVER + ": " + e.getMessage());
+                log.error("Failed to resume test run {}", run.getId(), e);
             }
         }
-        log.info("Finished processing queue");
+    }
 
-        try {
-            List<ImageOption> options = getTestResults(thumbnailData, thumbnailData.getTestConf().getCriterionOfWinner());
-            thumbnailService.save(thumbnailData);
-            messagingTemplate.convertAndSend(TOPIC_FINAL, options);
-        } catch (Exception e) {
-            log.error("Error sending final results", e);
-            sendError(ERR_FINAL_RESULT_ERROR);
+    private void resume(TestRun run) {
+        ThumbnailData thumbnailData = thumbnailService.getWithOptions(run.getThumbnailId()).orElse(null);
+        if (thumbnailData == null || thumbnailData.getTestConf() == null) {
+            log.warn("Test data of run {} is gone, marking it failed", run.getId());
+            run.setState(TestRunState.FAILED);
+            testQueueStore.updateRun(run);
+            return;
+        }
+
+        ThumbnailTestConf testConf = thumbnailData.getTestConf();
+        long delayMillis = slotDurationMillis(testConf);
+        ActiveTest test = new ActiveTest(run, thumbnailData, testConf.getTestType(), delayMillis, decisionRounds(testConf));
+
+        Map<Long, ImageOption> optionsById = new HashMap<>();
+        for (ImageOption option : thumbnailData.getImageOptions()) {
+            optionsById.put(option.getId(), option);
+        }
+        for (TestQueueStore.SlotRow slot : testQueueStore.loadSlots(run.getId())) {
+            ImageOption option = optionsById.get(slot.getImageOptionId());
+            if (option == null) {
+                continue;
+            }
+            ThumbnailQueueItem item = new ThumbnailQueueItem(thumbnailData.getVideoUrl(), option, run.getId());
+            item.setAttempts(slot.getAttempts());
+            test.round = Math.max(test.round, slot.getAttempts());
+            // the stored stats of an option are its totals over the slots it completed
+            int completedSlots = slot.getStatus() == TestSlotStatus.ACTIVE ? slot.getAttempts() - 1 : slot.getAttempts();
+            if (option.getThumbnailStats() != null && completedSlots > 0
+                    && (slot.getStatus() == TestSlotStatus.DONE || slot.getStatus() == TestSlotStatus.ACTIVE)) {
+                test.evidence.computeIfAbsent(option.getId(), id -> new WinnerDecisionEngine.Evidence())
+                        .add(option.getThumbnailStats(), completedSlots * delayMillis);
+            }
+            if (slot.getStatus() == TestSlotStatus.PENDING) {
+                thumbnailQueueService.addToQueue(thumbnailData.getVideoUrl(), item);
+            } else if (slot.getStatus() == TestSlotStatus.ACTIVE) {
+                item.setActive(true);
+                test.queueItem = item;
+                test.optionTotals = option.getThumbnailStats() != null && completedSlots > 0
+                        ? copyStats(option.getThumbnailStats()) : null;
+            } else if (slot.getStatus() == TestSlotStatus.FAILED || slot.getStatus() == TestSlotStatus.CANCELLED) {
+                test.excluded.add(option.getId());
+            }
         }
+
+        if (test.queueItem == null && run.getState() != TestRunState.FINALIZING) {
+            run.setState(TestRunState.NEXT_OPTION);
+        }
+        activeTests.put(run.getId(), test);
+
+        LocalDateTime now = LocalDateTime.now();
+        if (run.getResultDueAt() != null) {
+            scheduleFinalResults(test, Math.max(0, Duration.between(now, run.getResultDueAt()).toMillis()));
+        }
+        long fireDelayMillis = run.getNextFireAt() != null ? Math.max(0, Duration.between(now, run.getNextFireAt()).toMillis()) : 0;
+        log.info("Resumed test run {} in state {}, next step in {} ms", run.getId(), run.getState(), fireDelayMillis);
+        scheduleFire(test, fireDelayMillis);
     }
 
     private int calculateTestCount(TestingType testingType, List<ImageOption> imageOptions, List<String> texts) {
@@ -240,87 +511,632 @@ public class ThumbnailTestService {
         };
     }
 
-    private void processSingleTestSync(ThumbnailData thumbnailData, ThumbnailQueueItem queueItem, long delayMillis, TestingType testingType) {
-        log.info("Processing single test sync");
+    /**
+     * Persists the next state of the run and arms a timer that executes it after the delay.
+     */
+    private void transition(ActiveTest test, TestRunState next, long delayMillis) {
+        TestRun run = test.run;
+        if (run.getState() != next) {
+            test.retries = 0;
+        }
+        run.setState(next);
+        run.setNextFireAt(next.isTerminal() ? null : LocalDateTime.now().plus(Duration.ofMillis(delayMillis)));
+        testQueueStore.updateRun(run);
+        if (test.queueItem != null) {
+            thumbnailQueueService.markSlot(test.queueItem, TestSlotStatus.ACTIVE, run.getNextFireAt());
+        }
+
+        if (next.isTerminal()) {
+            activeTests.remove(run.getId(), test);
+            releaseQueue(test.thumbnailData.getVideoUrl());
+            return;
+        }
+        scheduleFire(test, delayMillis);
+    }
+
+    /**
+     * Drops the in-memory queue and its depth gauge once no running test of the video is left.
+     */
+    private void releaseQueue(String videoUrl) {
+        for (ActiveTest other : activeTests.values()) {
+            if (videoUrl.equals(other.thumbnailData.getVideoUrl())) {
+                return;
+            }
+        }
+        thumbnailQueueService.clearQueue(videoUrl);
+    }
+
+    /**
+     * Arms the timer of the test's next step. The timer is bound to this instance of the test, so once the test is
+     * stopped here, and maybe resumed again as a new instance after its lease came back, the old timer does nothing.
+     */
+    private void scheduleFire(ActiveTest test, long delayMillis) {
+        long runId = test.run.getId();
+        taskScheduler.schedule(() -> {
+            try {
+                executor.execute(() -> fire(test));
+            } catch (TaskRejectedException e) {
+                log.warn("Executor saturated, retrying transition of run {}", runId);
+                scheduleFire(test, REJECTED_STEP_RETRY_MILLIS);
+            }
+        }, Instant.now().plusMillis(delayMillis));
+    }
+
+    private void fire(ActiveTest test) {
+        long runId = test.run.getId();
+        if (activeTests.get(runId) != test) {
+            log.debug("Dropped stale timer of run {}", runId);
+            return;
+        }
+
+        if (!testRunLeaseStore.isHeld()) {
+            log.warn("Leases could not be renewed, postponing transition of run {}", runId);
+            scheduleFire(test, LEASE_WAIT_RETRY_MILLIS);
+            return;
+        }
+        if (testRunLeaseStore.isEnabled()) {
+            dropCancelledOptions(test);
+        }
+
+        TestRunState state = test.run.getState();
         try {
-            ImageOption imageOption = queueItem.getImageOption();
-            String text = imageOption.getText();
+            switch (state) {
+                case NEXT_OPTION -> nextOption(test);
+                case UPLOADING -> upload(test);
+                case CONFIRMING -> confirm(test);
+                case MEASURING -> transition(test, TestRunState.COLLECTING, 0);
+                case COLLECTING -> collect(test);
+                case FINALIZING -> finish(test);
+                default -> log.warn("Run {} fired in terminal state {}", runId, state);
+            }
+        } catch (Exception e) {
+            log.error("Error during processing single test", e);
+            sendError(test.thumbnailData.getUser(), ERR_INTERNAL_SERVER + ": " + e.getMessage());
+            if (state == TestRunState.FINALIZING) {
+                transition(test, TestRunState.FAILED, 0);
+            } else {
+                endSlot(test, TestSlotStatus.FAILED);
+            }
+        }
+    }
 
-            ThumbnailStats oldStats = imageOption.getThumbnailStats();
-            if (oldStats == null) {
-                oldStats = initializeEmptyStats(imageOption);
+    /**
+     * Leaves out the options whose slots were cancelled in the durable queue by another node, which received the
+     * user's remove request but cannot reach the queue of this node.
+     */
+    private void dropCancelledOptions(ActiveTest test) {
+        Long runId = test.run.getId();
+        for (Long optionId : testQueueStore.loadCancelled(runId)) {
+            if (!test.excluded.add(optionId)) {
+                continue;
             }
-            thumbnailService.save(thumbnailData);
+            ThumbnailQueue queue = thumbnailQueueService.findItemByVideoUrl(test.thumbnailData.getVideoUrl());
+            if (queue != null) {
+                queue.getQueue().removeIf(item -> runId.equals(item.getRunId()) && optionId.equals(item.getImageOption().getId()));
+            }
+            log.info("Option {} of run {} was removed through another node", optionId, runId);
+        }
+    }
 
-            LocalDate startDate = LocalDate.now();
+    private void nextOption(ActiveTest test) {
+        ThumbnailQueueItem queueItem = thumbnailQueueService.pollFromQueue(test.thumbnailData.getVideoUrl());
+        if (queueItem == null && startNextRound(test)) {
+            queueItem = thumbnailQueueService.pollFromQueue(test.thumbnailData.getVideoUrl());
+        }
+        if (queueItem == null) {
+            log.info("Finished processing queue");
+            transition(test, TestRunState.FINALIZING, 0);
+            return;
+        }
 
+        log.info("Processing single test");
+        queueItem.setActive(true);
+        queueItem.setAttempts(queueItem.getAttempts() + 1);
+        test.queueItem = queueItem;
+        test.thumbnailUploaded = false;
+
+        ImageOption imageOption = queueItem.getImageOption();
+        if (imageOption.getThumbnailStats() == null) {
+            thumbnailStatsService.save(initializeEmptyStats(imageOption));
+        }
+        test.optionTotals = copyStats(imageOption.getThumbnailStats());
+        test.slotStats = null;
+
+        test.run.setCurrentOptionId(imageOption.getId());
+        transition(test, TestRunState.UPLOADING, 0);
+    }
+
+    /**
+     * Queues the options that are still in the race for another slot, unless all rounds ran.
+     *
+     * @return true if a new round was queued
+     */
+    private boolean startNextRound(ActiveTest test) {
+        if (test.round >= test.rounds) {
+            return false;
+        }
+        ThumbnailData thumbnailData = test.thumbnailData;
+        List<ImageOption> survivors = thumbnailData.getImageOptions().stream()
+                .filter(option -> test.evidence.containsKey(option.getId()) && !test.excluded.contains(option.getId()))
+                .toList();
+        if (survivors.size() < 2) {
+            return false;
+        }
+
+        test.round++;
+        log.info("Starting round {} of {} for run {} with {} options", test.round, test.rounds, test.run.getId(), survivors.size());
+        for (ImageOption option : survivors) {
+            ThumbnailQueueItem item = new ThumbnailQueueItem(thumbnailData.getVideoUrl(), option, test.run.getId());
+            item.setAttempts(test.round - 1);
+            thumbnailQueueService.addToQueue(thumbnailData.getVideoUrl(), item);
+            thumbnailQueueService.markSlot(item, TestSlotStatus.PENDING, null);
+        }
+        return true;
+    }
+
+    private void upload(ActiveTest test) throws IOException {
+        ThumbnailData thumbnailData = test.thumbnailData;
+        ImageOption imageOption = test.queueItem.getImageOption();
+        test.run.setSlotStartedOn(LocalDate.now());
+
+        long confirmDelayMillis = 0;
+        if ((test.testingType == TestingType.THUMBNAIL || test.testingType == TestingType.THUMBNAILTEXT) && !test.thumbnailUploaded) {
             try {
-                if (testingType == TestingType.THUMBNAIL || testingType == TestingType.THUMBNAILTEXT) {
-                    log.info("Uploading thumbnail");
-                    File imageFile = supaBaseImageService.getFileFromPath(new URL(imageOption.getFileUrl()));
-
-                    youTubeService.uploadThumbnail(thumbnailData, imageFile);
-                    Thread.sleep(THUMBNAIL_UPLOAD_WAIT_MILLIS);
-                    supaBaseImageService.deleteFileWithPath(imageFile);
-                    log.info("Thumbnail upload completed");
+                log.info("Uploading thumbnail");
+                URL imageUrl = new URL(imageOption.getFileUrl());
+                File imageFile = imageFileCache.acquire(imageUrl);
+                if (imageFile == null) {
+                    throw new IOException("Failed to download image " + imageUrl);
                 }
-            } catch (GoogleJsonResponseException e){
-                if(e.getStatusCode()==429) {
-                    log.error(ERR_TOO_MANY_REQUESTS_BY_USER);
-                    sendError(ERR_TOO_MANY_REQUESTS_BY_USER);
-                    return;
-                }else{
-                    log.error(ERR_THUMBNAIL_UPLOAD_FAILED, e);
-                    sendError(ERR_THUMBNAIL_UPLOAD_FAILED + ": " + e.getMessage());
-                    return;
+                try {
+                    ImageNormalizationService.PreparedImage prepared =
+                            imageNormalizationService.prepareForUpload(thumbnailData.getUser(), imageFile, imageOption.getId());
+                    try {
+                        youTubeService.uploadThumbnail(thumbnailData, prepared.getFile(), prepared.getMimeType());
+                    } finally {
+                        prepared.discard();
+                    }
+                } finally {
+                    imageFileCache.release(imageUrl, imageFile);
                 }
-            }
-            catch (IOException e) {
+                log.info("Thumbnail upload completed");
+                test.thumbnailUploaded = true;
+            } catch (RetryableApiException e) {
+                retry(test, TestRunState.UPLOADING, e,
+                        e.getStatusCode() == 429 ? ERR_TOO_MANY_REQUESTS_BY_USER : ERR_THUMBNAIL_UPLOAD_FAILED);
+                return;
+            } catch (IOException e) {
                 log.error(ERR_THUMBNAIL_UPLOAD_FAILED, e);
-                sendError(ERR_THUMBNAIL_UPLOAD_FAILED + ": " + e.getMessage());
+                sendError(thumbnailData.getUser(), ERR_THUMBNAIL_UPLOAD_FAILED + ": " + e.getMessage());
+                endSlot(test, TestSlotStatus.FAILED);
                 return;
-            } catch (InterruptedException e) {
-                log.error("Interrupted during thumbnail upload", e);
-                Thread.currentThread().interrupt();
-                sendError(ERR_INTERNAL_SERVER + ": " + e.getMessage());
+            }
+            confirmDelayMillis = THUMBNAIL_UPLOAD_WAIT_MILLIS;
+        }
+
+        if (test.testingType == TestingType.TEXT || test.testingType == TestingType.THUMBNAILTEXT) {
+            String videoId = youTubeService.getVideoIdFromUrl(thumbnailData.getVideoUrl());
+            log.info("Updating video title to: {}", imageOption.getText());
+            try {
+                youTubeService.updateVideoTitle(thumbnailData.getUser(), videoId, imageOption.getText());
+            } catch (RetryableApiException e) {
+                retry(test, TestRunState.UPLOADING, e, ERR_ERROR_UPDATING_TITLE);
                 return;
             }
+            test.run.setConfirmDeadline(LocalDateTime.now()
+                    .plus(Duration.ofMillis(confirmDelayMillis + DEFAULT_TITLE_UPDATE_TIMEOUT_MILLIS)));
+        }
+
+        transition(test, TestRunState.CONFIRMING, confirmDelayMillis);
+    }
 
-            if (testingType == TestingType.TEXT || testingType == TestingType.THUMBNAILTEXT) {
-                String videoId = youTubeService.getVideoIdFromUrl(thumbnailData.getVideoUrl());
-                log.info("Updating video title to: {}", text);
-                youTubeService.updateVideoTitle(thumbnailData.getUser(), videoId, text);
-                boolean titleUpdated = waitForTitleUpdate(thumbnailData.getUser(), videoId, text, DEFAULT_TITLE_UPDATE_TIMEOUT_MILLIS);
-                if (!titleUpdated) {
+    private void confirm(ActiveTest test) {
+        if (test.testingType == TestingType.TEXT || test.testingType == TestingType.THUMBNAILTEXT) {
+            ThumbnailData thumbnailData = test.thumbnailData;
+            String expectedTitle = test.queueItem.getImageOption().getText();
+            String videoId = youTubeService.getVideoIdFromUrl(thumbnailData.getVideoUrl());
+            String currentTitle = youTubeService.getVideoTitle(thumbnailData.getUser(), videoId);
+
+            if (!expectedTitle.equals(currentTitle)) {
+                if (LocalDateTime.now().isAfter(test.run.getConfirmDeadline())) {
                     log.error("Title update timed out");
-                    sendError(ERR_ERROR_UPDATING_TITLE);
-                    return;
+                    sendError(thumbnailData.getUser(), ERR_ERROR_UPDATING_TITLE);
+                    endSlot(test, TestSlotStatus.FAILED);
+                } else {
+                    transition(test, TestRunState.CONFIRMING, DEFAULT_TITLE_UPDATE_POLL_INTERVAL_MILLIS);
                 }
-                log.info("Title update completed");
+                return;
             }
+            log.info("Title update completed");
+        }
 
-            log.info("Waiting for test duration: {} ms", delayMillis);
-            Thread.sleep(delayMillis);
+        test.run.setMeasureDeadline(LocalDateTime.now().plus(Duration.ofMillis(test.delayMillis)));
+        if (isMetricBased(test)) {
+            log.info("Measuring until {} reaches {}, at most {} ms", metricName(test), test.thumbnailData.getTestConf().getTestingByMetrics(), test.delayMillis);
+        } else {
+            log.info("Waiting for test duration: {} ms", test.delayMillis);
+        }
+        // the first collection of the slot takes the baseline the later polls are measured against
+        setSlotBaseline(test.run, null);
+        transition(test, TestRunState.COLLECTING, 0);
+    }
 
-            ThumbnailStats stats = youTubeAnalyticsService.getStats(thumbnailData.getUser(), startDate, queueItem);
-            if (stats != null) {
-                log.info("Received stats for thumbnail");
-                imageOption.setThumbnailStats(stats);
-                stats.setImageOption(imageOption);
-                imageOption.setThumbnail(thumbnailData);
+    /**
+     * Requests the stats of the current option; the query is shared with the other tests on the
+     * same channel. The first request of a slot records the video's totals as the slot baseline;
+     * every later one yields the slot's cumulative stats, the growth of the totals since the baseline.
+     * The request completes on the collector's thread, which only parks the result on the test and fires
+     * the test again to process it like any other step.
+     */
+    private void collect(ActiveTest test) {
+        ThumbnailStats baseline = slotBaseline(test.run);
+        CompletableFuture<ThumbnailStats> collection = test.collection;
+        if (collection == null) {
+            collection = youTubeAnalyticsCollector.collect(test.thumbnailData.getUser(), test.run.getSlotStartedOn(), test.queueItem, baseline);
+            test.collection = collection;
+            collection.whenComplete((stats, error) -> scheduleFire(test, 0));
+            return;
+        }
+        test.collection = null;
 
-                thumbnailService.save(thumbnailData);
-                log.info("Thumbnail data saved");
+        ThumbnailStats stats;
+        try {
+            stats = collection.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RetryableApiException retryable) {
+                retry(test, TestRunState.COLLECTING, retryable, ERR_ANALYTICS_RETRIES_EXHAUSTED);
+                return;
+            }
+            throw e;
+        }
+        if (baseline == null) {
+            startMeasuring(test, stats);
+        } else {
+            ImageOption imageOption = test.queueItem.getImageOption();
+            recordStats(test, stats, imageOption.getThumbnailStats() != null ? imageOption.getThumbnailStats().getId() : null);
+        }
+    }
 
-                messagingTemplate.convertAndSend(TOPIC_PROGRESS, imageOption);
-            } else {
-                log.warn("No stats received for thumbnail test");
-                messagingTemplate.convertAndSend(TOPIC_PROGRESS, imageOption);
+    /**
+     * Records the video's totals as the slot baseline and waits for the first poll. Without totals the
+     * baseline is requested again until the slot's time is up.
+     */
+    private void startMeasuring(ActiveTest test, ThumbnailStats totals) {
+        LocalDateTime deadline = test.run.getMeasureDeadline();
+        long remainingMillis = deadline != null ? Duration.between(LocalDateTime.now(), deadline).toMillis() : 0;
+        if (totals != null) {
+            setSlotBaseline(test.run, totals);
+            transition(test, TestRunState.MEASURING, Math.max(0, Math.min(statsPollIntervalMillis, remainingMillis)));
+        } else if (remainingMillis > 0) {
+            log.warn("No baseline for run {}, retrying", test.run.getId());
+            transition(test, TestRunState.COLLECTING, Math.min(statsPollIntervalMillis, remainingMillis));
+        } else {
+            sendError(test.thumbnailData.getUser(), ERR_ANALYTICS_RETRIES_EXHAUSTED);
+            endSlot(test, TestSlotStatus.FAILED);
+        }
+    }
+
+    /**
+     * Stores the polled stats in the option's existing stats row and decides whether the slot goes on.
+     */
+    private void recordStats(ActiveTest test, ThumbnailStats stats, Long statsId) {
+        ThumbnailData thumbnailData = test.thumbnailData;
+        ImageOption imageOption = test.queueItem.getImageOption();
+        boolean metricBased = isMetricBased(test);
+
+        if (stats != null) {
+            log.info("Received stats for thumbnail");
+            test.slotStats = stats;
+            statsSnapshotStore.record(test.run.getId(), imageOption.getId(), stats);
+
+            ThumbnailStats optionStats = addStats(test.optionTotals, stats);
+            optionStats.setId(statsId);
+            imageOption.setThumbnailStats(optionStats);
+            optionStats.setImageOption(imageOption);
+            imageOption.setThumbnail(thumbnailData);
+        } else {
+            log.warn("No stats received for thumbnail test");
+        }
+
+        LocalDateTime deadline = test.run.getMeasureDeadline();
+        long remainingMillis = deadline != null ? Duration.between(LocalDateTime.now(), deadline).toMillis() : 0;
+        boolean slotEnds = remainingMillis <= 0 || (metricBased && metricTargetReached(test, test.slotStats));
+        // the stored stats cover the completed slots only, except during the option's first slot
+        if (test.slotStats != null && (slotEnds || (stats != null && test.queueItem.getAttempts() <= 1))) {
+            thumbnailStatsService.save(imageOption.getThumbnailStats());
+            log.info("Thumbnail data saved");
+        }
+
+        if (!slotEnds) {
+            send(thumbnailData.getUser(), QUEUE_PROGRESS, imageOption);
+            transition(test, TestRunState.MEASURING, Math.min(statsPollIntervalMillis, remainingMillis));
+            return;
+        }
+        if (metricBased && !metricTargetReached(test, test.slotStats)) {
+            log.info("Time cap reached before {} hit its target", metricName(test));
+        }
+
+        addEvidence(test, imageOption);
+        send(thumbnailData.getUser(), QUEUE_PROGRESS, imageOption);
+        test.run.setMeasureDeadline(null);
+        if (stopIfDecided(test)) {
+            return;
+        }
+        endSlot(test, TestSlotStatus.DONE);
+    }
+
+    /**
+     * Adds the stats of the finished slot to the option's evidence; a slot without any stats counts as
+     * exposure without views.
+     */
+    private void addEvidence(ActiveTest test, ImageOption imageOption) {
+        long exposureMillis = test.delayMillis;
+        LocalDateTime deadline = test.run.getMeasureDeadline();
+        if (deadline != null) {
+            LocalDateTime measureStart = deadline.minus(Duration.ofMillis(test.delayMillis));
+            LocalDateTime measureEnd = LocalDateTime.now().isBefore(deadline) ? LocalDateTime.now() : deadline;
+            exposureMillis = Math.max(0, Duration.between(measureStart, measureEnd).toMillis());
+        }
+
+        WinnerDecisionEngine.Evidence evidence = test.evidence.computeIfAbsent(imageOption.getId(), id -> new WinnerDecisionEngine.Evidence());
+        evidence.add(test.slotStats != null ? test.slotStats : new ThumbnailStats(), exposureMillis);
+    }
+
+    /**
+     * Lets the decision engine judge the options once every option still queued has been measured.
+     * A decided test skips its remaining slots and is finalized; options that are clearly behind
+     * are removed from the queue and left out of later rounds.
+     *
+     * @return true if the test was stopped and the slot already closed
+     */
+    private boolean stopIfDecided(ActiveTest test) {
+        CriterionOfWinner criterion = test.thumbnailData.getTestConf().getCriterionOfWinner();
+        if (test.rounds < 2 || !winnerDecisionEngine.supports(criterion)) {
+            return false;
+        }
+        ThumbnailQueue queue = thumbnailQueueService.findItemByVideoUrl(test.thumbnailData.getVideoUrl());
+        List<ThumbnailQueueItem> queued = queue == null ? List.of() : queue.getQueue().stream()
+                .filter(item -> test.run.getId().equals(item.getRunId()))
+                .toList();
+        for (ThumbnailQueueItem item : queued) {
+            if (!test.evidence.containsKey(item.getImageOption().getId())) {
+                return false;
+            }
+        }
+
+        Map<Long, WinnerDecisionEngine.Evidence> contenders = contenders(test);
+        if (contenders.isEmpty()) {
+            return false;
+        }
+        WinnerDecisionEngine.Decision decision = winnerDecisionEngine.evaluate(criterion, contenders);
+        if (decision.isDecided()) {
+            boolean skipped = !queued.isEmpty() || test.round < test.rounds;
+            log.info("Run {} decided for option {} at {} after round {}", test.run.getId(), decision.getLeaderId(),
+                    decision.getConfidence(), test.round);
+            for (ThumbnailQueueItem item : queued) {
+                // measured in earlier rounds, the option just needs no further slot; a cancelled slot would leave it out
+                if (queue.delete(item)) {
+                    thumbnailQueueService.markSlot(item, TestSlotStatus.DONE, null);
+                }
             }
-        } catch (InterruptedException e) {
-            log.error("Interrupted during test processing", e);
-            sendError(ERR_INTERNAL_SERVER + ": " + e.getMessage());
+            if (skipped) {
+                test.stoppedEarly = true;
+                earlyStops.incrementAndGet();
+            }
+            closeSlot(test, TestSlotStatus.DONE);
+            transition(test, TestRunState.FINALIZING, 0);
+            return true;
+        }
+
+        for (Long optionId : contenders.keySet()) {
+            if (winnerDecisionEngine.isClearLoser(decision, optionId)) {
+                log.info("Dropping option {} of run {} with win probability {}", optionId, test.run.getId(),
+                        decision.getProbabilities().get(optionId));
+                test.excluded.add(optionId);
+                for (ThumbnailQueueItem item : queued) {
+                    if (optionId.equals(item.getImageOption().getId())) {
+                        thumbnailQueueService.deleteFromQueue(test.thumbnailData.getVideoUrl(), item);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isMetricBased(ActiveTest test) {
+        return test.thumbnailData.getTestConf().getTestingMode() == TestingMode.METRIC_BASED;
+    }
+
+    /**
+     * Tells whether the stats accumulated since the slot started reached {@code testingByMetrics}.
+     * The target counts watch time (minutes) if that is the winner criterion and views otherwise,
+     * since views are the sample size behind the ratio criteria like CTR and AVD.
+     */
+    private boolean metricTargetReached(ActiveTest test, ThumbnailStats stats) {
+        if (stats == null) {
+            return false;
         }
+        ThumbnailTestConf testConf = test.thumbnailData.getTestConf();
+        long value = testConf.getCriterionOfWinner() == CriterionOfWinner.WATCH_TIME
+                ? (stats.getTotalWatchTime() != null ? stats.getTotalWatchTime() : 0)
+                : (stats.getViews() != null ? stats.getViews() : 0);
+        return value >= testConf.getTestingByMetrics();
+    }
+
+    private String metricName(ActiveTest test) {
+        return test.thumbnailData.getTestConf().getCriterionOfWinner() == CriterionOfWinner.WATCH_TIME ? "watch time" : "views";
+    }
+
+    /**
+     * Fires the throttled step again after an exponential backoff with jitter, or at the time the API asked for.
+     * After {@code youtube.retry.max-attempts}, or if the API asks to wait longer than the backoff cap
+     * (e.g. until the daily quota resets), the slot fails.
+     */
+    private void retry(ActiveTest test, TestRunState state, RetryableApiException e, String failureMessage) {
+        test.retries++;
+        long delayMillis = Math.max(e.getRetryAfterMillis(),
+                Backoff.delayMillis(test.retries, retryBaseDelayMillis, retryMaxDelayMillis));
+        if (test.retries > retryMaxAttempts || delayMillis > retryMaxDelayMillis) {
+            log.error("Giving up {} of run {} after {} attempts", state, test.run.getId(), test.retries, e);
+            sendError(test.thumbnailData.getUser(), failureMessage + ": " + e.getMessage());
+            endSlot(test, TestSlotStatus.FAILED);
+            return;
+        }
+        log.warn("{} of run {} throttled ({}), retry {} in {} ms", state, test.run.getId(), e.getMessage(), test.retries, delayMillis);
+        transition(test, state, delayMillis);
+    }
+
+    /**
+     * Closes the slot of the current option and moves the run on to the next one.
+     */
+    private void endSlot(ActiveTest test, TestSlotStatus status) {
+        closeSlot(test, status);
+        transition(test, TestRunState.NEXT_OPTION, 0);
+    }
+
+    private void closeSlot(ActiveTest test, TestSlotStatus status) {
+        if (test.queueItem != null) {
+            test.queueItem.setActive(false);
+            thumbnailQueueService.markSlot(test.queueItem, status, null);
+            if (status == TestSlotStatus.FAILED) {
+                test.excluded.add(test.queueItem.getImageOption().getId());
+            }
+            test.queueItem = null;
+        }
+        test.run.setCurrentOptionId(null);
+    }
+
+    private void finish(ActiveTest test) {
+        ThumbnailData thumbnailData = test.thumbnailData;
+        try {
+            TestDecision result = decide(test);
+            thumbnailStatsService.markWinner(thumbnailData.getId(), result.getWinnerOptionId());
+            send(thumbnailData.getUser(), QUEUE_FINAL, result);
+            transition(test, TestRunState.FINISHED, 0);
+        } catch (Exception e) {
+            log.error("Error sending final results", e);
+            sendError(thumbnailData.getUser(), ERR_FINAL_RESULT_ERROR);
+            transition(test, TestRunState.FAILED, 0);
+        }
+    }
+
+    /**
+     * Picks the winner of a finished test: the option most likely to be the best according to the
+     * decision engine, or the plain maximum of the criterion if the engine cannot evaluate it.
+     * Options that failed or were removed cannot win.
+     */
+    private TestDecision decide(ActiveTest test) {
+        ThumbnailData thumbnailData = test.thumbnailData;
+        CriterionOfWinner criterion = thumbnailData.getTestConf().getCriterionOfWinner();
+        TestDecision result = new TestDecision();
+        result.setCriterion(criterion);
+        result.setRounds(test.round);
+        result.setStoppedEarly(test.stoppedEarly);
+
+        Map<Long, WinnerDecisionEngine.Evidence> contenders = contenders(test);
+        if (winnerDecisionEngine.supports(criterion) && !contenders.isEmpty()) {
+            WinnerDecisionEngine.Decision decision = winnerDecisionEngine.evaluate(criterion, contenders);
+            for (ImageOption option : thumbnailData.getImageOptions()) {
+                option.setWinner(option.getId().equals(decision.getLeaderId()));
+            }
+            result.setOptions(thumbnailData.getImageOptions());
+            result.setWinnerOptionId(decision.getLeaderId());
+            result.setConfidence(decision.getConfidence());
+            result.setDecided(decision.isDecided());
+            result.setWinProbabilities(decision.getProbabilities());
+            return result;
+        }
+
+        List<ImageOption> options = getTestResults(thumbnailData, criterion, test.excluded);
+        result.setOptions(options);
+        if (options != null) {
+            options.stream().filter(ImageOption::isWinner).findFirst()
+                    .ifPresent(winner -> result.setWinnerOptionId(winner.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the evidence of the options that are still in the race, i.e. neither failed, dropped nor removed
+     */
+    private static Map<Long, WinnerDecisionEngine.Evidence> contenders(ActiveTest test) {
+        Map<Long, WinnerDecisionEngine.Evidence> contenders = new LinkedHashMap<>(test.evidence);
+        contenders.keySet().removeAll(test.excluded);
+        return contenders;
+    }
+
+    private static ThumbnailStats copyStats(ThumbnailStats stats) {
+        ThumbnailStats copy = new ThumbnailStats();
+        copy.setViews(stats.getViews());
+        copy.setCtr(stats.getCtr());
+        copy.setAverageViewDuration(stats.getAverageViewDuration());
+        copy.setAdvCtr(stats.getAdvCtr());
+        copy.setComments(stats.getComments());
+        copy.setShares(stats.getShares());
+        copy.setLikes(stats.getLikes());
+        copy.setSubscribersGained(stats.getSubscribersGained());
+        copy.setAverageViewPercentage(stats.getAverageViewPercentage());
+        copy.setTotalWatchTime(stats.getTotalWatchTime());
+        return copy;
+    }
+
+    /**
+     * Adds the stats of a slot to an option's totals over its earlier slots; averages are weighted by views.
+     */
+    private static ThumbnailStats addStats(ThumbnailStats totals, ThumbnailStats slot) {
+        if (totals == null) {
+            return copyStats(slot);
+        }
+        ThumbnailStats sum = copyStats(totals);
+        int totalViews = Objects.requireNonNullElse(totals.getViews(), 0);
+        int slotViews = Objects.requireNonNullElse(slot.getViews(), 0);
+        sum.setViews(totalViews + slotViews);
+        sum.setAverageViewDuration(weightedAverage(totals.getAverageViewDuration(), totalViews, slot.getAverageViewDuration(), slotViews));
+        sum.setComments(Objects.requireNonNullElse(totals.getComments(), 0) + Objects.requireNonNullElse(slot.getComments(), 0));
+        sum.setShares(Objects.requireNonNullElse(totals.getShares(), 0) + Objects.requireNonNullElse(slot.getShares(), 0));
+        sum.setLikes(Objects.requireNonNullElse(totals.getLikes(), 0) + Objects.requireNonNullElse(slot.getLikes(), 0));
+        sum.setSubscribersGained(Objects.requireNonNullElse(totals.getSubscribersGained(), 0)
+                + Objects.requireNonNullElse(slot.getSubscribersGained(), 0));
+        sum.setAverageViewPercentage(weightedAverage(totals.getAverageViewPercentage(), totalViews, slot.getAverageViewPercentage(), slotViews));
+        sum.setTotalWatchTime(Objects.requireNonNullElse(totals.getTotalWatchTime(), 0L) + Objects.requireNonNullElse(slot.getTotalWatchTime(), 0L));
+        return sum;
+    }
+
+    private static double weightedAverage(Double a, int aViews, Double b, int bViews) {
+        if (aViews + bViews == 0) {
+            return 0;
+        }
+        return (Objects.requireNonNullElse(a, 0.0) * aViews + Objects.requireNonNullElse(b, 0.0) * bViews) / (aViews + bViews);
+    }
+
+    /**
+     * @return the video's totals when the run's current slot started measuring, or null if none were taken yet
+     */
+    private static ThumbnailStats slotBaseline(TestRun run) {
+        if (run.getBaselineViews() == null) {
+            return null;
+        }
+        ThumbnailStats baseline = new ThumbnailStats();
+        baseline.setViews(run.getBaselineViews());
+        baseline.setAverageViewDuration(run.getBaselineAverageViewDuration());
+        baseline.setComments(run.getBaselineComments());
+        baseline.setShares(run.getBaselineShares());
+        baseline.setLikes(run.getBaselineLikes());
+        baseline.setSubscribersGained(run.getBaselineSubscribersGained());
+        baseline.setAverageViewPercentage(run.getBaselineAverageViewPercentage());
+        baseline.setTotalWatchTime(run.getBaselineTotalWatchTime());
+        return baseline;
+    }
+
+    private static void setSlotBaseline(TestRun run, ThumbnailStats totals) {
+        run.setBaselineViews(totals != null ? Objects.requireNonNullElse(totals.getViews(), 0) : null);
+        run.setBaselineAverageViewDuration(totals != null ? totals.getAverageViewDuration() : null);
+        run.setBaselineComments(totals != null ? totals.getComments() : null);
+        run.setBaselineShares(totals != null ? totals.getShares() : null);
+        run.setBaselineLikes(totals != null ? totals.getLikes() : null);
+        run.setBaselineSubscribersGained(totals != null ? totals.getSubscribersGained() : null);
+        run.setBaselineAverageViewPercentage(totals != null ? totals.getAverageViewPercentage() : null);
+        run.setBaselineTotalWatchTime(totals != null ? totals.getTotalWatchTime() : null);
     }
 
     private ThumbnailStats initializeEmptyStats(ImageOption imageOption) {
@@ -340,7 +1156,7 @@ public class ThumbnailTestService {
         return stats;
     }
 
-    private List<ImageOption> getTestResults(ThumbnailData thumbnailData, CriterionOfWinner criterion) {
+    private List<ImageOption> getTestResults(ThumbnailData thumbnailData, CriterionOfWinner criterion, Set<Long> excluded) {
         List<ImageOption> options = thumbnailData.getImageOptions();
 
         if (criterion == CriterionOfWinner.NONE || options == null || options.isEmpty()) {
@@ -351,6 +1167,9 @@ public class ThumbnailTestService {
         double maxMetric = Double.NEGATIVE_INFINITY;
 
         for (ImageOption option : options) {
+            if (excluded.contains(option.getId())) {
+                continue;
+            }
             ThumbnailStats stats = option.getThumbnailStats();
             if (stats == null) {
                 stats = initializeEmptyStats(option);
@@ -378,19 +1197,49 @@ public class ThumbnailTestService {
         return options;
     }
 
-    private boolean waitForTitleUpdate(UserData user, String videoId, String expectedTitle, long timeoutMillis) throws InterruptedException {
-        long start = System.currentTimeMillis();
-        while (System.currentTimeMillis() - start < timeoutMillis) {
-            String currentTitle = youTubeService.getVideoTitle(user, videoId);
-            if (expectedTitle.equals(currentTitle)) {
-                return true;
-            }
-            Thread.sleep(DEFAULT_TITLE_UPDATE_POLL_INTERVAL_MILLIS);
-        }
-        return false;
+    /**
+     * Sends a message to every session of the user, keyed by the Google ID the session authenticated with.
+     */
+    private void send(UserData user, String destination, Object payload) {
+        messagingTemplate.convertAndSendToUser(user.getGoogleId(), destination, payload);
     }
 
-    private void sendError(String errorMessage) {
-        messagingTemplate.convertAndSend(TOPIC_ERROR, errorMessage);
+    private void sendError(UserData user, String errorMessage) {
+        send(user, QUEUE_ERROR, errorMessage);
+    }
+
+    /**
+     * In-memory working set of a running test: the entity graph and the option currently in its slot.
+     */
+    private static final class ActiveTest {
+        private final TestRun run;
+        private final ThumbnailData thumbnailData;
+        private final TestingType testingType;
+        private final long delayMillis;
+        private final int rounds;
+        // evidence per image option id, over all slots it completed
+        private final Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        // options that failed, were dropped or removed by the user, and are not queued for further rounds
+        private final Set<Long> excluded = ConcurrentHashMap.newKeySet();
+        private ThumbnailQueueItem queueItem;
+        // stats of the current option over its completed slots, and what its current slot measured so far
+        private ThumbnailStats optionTotals;
+        private ThumbnailStats slotStats;
+        // the pending stats request of the current slot, processed once it completed
+        private CompletableFuture<ThumbnailStats> collection;
+        private boolean thumbnailUploaded;
+        private int retries;
+        private int round = 1;
+        private boolean stoppedEarly;
+        // set when another node took the test over
+        private volatile boolean released;
+
+        private ActiveTest(TestRun run, ThumbnailData thumbnailData, TestingType testingType, long delayMillis, int rounds) {
+            this.run = run;
+            this.thumbnailData = thumbnailData;
+            this.testingType = testingType;
+            this.delayMillis = delayMillis;
+            this.rounds = rounds;
+        }
     }
 }
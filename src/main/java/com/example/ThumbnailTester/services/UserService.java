@@ -28,4 +28,13 @@ public class UserService {
         userRepository.save(userData);
         return userData;
     }
+
+    /**
+     * Stores a new refresh token for the user unless another one replaced the expected token first.
+     *
+     * @return true if the token was replaced
+     */
+    public boolean replaceRefreshToken(String googleId, String oldToken, String newToken) {
+        return userRepository.replaceRefreshToken(googleId, oldToken, newToken) > 0;
+    }
 }
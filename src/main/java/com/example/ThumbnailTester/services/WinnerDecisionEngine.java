@@ -0,0 +1,233 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Bayesian decision over the options of a test: estimates for each option the posterior probability
+ * that it is the best one under the winner criterion, so a test can stop once one option is ahead
+ * at {@code thumbnail.decision.confidence}, and options that are clearly behind can be skipped.
+ * <p>
+ * Options run one after another, so every option is compared by its rate per hour of exposure:
+ * views and watch minutes are modelled as Poisson counts with a Gamma posterior, the average view
+ * duration as a normal mean whose spread shrinks with the number of views. YouTube Analytics does not
+ * report impressions, so CTR based criteria cannot be decided and keep the plain maximum.
+ */
+@Service
+public class WinnerDecisionEngine {
+    // Jeffreys prior for the Poisson rates, and a negligible prior exposure so the first slot dominates
+    private static final double PRIOR_SHAPE = 0.5;
+    private static final double PRIOR_HOURS = 1e-6;
+    private static final double MILLIS_PER_HOUR = 3_600_000.0;
+
+    private final double confidence;
+    private final double dropBelow;
+    private final int maxRounds;
+    private final int samples;
+
+    public WinnerDecisionEngine(@Value("${thumbnail.decision.confidence:0.95}") double confidence,
+                                @Value("${thumbnail.decision.drop-below:0.01}") double dropBelow,
+                                @Value("${thumbnail.decision.max-rounds:3}") int maxRounds,
+                                @Value("${thumbnail.decision.samples:4000}") int samples) {
+        this.confidence = confidence;
+        this.dropBelow = dropBelow;
+        this.maxRounds = Math.max(1, maxRounds);
+        this.samples = samples;
+    }
+
+    /**
+     * @param criterion the winner criterion of a test
+     * @return true if the engine can compare options under the criterion
+     */
+    public boolean supports(CriterionOfWinner criterion) {
+        return criterion == CriterionOfWinner.VIEWS || criterion == CriterionOfWinner.WATCH_TIME
+                || criterion == CriterionOfWinner.AVD;
+    }
+
+    /**
+     * @return the number of rounds the measuring time of an option is split into
+     */
+    public int getMaxRounds() {
+        return maxRounds;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Computes the probability of each option being the best by sampling the posteriors.
+     *
+     * @param criterion the winner criterion, must be {@link #supports(CriterionOfWinner) supported}
+     * @param evidence  the accumulated evidence per image option id
+     * @return the decision; {@link Decision#isDecided()} is true once the leader reached the confidence level
+     */
+    public Decision evaluate(CriterionOfWinner criterion, Map<Long, Evidence> evidence) {
+        return evaluate(criterion, evidence, ThreadLocalRandom.current());
+    }
+
+    Decision evaluate(CriterionOfWinner criterion, Map<Long, Evidence> evidence, RandomGenerator random) {
+        Long[] ids = evidence.keySet().toArray(new Long[0]);
+        Evidence[] options = new Evidence[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            options[i] = evidence.get(ids[i]);
+        }
+
+        int[] wins = new int[ids.length];
+        if (ids.length == 1) {
+            wins[0] = samples;
+        } else if (ids.length > 1) {
+            double[] draws = new double[ids.length];
+            for (int s = 0; s < samples; s++) {
+                int best = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    draws[i] = draw(criterion, options[i], random);
+                    if (draws[i] > draws[best]) {
+                        best = i;
+                    }
+                }
+                wins[best]++;
+            }
+        }
+
+        Map<Long, Double> probabilities = new HashMap<>();
+        Long leader = null;
+        double leaderProbability = 0;
+        for (int i = 0; i < ids.length; i++) {
+            double probability = (double) wins[i] / samples;
+            probabilities.put(ids[i], probability);
+            if (leader == null || probability > leaderProbability) {
+                leader = ids[i];
+                leaderProbability = probability;
+            }
+        }
+        return new Decision(leader, leaderProbability, probabilities, ids.length > 1 && leaderProbability >= confidence);
+    }
+
+    /**
+     * @param decision a decision
+     * @param optionId an option of the decision
+     * @return true if the option is so unlikely to win that it need not be measured again
+     */
+    public boolean isClearLoser(Decision decision, Long optionId) {
+        return !optionId.equals(decision.getLeaderId()) && decision.getProbabilities().getOrDefault(optionId, 1.0) < dropBelow;
+    }
+
+    private double draw(CriterionOfWinner criterion, Evidence evidence, RandomGenerator random) {
+        double hours = PRIOR_HOURS + evidence.getExposureMillis() / MILLIS_PER_HOUR;
+        return switch (criterion) {
+            case VIEWS -> gamma(PRIOR_SHAPE + evidence.getViews(), random) / hours;
+            case WATCH_TIME -> gamma(PRIOR_SHAPE + evidence.getWatchMinutes(), random) / hours;
+            case AVD -> {
+                // view durations are roughly exponential, so their standard deviation is about their mean
+                double mean = evidence.getAverageViewDuration();
+                double sd = evidence.getViews() > 0 ? Math.max(mean, 1.0) / Math.sqrt(evidence.getViews()) : 1e6;
+                yield mean + sd * random.nextGaussian();
+            }
+            default -> 0;
+        };
+    }
+
+    /**
+     * Draws from Gamma(shape, 1) with the Marsaglia-Tsang method.
+     */
+    private static double gamma(double shape, RandomGenerator random) {
+        if (shape < 1) {
+            return gamma(shape + 1, random) * Math.pow(random.nextDouble(), 1 / shape);
+        }
+        double d = shape - 1.0 / 3;
+        double c = 1 / Math.sqrt(9 * d);
+        while (true) {
+            double x = random.nextGaussian();
+            double v = 1 + c * x;
+            if (v <= 0) {
+                continue;
+            }
+            v = v * v * v;
+            double u = random.nextDouble();
+            if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+                return d * v;
+            }
+        }
+    }
+
+    /**
+     * Stats of one option summed over all of its measured slots.
+     */
+    public static final class Evidence {
+        private long views;
+        private long watchMinutes;
+        private double viewSeconds;
+        private long exposureMillis;
+
+        /**
+         * Adds the stats of one slot.
+         *
+         * @param stats          the stats measured in the slot
+         * @param exposureMillis how long the option was live in the slot
+         */
+        public void add(ThumbnailStats stats, long exposureMillis) {
+            long slotViews = stats.getViews() != null ? stats.getViews() : 0;
+            views += slotViews;
+            watchMinutes += stats.getTotalWatchTime() != null ? stats.getTotalWatchTime() : 0;
+            viewSeconds += slotViews * (stats.getAverageViewDuration() != null ? stats.getAverageViewDuration() : 0);
+            this.exposureMillis += exposureMillis;
+        }
+
+        public long getViews() {
+            return views;
+        }
+
+        public long getWatchMinutes() {
+            return watchMinutes;
+        }
+
+        public double getAverageViewDuration() {
+            return views > 0 ? viewSeconds / views : 0;
+        }
+
+        public long getExposureMillis() {
+            return exposureMillis;
+        }
+    }
+
+    /**
+     * Outcome of an evaluation: the leading option and the win probability of every option.
+     */
+    public static final class Decision {
+        private final Long leaderId;
+        private final double confidence;
+        private final Map<Long, Double> probabilities;
+        private final boolean decided;
+
+        private Decision(Long leaderId, double confidence, Map<Long, Double> probabilities, boolean decided) {
+            this.leaderId = leaderId;
+            this.confidence = confidence;
+            this.probabilities = probabilities;
+            this.decided = decided;
+        }
+
+        public Long getLeaderId() {
+            return leaderId;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        public Map<Long, Double> getProbabilities() {
+            return probabilities;
+        }
+
+        public boolean isDecided() {
+            return decided;
+        }
+    }
+}
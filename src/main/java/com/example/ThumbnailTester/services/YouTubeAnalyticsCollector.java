@@ -0,0 +1,163 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.dto.ThumbnailQueueItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects analytics for all running tests of a channel with one report query per polling tick.
+ * Requests arriving within {@code youtube.analytics.batch-window-ms} for the same user and start date
+ * are merged into a {@code dimensions=video&filters=video==a,b,c} query, and the returned rows are
+ * handed back to each {@link ThumbnailQueueItem} by video ID.
+ * A throttled query fails every request of the batch with the {@link RetryableApiException},
+ * so the tests can retry later instead of recording empty stats.
+ */
+@Service
+public class YouTubeAnalyticsCollector {
+    private static final Logger log = LoggerFactory.getLogger(YouTubeAnalyticsCollector.class);
+
+    @Value("${youtube.analytics.batch-window-ms:2000}")
+    private long batchWindowMillis;
+
+    @Value("${youtube.analytics.max-videos-per-query:200}")
+    private int maxVideosPerQuery;
+
+    @Autowired
+    private YouTubeAnalyticsService youTubeAnalyticsService;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private Executor executor;
+
+    // guarded by itself
+    private final Map<String, List<PendingRequest>> pending = new HashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * Queues a stats request for the next report query of the item's channel.
+     *
+     * @param user      the channel owner
+     * @param startDate the day the item's slot started
+     * @param item      the item whose option receives the stats
+     * @param baseline  totals of the video when the slot started measuring, or null to take that snapshot
+     * @return the stats of the option in the slot, or the video totals if there is no baseline, completed once the
+     * batched query returned; null if the query failed for a reason retrying cannot fix
+     */
+    public CompletableFuture<ThumbnailStats> collect(UserData user, LocalDate startDate, ThumbnailQueueItem item, ThumbnailStats baseline) {
+        requests.incrementAndGet();
+        PendingRequest request = new PendingRequest(user, startDate, item, baseline);
+        String key = user.getGoogleId() + "|" + startDate;
+
+        boolean first;
+        synchronized (pending) {
+            List<PendingRequest> batch = pending.computeIfAbsent(key, k -> new ArrayList<>());
+            first = batch.isEmpty();
+            batch.add(request);
+        }
+        if (first) {
+            taskScheduler.schedule(() -> {
+                try {
+                    executor.execute(() -> flush(key));
+                } catch (RejectedExecutionException e) {
+                    flush(key);
+                }
+            }, Instant.now().plusMillis(batchWindowMillis));
+        }
+        return request.result;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    private void flush(String key) {
+        List<PendingRequest> batch;
+        synchronized (pending) {
+            batch = pending.remove(key);
+        }
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+
+        PendingRequest head = batch.get(0);
+        List<String> videoIds = new ArrayList<>(new LinkedHashSet<>(batch.stream()
+                .map(r -> youTubeAnalyticsService.extractVideoIdFromUrl(r.item.getVideoUrl()))
+                .toList()));
+
+        Map<String, ThumbnailStats> statsByVideo = new HashMap<>();
+        IOException failure = null;
+        for (int from = 0; from < videoIds.size() && failure == null; from += maxVideosPerQuery) {
+            List<String> chunk = videoIds.subList(from, Math.min(from + maxVideosPerQuery, videoIds.size()));
+            try {
+                queries.incrementAndGet();
+                statsByVideo.putAll(youTubeAnalyticsService.fetchVideoStats(head.user, head.startDate, chunk));
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error fetching YouTube Analytics data", e);
+                failure = new IOException(e.getMessage(), e);
+            }
+        }
+        log.info("Collected analytics for {} requests on {} videos of user {}", batch.size(), videoIds.size(),
+                head.user.getGoogleId());
+
+        if (failure != null && !(failure instanceof RetryableApiException)) {
+            youTubeAnalyticsService.reportFailure(head.user, failure);
+        }
+        for (PendingRequest request : batch) {
+            try {
+                if (failure instanceof RetryableApiException) {
+                    request.result.completeExceptionally(failure);
+                    continue;
+                }
+                String videoId = youTubeAnalyticsService.extractVideoIdFromUrl(request.item.getVideoUrl());
+                request.result.complete(failure != null ? null
+                        : youTubeAnalyticsService.applyStats(request.user, request.item, request.baseline, statsByVideo.get(videoId)));
+            } catch (Exception e) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class PendingRequest {
+        private final UserData user;
+        private final LocalDate startDate;
+        private final ThumbnailQueueItem item;
+        private final ThumbnailStats baseline;
+        private final CompletableFuture<ThumbnailStats> result = new CompletableFuture<>();
+
+        private PendingRequest(UserData user, LocalDate startDate, ThumbnailQueueItem item, ThumbnailStats baseline) {
+            this.user = user;
+            this.startDate = startDate;
+            this.item = item;
+            this.baseline = baseline;
+        }
+    }
+}
@@ -3,26 +3,23 @@ package com.example.ThumbnailTester.services;
 import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
 import com.example.ThumbnailTester.data.user.UserData;
 import com.example.ThumbnailTester.dto.ThumbnailQueueItem;
-import com.example.ThumbnailTester.util.AESUtil;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.example.ThumbnailTester.util.AnalyticsReport;
+import com.example.ThumbnailTester.util.AnalyticsReportDecoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 @Service
 public class YouTubeAnalyticsService {
@@ -30,165 +27,175 @@ public class YouTubeAnalyticsService {
 
     private final SimpMessagingTemplate messagingTemplate;
     @Autowired
-    private AESUtil aesUtil;
+    private AccessTokenService accessTokenService;
 
-    @Value("${youtube.client.id}")
-    private String clientId;
+    @Autowired
+    private OkHttpClient httpClient;
 
-    @Value("${youtube.client.secret}")
-    private String clientSecret;
+    @Autowired
+    private QuotaLedger quotaLedger;
 
-    @Value("${application.name}")
-    private String applicationName;
+    @Autowired
+    private ObjectMapper objectMapper;
 
-    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    // columnar buffer reused by every report query of a thread
+    private static final ThreadLocal<AnalyticsReport> REPORT_BUFFER = ThreadLocal.withInitial(AnalyticsReport::new);
 
     private static final String YOUTUBE_ANALYTICS_API_URL = "https://youtubeanalytics.googleapis.com/v2/reports";
-    private static final String OAUTH_TOKEN_URL = "https://oauth2.googleapis.com/token";
+    private static final String METRICS = "views,averageViewDuration,comments,shares,likes,subscribersGained,averageViewPercentage,estimatedMinutesWatched";
 
-    private static final String TOPIC_ERROR = "/topic/thumbnail/error";
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
 
-    private static final String ERR_NO_ACTIVE_THUMBNAIL = "No active thumbnail found for user";
     private static final String ERR_FAILED_REFRESH_TOKEN = "Failed to refresh access token";
     private static final String ERR_NO_DATA_FOR_VIDEO = "No data available for video";
     private static final String ERR_RETRIEVING_ANALYTICS = "Error retrieving YouTube Analytics data: ";
-    private static final String ERR_FAILED_ACCESS_TOKEN = "Failed to obtain access token";
 
     public YouTubeAnalyticsService(SimpMessagingTemplate messagingTemplate) {
         this.messagingTemplate = messagingTemplate;
     }
 
-    public ThumbnailStats getStats(UserData user, LocalDate startDate, ThumbnailQueueItem thumbnailQueueItem) {
-        if (thumbnailQueueItem == null) {
-            sendError(ERR_NO_ACTIVE_THUMBNAIL);
-            return null;
+    /**
+     * Fetches the totals of several videos of the user's channel with a single report query,
+     * using {@code dimensions=video} and a {@code video==a,b,c} filter.
+     *
+     * @param user      the channel owner
+     * @param startDate first day of the report
+     * @param videoIds  the videos to report on
+     * @return totals since the start date by video ID; videos without data are missing
+     * @throws RetryableApiException if the query was throttled, hit a server error or exceeded the quota
+     * @throws IOException           if the token cannot be obtained or the request fails
+     */
+    public Map<String, ThumbnailStats> fetchVideoStats(UserData user, LocalDate startDate, Collection<String> videoIds) throws IOException {
+        String accessToken = accessTokenService.getAccessToken(user);
+        if (accessToken == null) {
+            throw new IOException(ERR_FAILED_REFRESH_TOKEN);
         }
-
-        try {
-            String videoId = extractVideoIdFromUrl(thumbnailQueueItem.getVideoUrl());
-            String accessToken = refreshAccessToken(aesUtil.decrypt(user.getRefreshToken()));
-            if (accessToken == null) {
-                sendError(ERR_FAILED_REFRESH_TOKEN);
-                return fillEmptyStats(new ThumbnailStats(), thumbnailQueueItem);
-            }
-
-            String uri = String.format(
-                    "%s?ids=channel==MINE&startDate=%s&endDate=%s&metrics=views,averageViewDuration,comments,shares,likes,subscribersGained,averageViewPercentage,estimatedMinutesWatched&dimensions=video&filters=video==%s",
-                    YOUTUBE_ANALYTICS_API_URL, startDate, LocalDate.now(), videoId);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(uri))
-                    .header("Authorization", "Bearer " + accessToken)
-                    .GET()
-                    .build();
-
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode responseJson = mapper.readTree(response.body());
-
-            JsonNode rows = responseJson.path("rows");
-            if (rows.isEmpty()) {
-                sendError(ERR_NO_DATA_FOR_VIDEO);
-                ThumbnailStats emptyStats = new ThumbnailStats();
-                fillEmptyStats(emptyStats, thumbnailQueueItem);
-                return emptyStats;
-            }
-
-            JsonNode row = rows.get(0);
-
-            Integer views = toInt(row.path(0));
-            Double averageViewDuration = toDouble(row.path(1));
-            Integer comments = toInt(row.path(2));
-            Integer shares = toInt(row.path(3));
-            Integer likes = toInt(row.path(4));
-            Integer subscribersGained = toInt(row.path(5));
-            Double averageViewPercentage = toDouble(row.path(6));
-            Long totalWatchTime = toLong(row.path(7));
-
-            ThumbnailStats oldStats = thumbnailQueueItem.getImageOption().getThumbnailStats();
-            if (oldStats == null) {
-                oldStats = fillEmptyStats(new ThumbnailStats(), thumbnailQueueItem);
+        quotaLedger.acquire(user, QuotaLedger.Operation.REPORTS_QUERY);
+
+        String uri = String.format(
+                "%s?ids=channel==MINE&startDate=%s&endDate=%s&metrics=%s&dimensions=video&filters=video==%s&maxResults=%d",
+                YOUTUBE_ANALYTICS_API_URL, startDate, LocalDate.now(), METRICS, String.join(",", videoIds), videoIds.size());
+
+        Request request = new Request.Builder()
+                .url(uri)
+                .header("Authorization", "Bearer " + accessToken)
+                .get()
+                .build();
+
+        AnalyticsReport report = REPORT_BUFFER.get();
+        int status;
+        long retryAfterMillis;
+        try (Response response = httpClient.newCall(request).execute()) {
+            status = response.code();
+            retryAfterMillis = retryAfterMillis(response.header("Retry-After"));
+            if (status == 401) {
+                accessTokenService.invalidate(user);
             }
-
-            ThumbnailStats newStats = new ThumbnailStats();
-            if (oldStats != null) {
-                newStats.setId(oldStats.getId());
-            }
-            newStats.setViews(views);
-            newStats.setAverageViewDuration(averageViewDuration);
-            newStats.setComments(comments);
-            newStats.setShares(shares);
-            newStats.setLikes(likes);
-            newStats.setSubscribersGained(subscribersGained);
-            newStats.setAverageViewPercentage(averageViewPercentage);
-            newStats.setTotalWatchTime(totalWatchTime);
-
-            ThumbnailStats currentStats = calculateStatsDifference(newStats, oldStats);
-            thumbnailQueueItem.getImageOption().setThumbnailStats(currentStats);
-
-            return currentStats;
-
-        } catch (IOException | InterruptedException e) {
-            sendError(ERR_RETRIEVING_ANALYTICS + e.getMessage());
-            log.error("Error fetching YouTube Analytics data", e);
-        } catch (Exception e) {
-            log.error("Error decoding refresh token");
-            throw new RuntimeException(e);
+            new AnalyticsReportDecoder(objectMapper.getFactory()).decode(response.body().byteStream(), report);
+        }
+        if (RetryableApiException.isRetryableStatus(status)) {
+            throw new RetryableApiException(report.getErrorMessage() != null ? report.getErrorMessage() : "HTTP " + status,
+                    status, retryAfterMillis);
+        }
+        if (report.getErrorMessage() != null) {
+            throw new IOException(report.getErrorMessage());
         }
 
-        ThumbnailStats emptyStats = new ThumbnailStats();
-        fillEmptyStats(emptyStats, thumbnailQueueItem);
-        return emptyStats;
+        int video = report.columnIndex("video");
+        int views = report.columnIndex("views");
+        int averageViewDuration = report.columnIndex("averageViewDuration");
+        int comments = report.columnIndex("comments");
+        int shares = report.columnIndex("shares");
+        int likes = report.columnIndex("likes");
+        int subscribersGained = report.columnIndex("subscribersGained");
+        int averageViewPercentage = report.columnIndex("averageViewPercentage");
+        int estimatedMinutesWatched = report.columnIndex("estimatedMinutesWatched");
+
+        Map<String, ThumbnailStats> statsByVideo = new HashMap<>();
+        for (int row = 0; row < report.getRowCount(); row++) {
+            ThumbnailStats stats = new ThumbnailStats();
+            stats.setViews(toInt(report, row, views));
+            stats.setAverageViewDuration(toDouble(report, row, averageViewDuration));
+            stats.setComments(toInt(report, row, comments));
+            stats.setShares(toInt(report, row, shares));
+            stats.setLikes(toInt(report, row, likes));
+            stats.setSubscribersGained(toInt(report, row, subscribersGained));
+            stats.setAverageViewPercentage(toDouble(report, row, averageViewPercentage));
+            stats.setTotalWatchTime(toLong(report, row, estimatedMinutesWatched));
+            statsByVideo.put(report.getString(row, video), stats);
+        }
+        return statsByVideo;
     }
 
-    public String refreshAccessToken(String refreshToken) {
+    private static long retryAfterMillis(String retryAfter) {
         try {
-            log.info("Refreshing access token");
-            String requestBody = "client_id=" + clientId
-                    + "&client_secret=" + clientSecret
-                    + "&refresh_token=" + URLEncoder.encode(refreshToken, StandardCharsets.UTF_8)
-                    + "&grant_type=refresh_token";
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(OAUTH_TOKEN_URL))
-                    .header("Content-Type", "application/x-www-form-urlencoded")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            log.info("Received token refresh response: {}", response.body());
-
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode jsonNode = mapper.readTree(response.body());
-
-            if (jsonNode.has("access_token")) {
-                return jsonNode.get("access_token").asText();
-            } else {
-                log.error(ERR_FAILED_ACCESS_TOKEN + ": {}", response.body());
-                return null;
-            }
-        } catch (IOException | InterruptedException e) {
-            log.error("Exception during token refresh: {}", e.getMessage(), e);
-            return null;
+            return retryAfter != null ? Long.parseLong(retryAfter.trim()) * 1000L : 0L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Turns the totals of the item's video into the stats of its option in the current slot: what the totals
+     * grew by since the slot started measuring. The report covers whole days, so the totals also hold the views
+     * of the day before the option went live and of the options measured earlier that day.
+     *
+     * @param user               the channel owner, who is told if the report had no data
+     * @param thumbnailQueueItem the item the report was requested for
+     * @param baseline           totals of the video when the slot started measuring, or null to take that snapshot
+     * @param totals             totals of the video since the slot started, or null if the report had no row for it
+     * @return the stats of the option in the slot, or the totals themselves if there is no baseline yet
+     */
+    public ThumbnailStats applyStats(UserData user, ThumbnailQueueItem thumbnailQueueItem, ThumbnailStats baseline, ThumbnailStats totals) {
+        if (totals == null) {
+            sendError(user, ERR_NO_DATA_FOR_VIDEO);
+            totals = fillEmptyStats(new ThumbnailStats(), thumbnailQueueItem);
         }
+        if (baseline == null) {
+            return totals;
+        }
+        ThumbnailStats slotStats = calculateStatsDifference(totals, baseline);
+        slotStats.setImageOption(thumbnailQueueItem.getImageOption());
+        return slotStats;
     }
 
+    /**
+     * Reports a failed analytics request to the user.
+     *
+     * @param user the channel owner
+     * @param e    the failure
+     */
+    public void reportFailure(UserData user, IOException e) {
+        sendError(user, ERR_RETRIEVING_ANALYTICS + e.getMessage());
+        log.error("Error fetching YouTube Analytics data", e);
+    }
+
+    /**
+     * Stats of the interval between two reports of the same video and start date. Averages are per view,
+     * so the interval's average is taken over the views that came in between.
+     */
     public ThumbnailStats calculateStatsDifference(ThumbnailStats later, ThumbnailStats earlier) {
         ThumbnailStats diff = new ThumbnailStats();
         diff.setViews(safeSubtract(later.getViews(), earlier.getViews()));
-        diff.setAverageViewDuration(later.getAverageViewDuration());
+        diff.setAverageViewDuration(averageOfInterval(later.getAverageViewDuration(), later.getViews(),
+                earlier.getAverageViewDuration(), earlier.getViews(), diff.getViews()));
         diff.setComments(safeSubtract(later.getComments(), earlier.getComments()));
         diff.setShares(safeSubtract(later.getShares(), earlier.getShares()));
         diff.setLikes(safeSubtract(later.getLikes(), earlier.getLikes()));
         diff.setSubscribersGained(safeSubtract(later.getSubscribersGained(), earlier.getSubscribersGained()));
-        diff.setAverageViewPercentage(later.getAverageViewPercentage());
+        diff.setAverageViewPercentage(averageOfInterval(later.getAverageViewPercentage(), later.getViews(),
+                earlier.getAverageViewPercentage(), earlier.getViews(), diff.getViews()));
         diff.setTotalWatchTime(safeSubtractLong(later.getTotalWatchTime(), earlier.getTotalWatchTime()));
         return diff;
     }
 
+    private Double averageOfInterval(Double laterAverage, Integer laterViews, Double earlierAverage, Integer earlierViews, Integer views) {
+        if (laterAverage == null || views == null) return laterAverage;
+        if (views == 0) return 0.0;
+        double earlierSum = earlierAverage != null && earlierViews != null ? earlierAverage * earlierViews : 0;
+        return Math.max(0, (laterAverage * laterViews - earlierSum) / views);
+    }
+
     private Integer safeSubtract(Integer a, Integer b) {
         if (a == null || b == null) return null;
         return Math.max(0, a - b);
@@ -199,26 +206,26 @@ public class YouTubeAnalyticsService {
         return Math.max(0L, a - b);
     }
 
-    private String extractVideoIdFromUrl(String url) {
+    String extractVideoIdFromUrl(String url) {
         if (url.contains("v=")) {
             return url.split("v=")[1].split("&")[0];
         }
         return url;
     }
 
-    private Integer toInt(JsonNode node) {
-        if (node == null || node.isNull()) return null;
-        return node.asInt();
+    private Integer toInt(AnalyticsReport report, int row, int column) {
+        if (report.isNull(row, column)) return null;
+        return (int) report.getLong(row, column);
     }
 
-    private Double toDouble(JsonNode node) {
-        if (node == null || node.isNull()) return null;
-        return node.asDouble();
+    private Double toDouble(AnalyticsReport report, int row, int column) {
+        if (report.isNull(row, column)) return null;
+        return report.getDouble(row, column);
     }
 
-    private Long toLong(JsonNode node) {
-        if (node == null || node.isNull()) return null;
-        return node.asLong();
+    private Long toLong(AnalyticsReport report, int row, int column) {
+        if (report.isNull(row, column)) return null;
+        return report.getLong(row, column);
     }
 
     private ThumbnailStats fillEmptyStats(ThumbnailStats stats, ThumbnailQueueItem thumbnailQueueItem) {
@@ -235,8 +242,8 @@ public class YouTubeAnalyticsService {
         return stats;
     }
 
-    private void sendError(String message) {
+    private void sendError(UserData user, String message) {
         log.error(message);
-        messagingTemplate.convertAndSend(TOPIC_ERROR, message);
+        messagingTemplate.convertAndSendToUser(user.getGoogleId(), QUEUE_ERROR, message);
     }
 }
@@ -0,0 +1,150 @@
+package com.example.ThumbnailTester.services;
+
+import com.google.api.services.youtube.model.Video;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of YouTube metadata used by {@link YouTubeService}:
+ * the snippet of each video and the channel ID of each user.
+ * Entries younger than the TTL are served directly; older ones are kept together with
+ * their ETag so the next request can be sent with If-None-Match and answered with 304.
+ */
+@Service
+public class YouTubeMetadataCache {
+    @Value("${youtube.metadata.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private final Map<String, Entry<Video>> videos;
+    private final Map<String, Entry<String>> channelIds;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    public YouTubeMetadataCache(@Value("${youtube.metadata.max-videos:10000}") int maxVideos,
+                                @Value("${youtube.metadata.max-channels:10000}") int maxChannels) {
+        this.videos = lruMap(maxVideos);
+        this.channelIds = lruMap(maxChannels);
+    }
+
+    /**
+     * Returns the cached video entry, fresh or stale, or null if the video was never fetched.
+     *
+     * @param videoId the ID of the video
+     * @return the cache entry or null
+     */
+    public Entry<Video> getVideo(String videoId) {
+        synchronized (videos) {
+            return videos.get(videoId);
+        }
+    }
+
+    public void putVideo(String videoId, Video video, String etag) {
+        synchronized (videos) {
+            videos.put(videoId, new Entry<>(video.clone(), etag, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Drops the cached snippet of a video, e.g. after we changed it ourselves.
+     *
+     * @param videoId the ID of the video
+     */
+    public void invalidateVideo(String videoId) {
+        synchronized (videos) {
+            videos.remove(videoId);
+        }
+    }
+
+    public Entry<String> getChannelId(String googleId) {
+        synchronized (channelIds) {
+            return channelIds.get(googleId);
+        }
+    }
+
+    public void putChannelId(String googleId, String channelId, String etag) {
+        synchronized (channelIds) {
+            channelIds.put(googleId, new Entry<>(channelId, etag, System.currentTimeMillis()));
+        }
+    }
+
+    public void invalidateChannelId(String googleId) {
+        synchronized (channelIds) {
+            channelIds.remove(googleId);
+        }
+    }
+
+    /**
+     * Checks whether an entry can be served without contacting YouTube.
+     *
+     * @param entry the cache entry, may be null
+     * @return true if the entry exists and is younger than the TTL
+     */
+    public boolean isFresh(Entry<?> entry) {
+        return entry != null && System.currentTimeMillis() - entry.fetchedAtMillis < ttlSeconds * 1000L;
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Marks an entry as revalidated after YouTube answered 304 Not Modified.
+     *
+     * @param entry the entry that was confirmed unchanged
+     */
+    public void recordNotModified(Entry<?> entry) {
+        notModified.incrementAndGet();
+        entry.fetchedAtMillis = System.currentTimeMillis();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    private static <T> Map<String, Entry<T>> lruMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static final class Entry<T> {
+        private final T value;
+        private final String etag;
+        private volatile long fetchedAtMillis;
+
+        private Entry(T value, String etag, long fetchedAtMillis) {
+            this.value = value;
+            this.etag = etag;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
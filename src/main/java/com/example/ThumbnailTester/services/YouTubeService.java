@@ -2,12 +2,15 @@ package com.example.ThumbnailTester.services;
 
 import com.example.ThumbnailTester.data.thumbnail.ThumbnailData;
 import com.example.ThumbnailTester.data.user.UserData;
-import com.example.ThumbnailTester.util.AESUtil;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
 import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.*;
@@ -19,7 +22,6 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.GeneralSecurityException;
 import java.util.Optional;
 
 @Slf4j
@@ -27,8 +29,10 @@ import java.util.Optional;
 public class YouTubeService {
     private static final String IMAGE_MIME_TYPE = "image/jpeg";
     private static final String SNIPPET_PART = "snippet";
-    private static final String TOPIC_SUCCESS = "/topic/thumbnail/success";
-    private static final String TOPIC_ERROR = "/topic/thumbnail/error";
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final String QUEUE_SUCCESS = "/queue/thumbnail/success";
+    private static final String QUEUE_ERROR = "/queue/thumbnail/error";
     private static final String ERR_INVALID_CREDENTIALS_UPDATE_TITLE = "Invalid credentials for updating video title.";
     private static final String ERR_VIDEO_NOT_FOUND = "Video with id %s not found.";
     private static final String ERR_ERROR_UPDATING_TITLE = "Error updating video title: %s";
@@ -37,7 +41,6 @@ public class YouTubeService {
     private static final String ERR_ERROR_GETTING_CHANNEL_ID = "Error getting user channel ID: %s";
     private static final String ERR_INVALID_CREDENTIALS_GET_OWNER_CHANNEL_ID = "Invalid credentials for getting video owner channel ID.";
     private static final String ERR_ERROR_GETTING_OWNER_CHANNEL_ID = "Error getting video owner channel ID: %s";
-    private static final String ERR_ERROR_BUILDING_CREDENTIAL = "Error building YouTube service: %s";
     private static final String ERR_VIDEO_URL_EMPTY = "Video URL is empty or null";
     private static final String ERR_INVALID_YOUTUBE_URL_FORMAT = "Invalid YouTube URL format: %s";
     private static final String ERR_INVALID_CREDENTIALS_GET_TITLE = "Invalid credentials for getting video title.";
@@ -54,9 +57,13 @@ public class YouTubeService {
     private String applicationName;
 
     @Autowired
-    private SupaBaseImageService supaBaseImageService;
+    private AccessTokenService accessTokenService;
     @Autowired
-    private AESUtil aesUtil;
+    private HttpTransport httpTransport;
+    @Autowired
+    private YouTubeMetadataCache metadataCache;
+    @Autowired
+    private QuotaLedger quotaLedger;
 
     private final SimpMessagingTemplate messagingTemplate;
 
@@ -72,6 +79,19 @@ public class YouTubeService {
      * @throws IOException if upload fails
      */
     public void uploadThumbnail(ThumbnailData thumbnailData, File thumbnailFile) throws IOException {
+        uploadThumbnail(thumbnailData, thumbnailFile, IMAGE_MIME_TYPE);
+    }
+
+    /**
+     * Uploads a thumbnail image to YouTube with the MIME type of its actual format.
+     *
+     * @param thumbnailData data of the thumbnail
+     * @param thumbnailFile file containing the thumbnail image
+     * @param mimeType      MIME type of the image
+     * @throws RetryableApiException if YouTube throttled the upload or the quota is used up
+     * @throws IOException           if upload fails
+     */
+    public void uploadThumbnail(ThumbnailData thumbnailData, File thumbnailFile, String mimeType) throws IOException {
         log.info("Uploading thumbnail started");
         Credential credential = buildCredentialFromRefreshToken(thumbnailData.getUser());
         if (credential == null) {
@@ -80,29 +100,20 @@ public class YouTubeService {
 
         YouTube youTube = buildYouTubeClient(credential);
 
-        FileContent mediaContent = new FileContent(IMAGE_MIME_TYPE, thumbnailFile);
+        FileContent mediaContent = new FileContent(mimeType, thumbnailFile);
         log.debug("File content prepared for upload: {}", mediaContent);
 
         YouTube.Thumbnails.Set thumbnailSet = youTube.thumbnails()
                 .set(getVideoIdFromUrl(thumbnailData.getVideoUrl()), mediaContent);
 
-        try {
-            ThumbnailSetResponse response = thumbnailSet.execute();
-            log.debug("Thumbnail upload response: {}", response);
-
-            if (response == null || response.getItems() == null || response.getItems().isEmpty()) {
-                throw new IOException("Thumbnail upload failed: No response items found.");
-            }
+        ThumbnailSetResponse response = execute(thumbnailSet, thumbnailData.getUser(), QuotaLedger.Operation.THUMBNAILS_SET);
+        log.debug("Thumbnail upload response: {}", response);
 
-            messagingTemplate.convertAndSend(TOPIC_SUCCESS, "Thumbnail uploaded successfully.");
-            supaBaseImageService.deleteFileWithPath(thumbnailFile);
-        }catch (GoogleJsonResponseException e){
-            if (e.getStatusCode() == 429) {
-                throw e;
-            } else {
-                throw new IOException();
-            }
+        if (response == null || response.getItems() == null || response.getItems().isEmpty()) {
+            throw new IOException("Thumbnail upload failed: No response items found.");
         }
+
+        send(thumbnailData.getUser(), QUEUE_SUCCESS, "Thumbnail uploaded successfully.");
     }
 
     /**
@@ -111,21 +122,22 @@ public class YouTubeService {
      * @param user     the user performing the update
      * @param videoId  the ID of the video to update
      * @param newTitle the new title to set
+     * @throws RetryableApiException if YouTube throttled the update or the quota is used up
      */
-    public void updateVideoTitle(UserData user, String videoId, String newTitle) {
+    public void updateVideoTitle(UserData user, String videoId, String newTitle) throws RetryableApiException {
         try {
             log.info("Updating video title. videoId={}, newTitle={}", videoId, newTitle);
             Credential credential = buildCredentialFromRefreshToken(user);
             if (credential == null) {
-                sendError(ERR_INVALID_CREDENTIALS_UPDATE_TITLE);
+                sendError(user, ERR_INVALID_CREDENTIALS_UPDATE_TITLE);
                 return;
             }
 
             YouTube youtube = buildYouTubeClient(credential);
 
-            Optional<Video> videoOpt = getVideoById(youtube, videoId);
+            Optional<Video> videoOpt = getVideoById(youtube, user, videoId, true);
             if (videoOpt.isEmpty()) {
-                sendError(String.format(ERR_VIDEO_NOT_FOUND, videoId));
+                sendError(user, String.format(ERR_VIDEO_NOT_FOUND, videoId));
                 return;
             }
 
@@ -136,16 +148,19 @@ public class YouTubeService {
             snippet.setTitle(newTitle);
             video.setSnippet(snippet);
 
-            Video updatedVideo = youtube.videos().update(SNIPPET_PART, video).execute();
+            Video updatedVideo = execute(youtube.videos().update(SNIPPET_PART, video), user, QuotaLedger.Operation.VIDEOS_UPDATE);
+            metadataCache.invalidateVideo(videoId);
             log.info("Video title updated successfully to: {}", updatedVideo.getSnippet().getTitle());
-            messagingTemplate.convertAndSend(TOPIC_SUCCESS, "Video title updated successfully.");
+            send(user, QUEUE_SUCCESS, "Video title updated successfully.");
 
+        } catch (RetryableApiException e) {
+            throw e;
         } catch (IOException e) {
             log.error("IOException while updating video title", e);
-            sendError(String.format(ERR_ERROR_UPDATING_TITLE, e.getMessage()));
+            sendError(user, String.format(ERR_ERROR_UPDATING_TITLE, e.getMessage()));
         } catch (Exception e) {
             log.error("Unexpected error while updating video title", e);
-            sendError(String.format(ERR_UNEXPECTED_ERROR_UPDATING_TITLE, e.getMessage()));
+            sendError(user, String.format(ERR_UNEXPECTED_ERROR_UPDATING_TITLE, e.getMessage()));
         }
     }
 
@@ -157,21 +172,27 @@ public class YouTubeService {
      * @return the channel ID of the video owner or null if not found
      */
     public String getVideoOwnerChannelId(UserData user, String videoId) {
+        YouTubeMetadataCache.Entry<Video> cached = metadataCache.getVideo(videoId);
+        if (metadataCache.isFresh(cached)) {
+            metadataCache.recordHit();
+            return cached.getValue().getSnippet().getChannelId();
+        }
+
         try {
             Credential credential = buildCredentialFromRefreshToken(user);
             if (credential == null) {
-                sendError(ERR_INVALID_CREDENTIALS_GET_OWNER_CHANNEL_ID);
+                sendError(user, ERR_INVALID_CREDENTIALS_GET_OWNER_CHANNEL_ID);
                 return null;
             }
 
             YouTube youtube = buildYouTubeClient(credential);
 
-            Optional<Video> videoOpt = getVideoById(youtube, videoId);
+            Optional<Video> videoOpt = getVideoById(youtube, user, videoId, false);
             return videoOpt.map(v -> v.getSnippet().getChannelId()).orElse(null);
 
         } catch (IOException e) {
             log.error("Error getting video owner channel ID", e);
-            sendError(String.format(ERR_ERROR_GETTING_OWNER_CHANNEL_ID, e.getMessage()));
+            sendError(user, String.format(ERR_ERROR_GETTING_OWNER_CHANNEL_ID, e.getMessage()));
             return null;
         }
     }
@@ -183,10 +204,16 @@ public class YouTubeService {
      * @return the channel ID or null if not found
      */
     public String getUserChannelId(UserData user) {
+        YouTubeMetadataCache.Entry<String> cached = metadataCache.getChannelId(user.getGoogleId());
+        if (metadataCache.isFresh(cached)) {
+            metadataCache.recordHit();
+            return cached.getValue();
+        }
+
         try {
             Credential credential = buildCredentialFromRefreshToken(user);
             if (credential == null) {
-                sendError(ERR_INVALID_CREDENTIALS_GET_CHANNEL_ID);
+                sendError(user, ERR_INVALID_CREDENTIALS_GET_CHANNEL_ID);
                 return null;
             }
 
@@ -194,70 +221,74 @@ public class YouTubeService {
 
             YouTube.Channels.List channelRequest = youtube.channels().list("id");
             channelRequest.setMine(true);
-            ChannelListResponse response = channelRequest.execute();
+            if (cached != null) {
+                channelRequest.setRequestHeaders(new HttpHeaders().setIfNoneMatch(cached.getEtag()));
+            }
+
+            ChannelListResponse response;
+            try {
+                response = execute(channelRequest, user, QuotaLedger.Operation.CHANNELS_LIST);
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() == HTTP_NOT_MODIFIED && cached != null) {
+                    metadataCache.recordNotModified(cached);
+                    return cached.getValue();
+                }
+                throw e;
+            }
+            metadataCache.recordMiss();
 
             if (response.getItems().isEmpty()) {
+                metadataCache.invalidateChannelId(user.getGoogleId());
                 return null;
             }
-            return response.getItems().get(0).getId();
+            String channelId = response.getItems().get(0).getId();
+            metadataCache.putChannelId(user.getGoogleId(), channelId, response.getEtag());
+            return channelId;
 
         } catch (IOException e) {
             log.error("Error getting user channel ID", e);
-            sendError(String.format(ERR_ERROR_GETTING_CHANNEL_ID, e.getMessage()));
+            sendError(user, String.format(ERR_ERROR_GETTING_CHANNEL_ID, e.getMessage()));
             return null;
         }
     }
 
     /**
-     * Builds a Credential object from the user's refresh token.
+     * Builds a Credential object carrying the user's cached access token.
      *
      * @param user the user
      * @return Credential or null if failed
      */
     public Credential buildCredentialFromRefreshToken(UserData user) {
-        try {
-            Credential credential = new GoogleCredential.Builder()
-                    .setTransport(GoogleNetHttpTransport.newTrustedTransport())
-                    .setJsonFactory(JacksonFactory.getDefaultInstance())
-                    .setClientSecrets(clientId, clientSecret)
-                    .build()
-                    .setRefreshToken(aesUtil.decrypt(user.getRefreshToken()));
-
-            boolean refreshed = credential.refreshToken();
-            if (refreshed) {
-                log.info("Successfully refreshed access token for user with GoogleId: {}", user.getGoogleId());
-                log.debug("New access token: {}", credential.getAccessToken().substring(0,10));
-            } else {
-                log.warn("Failed to refresh access token for user with GoogleId: {}", user.getGoogleId());
-            }
-
-            return credential;
-
-        } catch (IOException | GeneralSecurityException e) {
-            log.error("Error building YouTube credential for user with GoogleId: {}", user.getGoogleId(), e);
-            sendError(String.format(ERR_ERROR_BUILDING_CREDENTIAL, e.getMessage()));
+        String accessToken = accessTokenService.getAccessToken(user);
+        if (accessToken == null) {
+            log.warn("Failed to obtain access token for user with GoogleId: {}", user.getGoogleId());
             return null;
-        } catch (Exception e) {
-            log.error("Error decoding refresh token");
-            throw new RuntimeException(e);
         }
+
+        return new GoogleCredential.Builder()
+                .setTransport(httpTransport)
+                .setJsonFactory(JacksonFactory.getDefaultInstance())
+                .setClientSecrets(clientId, clientSecret)
+                .build()
+                .setAccessToken(accessToken);
     }
 
     /**
-     * Extracts the video ID from a YouTube video URL.
+     * Extracts the video ID from a YouTube video URL. An invalid URL is only logged; the caller
+     * reports it to the user.
      *
      * @param videoUrl the full YouTube video URL
      * @return the video ID or null if the URL format is invalid
      */
     public String getVideoIdFromUrl(String videoUrl) {
         if (isBlank(videoUrl)) {
-            sendError(ERR_VIDEO_URL_EMPTY);
+            log.error(ERR_VIDEO_URL_EMPTY);
             return null;
         }
 
         int vIndex = videoUrl.indexOf("v=");
         if (vIndex < 0) {
-            sendError(String.format(ERR_INVALID_YOUTUBE_URL_FORMAT, videoUrl));
+            log.error(String.format(ERR_INVALID_YOUTUBE_URL_FORMAT, videoUrl));
             return null;
         }
 
@@ -277,15 +308,15 @@ public class YouTubeService {
         try {
             Credential credential = buildCredentialFromRefreshToken(user);
             if (credential == null) {
-                sendError(ERR_INVALID_CREDENTIALS_GET_TITLE);
+                sendError(user, ERR_INVALID_CREDENTIALS_GET_TITLE);
                 return null;
             }
 
             YouTube youtube = buildYouTubeClient(credential);
 
-            Optional<Video> videoOpt = getVideoById(youtube, videoId);
+            Optional<Video> videoOpt = getVideoById(youtube, user, videoId, true);
             if (videoOpt.isEmpty()) {
-                sendError(String.format(ERR_VIDEO_NOT_FOUND, videoId));
+                sendError(user, String.format(ERR_VIDEO_NOT_FOUND, videoId));
                 return null;
             }
 
@@ -293,11 +324,11 @@ public class YouTubeService {
 
         } catch (IOException e) {
             log.error("IOException while getting video title", e);
-            sendError(String.format(ERR_ERROR_GETTING_TITLE, e.getMessage()));
+            sendError(user, String.format(ERR_ERROR_GETTING_TITLE, e.getMessage()));
             return null;
         } catch (Exception e) {
             log.error("Unexpected error while getting video title", e);
-            sendError(String.format(ERR_UNEXPECTED_ERROR_GETTING_TITLE, e.getMessage()));
+            sendError(user, String.format(ERR_UNEXPECTED_ERROR_GETTING_TITLE, e.getMessage()));
             return null;
         }
     }
@@ -313,23 +344,104 @@ public class YouTubeService {
                 .build();
     }
 
-    private Optional<Video> getVideoById(YouTube youtube, String videoId) throws IOException {
+    /**
+     * Looks up a video through the metadata cache.
+     * A fresh entry is returned as is unless {@code revalidate} is set; otherwise the request carries
+     * the cached ETag so an unchanged video costs only a 304 response.
+     */
+    private Optional<Video> getVideoById(YouTube youtube, UserData user, String videoId, boolean revalidate) throws IOException {
         if (isBlank(videoId)) {
             return Optional.empty();
         }
+
+        YouTubeMetadataCache.Entry<Video> cached = metadataCache.getVideo(videoId);
+        if (!revalidate && metadataCache.isFresh(cached)) {
+            metadataCache.recordHit();
+            return Optional.of(cached.getValue().clone());
+        }
+
         YouTube.Videos.List videoRequest = youtube.videos().list(SNIPPET_PART);
         videoRequest.setId(videoId);
-        VideoListResponse response = videoRequest.execute();
+        if (cached != null) {
+            videoRequest.setRequestHeaders(new HttpHeaders().setIfNoneMatch(cached.getEtag()));
+        }
+
+        VideoListResponse response;
+        try {
+            response = execute(videoRequest, user, QuotaLedger.Operation.VIDEOS_LIST);
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() == HTTP_NOT_MODIFIED && cached != null) {
+                metadataCache.recordNotModified(cached);
+                return Optional.of(cached.getValue().clone());
+            }
+            throw e;
+        }
+        metadataCache.recordMiss();
 
         if (response.getItems().isEmpty()) {
+            metadataCache.invalidateVideo(videoId);
             return Optional.empty();
         }
-        return Optional.of(response.getItems().get(0));
+        Video video = response.getItems().get(0);
+        metadataCache.putVideo(videoId, video, response.getEtag());
+        return Optional.of(video);
+    }
+
+    /**
+     * Executes a request after charging its quota cost. Throttling and server errors become
+     * {@link RetryableApiException}; a {@code quotaExceeded} rejection blocks further calls until the daily reset.
+     * A 401 drops the cached access token, so the next call refreshes it.
+     */
+    private <T> T execute(AbstractGoogleClientRequest<T> request, UserData user, QuotaLedger.Operation operation) throws IOException {
+        quotaLedger.acquire(user, operation);
+        try {
+            return request.execute();
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() == HTTP_UNAUTHORIZED) {
+                accessTokenService.invalidate(user);
+            }
+            if (isQuotaExceeded(e)) {
+                quotaLedger.markExhausted(operation.getApi());
+                throw new QuotaExceededException(e.getStatusMessage(), quotaLedger.millisUntilReset());
+            }
+            if (RetryableApiException.isRetryableStatus(e.getStatusCode())) {
+                RetryableApiException retryable = new RetryableApiException(
+                        e.getDetails() != null ? e.getDetails().getMessage() : e.getStatusMessage(), e.getStatusCode(), retryAfterMillis(e));
+                retryable.initCause(e);
+                throw retryable;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isQuotaExceeded(GoogleJsonResponseException e) {
+        if (e.getStatusCode() != 403 || e.getDetails() == null || e.getDetails().getErrors() == null) {
+            return false;
+        }
+        for (GoogleJsonError.ErrorInfo error : e.getDetails().getErrors()) {
+            if ("quotaExceeded".equals(error.getReason()) || "dailyLimitExceeded".equals(error.getReason())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long retryAfterMillis(GoogleJsonResponseException e) {
+        String retryAfter = e.getHeaders() != null ? e.getHeaders().getFirstHeaderStringValue("Retry-After") : null;
+        try {
+            return retryAfter != null ? Long.parseLong(retryAfter.trim()) * 1000L : 0L;
+        } catch (NumberFormatException ignored) {
+            return 0L;
+        }
+    }
+
+    private void send(UserData user, String destination, String message) {
+        messagingTemplate.convertAndSendToUser(user.getGoogleId(), destination, message);
     }
 
-    private void sendError(String message) {
+    private void sendError(UserData user, String message) {
         log.error(message);
-        messagingTemplate.convertAndSend(TOPIC_ERROR, message);
+        send(user, QUEUE_ERROR, message);
     }
 
     private static boolean isBlank(String str) {
@@ -1,39 +1,206 @@
 package com.example.ThumbnailTester.util;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
+/**
+ * Encrypts refresh tokens with AES-GCM under a versioned key ID: {@code v1:<keyId>:<base64(iv | ciphertext | tag)>}.
+ * The key ID and version are authenticated as associated data, so several keys can be configured at once
+ * and the active one rotated without invalidating stored tokens.
+ * Values without that prefix are legacy AES/ECB ciphertexts under {@code key.aes}, as produced by the client,
+ * and are still decrypted; {@link #needsReEncryption} tells callers to rewrite them.
+ * Keys are parsed once at startup and each thread reuses its own {@link Cipher} instances.
+ */
 @Service
 public class AESUtil {
-    private static final String ALGORITHM = "AES";
+    private static final String LEGACY_TRANSFORMATION = "AES/ECB/PKCS5Padding";
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String VERSION = "v1";
+    private static final String DERIVED_KEY_ID = "0";
+    private static final Pattern KEY_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    // a pure-Java DRBG per thread; the default NativePRNG reads /dev/urandom under a global lock on every call
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(AESUtil::newRandom);
+    private static final ThreadLocal<Cipher> LEGACY_CIPHER = ThreadLocal.withInitial(() -> newCipher(LEGACY_TRANSFORMATION));
+    private static final ThreadLocal<Cipher> GCM_CIPHER = ThreadLocal.withInitial(() -> newCipher(GCM_TRANSFORMATION));
+
     @Value("${key.aes}")
     private String keyAes;
 
-    public String decrypt(String encryptedText) throws Exception {
-        byte[] decodedKey = keyAes.getBytes("UTF-8");
-        SecretKeySpec secretKey = new SecretKeySpec(decodedKey, ALGORITHM);
+    @Value("${key.aes.gcm.keys:}")
+    private String gcmKeys;
+
+    @Value("${key.aes.gcm.active-id:}")
+    private String activeKeyId;
+
+    private SecretKeySpec legacyKey;
+    private final Map<String, SecretKeySpec> keys = new HashMap<>();
+    private SecretKeySpec activeKey;
+    private byte[] activeHeader;
+
+    private final AtomicLong legacyDecryptions = new AtomicLong();
+
+    /**
+     * Parses the key ring. Without {@code key.aes.gcm.keys} a single key with ID {@value #DERIVED_KEY_ID}
+     * is derived from {@code key.aes}, so existing deployments switch to GCM without new configuration.
+     */
+    @PostConstruct
+    public void init() {
+        legacyKey = new SecretKeySpec(keyAes.getBytes(StandardCharsets.UTF_8), "AES");
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
+        if (gcmKeys == null || gcmKeys.isBlank()) {
+            keys.put(DERIVED_KEY_ID, new SecretKeySpec(sha256("aes-gcm:" + keyAes), "AES"));
+        } else {
+            for (String entry : gcmKeys.split(",")) {
+                String[] parts = entry.trim().split(":", 2);
+                if (parts.length != 2 || !KEY_ID.matcher(parts[0]).matches()) {
+                    throw new IllegalStateException("key.aes.gcm.keys entries must look like <id>:<base64 key>");
+                }
+                byte[] key = Base64.getDecoder().decode(parts[1]);
+                if (key.length != 16 && key.length != 24 && key.length != 32) {
+                    throw new IllegalStateException("AES key " + parts[0] + " must be 128, 192 or 256 bits");
+                }
+                keys.put(parts[0], new SecretKeySpec(key, "AES"));
+            }
+        }
 
-        byte[] decodedEncryptedText = Base64.getDecoder().decode(encryptedText);
-        byte[] decryptedBytes = cipher.doFinal(decodedEncryptedText);
+        String active = activeKeyId == null || activeKeyId.isBlank()
+                ? (keys.size() == 1 ? keys.keySet().iterator().next() : null)
+                : activeKeyId;
+        if (active == null || !keys.containsKey(active)) {
+            throw new IllegalStateException("key.aes.gcm.active-id must name one of the configured keys");
+        }
+        activeKeyId = active;
+        activeKey = keys.get(active);
+        activeHeader = header(active);
+    }
+
+    /**
+     * Decrypts a value produced by {@link #encrypt} or a legacy ECB ciphertext.
+     *
+     * @param encryptedText the stored or received ciphertext
+     * @return the plain text
+     * @throws GeneralSecurityException if the value is malformed, uses an unknown key or fails authentication
+     */
+    public String decrypt(String encryptedText) throws GeneralSecurityException {
+        if (!isVersioned(encryptedText)) {
+            legacyDecryptions.incrementAndGet();
+            byte[] ciphertext;
+            try {
+                ciphertext = Base64.getDecoder().decode(encryptedText);
+            } catch (IllegalArgumentException e) {
+                throw new GeneralSecurityException("Malformed ciphertext", e);
+            }
+            Cipher cipher = LEGACY_CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, legacyKey);
+            return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+        }
+
+        int separator = encryptedText.indexOf(':', VERSION.length() + 1);
+        if (separator < 0) {
+            throw new GeneralSecurityException("Malformed ciphertext");
+        }
+        String keyId = encryptedText.substring(VERSION.length() + 1, separator);
+        SecretKeySpec key = keys.get(keyId);
+        if (key == null) {
+            throw new GeneralSecurityException("Unknown key ID " + keyId);
+        }
 
-        return new String(decryptedBytes, "UTF-8");
+        byte[] payload;
+        try {
+            payload = Base64.getDecoder().decode(encryptedText.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed ciphertext", e);
+        }
+        if (payload.length < IV_LENGTH + TAG_BITS / 8) {
+            throw new GeneralSecurityException("Ciphertext too short");
+        }
+
+        Cipher cipher = GCM_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, payload, 0, IV_LENGTH));
+        cipher.updateAAD(header(keyId));
+        return new String(cipher.doFinal(payload, IV_LENGTH, payload.length - IV_LENGTH), StandardCharsets.UTF_8);
     }
 
-    public String encrypt(String plainText) throws Exception {
-        byte[] decodedKey = keyAes.getBytes("UTF-8");
-        SecretKeySpec secretKey = new SecretKeySpec(decodedKey, ALGORITHM);
+    /**
+     * Encrypts with AES-GCM under the active key and a fresh random IV.
+     *
+     * @param plainText the text to protect
+     * @return {@code v1:<keyId>:<base64(iv | ciphertext | tag)>}
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    public String encrypt(String plainText) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.get().nextBytes(iv);
+
+        Cipher cipher = GCM_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, activeKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(activeHeader);
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
+        System.arraycopy(iv, 0, payload, 0, IV_LENGTH);
+        cipher.doFinal(plain, 0, plain.length, payload, IV_LENGTH);
+        return VERSION + ":" + activeKeyId + ":" + Base64.getEncoder().encodeToString(payload);
+    }
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    /**
+     * @param encryptedText a value accepted by {@link #decrypt}
+     * @return true if the value is legacy ECB or was encrypted under a key other than the active one
+     */
+    public boolean needsReEncryption(String encryptedText) {
+        return !isVersioned(encryptedText)
+                || !encryptedText.startsWith(activeKeyId + ":", VERSION.length() + 1);
+    }
+
+    public long getLegacyDecryptCount() {
+        return legacyDecryptions.get();
+    }
+
+    private static boolean isVersioned(String encryptedText) {
+        return encryptedText.startsWith(VERSION + ":");
+    }
+
+    private static byte[] header(String keyId) {
+        return (VERSION + ":" + keyId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (GeneralSecurityException e) {
+            return new SecureRandom();
+        }
+    }
 
-        byte[] encryptedBytes = cipher.doFinal(plainText.getBytes("UTF-8"));
-        return Base64.getEncoder().encodeToString(encryptedBytes);
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + " is not available", e);
+        }
     }
 }
@@ -0,0 +1,113 @@
+package com.example.ThumbnailTester.util;
+
+import java.util.Arrays;
+
+/**
+ * Reusable columnar buffer for a YouTube Analytics report.
+ * Cells are kept row-major in one {@code double[]}, string cells (dimensions such as {@code video})
+ * in a parallel {@code String[]}; both only grow, so a buffer reused across reports stops allocating
+ * once it has seen the largest one. Columns are looked up by their header name, never by position.
+ */
+public final class AnalyticsReport {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] columnNames = new String[0];
+    private int columnCount;
+    private int rowCount;
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private String[] strings = new String[INITIAL_CAPACITY];
+    private String errorMessage;
+
+    /**
+     * Clears the buffer for the next report, keeping the allocated arrays.
+     */
+    public void reset() {
+        columnNames = new String[0];
+        columnCount = 0;
+        rowCount = 0;
+        errorMessage = null;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Returns the position of the column with the given header name.
+     *
+     * @param name the column name, e.g. {@code views}
+     * @return the column index or -1 if the report has no such column
+     */
+    public int columnIndex(String name) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (name.equals(columnNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(int row, int column) {
+        return column < 0 || Double.isNaN(numbers[row * columnCount + column]) && strings[row * columnCount + column] == null;
+    }
+
+    public double getDouble(int row, int column) {
+        return column < 0 ? Double.NaN : numbers[row * columnCount + column];
+    }
+
+    public long getLong(int row, int column) {
+        return (long) getDouble(row, column);
+    }
+
+    public String getString(int row, int column) {
+        return column < 0 ? null : strings[row * columnCount + column];
+    }
+
+    /**
+     * @return the message of the error object of the response, or null if the request succeeded
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    void setColumnNames(String[] names) {
+        this.columnNames = names;
+    }
+
+    void setColumnCount(int columnCount) {
+        this.columnCount = columnCount;
+    }
+
+    void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Makes room for one more row and returns the offset of its first cell.
+     */
+    int appendRow() {
+        int offset = rowCount * columnCount;
+        int required = offset + columnCount;
+        if (required > numbers.length) {
+            int capacity = Math.max(required, numbers.length * 2);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        Arrays.fill(numbers, offset, required, Double.NaN);
+        Arrays.fill(strings, offset, required, null);
+        rowCount++;
+        return offset;
+    }
+
+    void setNumber(int index, double value) {
+        numbers[index] = value;
+    }
+
+    void setString(int index, String value) {
+        strings[index] = value;
+    }
+}
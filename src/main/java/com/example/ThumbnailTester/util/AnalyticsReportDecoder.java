@@ -0,0 +1,161 @@
+package com.example.ThumbnailTester.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams a YouTube Analytics {@code reports.query} response into an {@link AnalyticsReport}
+ * with the Jackson token parser, without building a JSON tree or boxing any value.
+ * Columns are named from {@code columnHeaders}; rows of any width and count are accepted,
+ * and an {@code error} object is captured instead of failing the parse.
+ */
+public final class AnalyticsReportDecoder {
+    private final JsonFactory jsonFactory;
+
+    public AnalyticsReportDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Decodes one response into the given buffer, replacing what it held before.
+     *
+     * @param in     the response body; it is not closed
+     * @param report the buffer to fill
+     * @return the filled buffer
+     * @throws IOException if the body is not valid JSON
+     */
+    public AnalyticsReport decode(InputStream in, AnalyticsReport report) throws IOException {
+        report.reset();
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Analytics response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "columnHeaders" -> readColumnHeaders(parser, report);
+                    case "rows" -> readRows(parser, report);
+                    case "error" -> readError(parser, report);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return report;
+    }
+
+    private static void readColumnHeaders(JsonParser parser, AnalyticsReport report) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("name".equals(field)) {
+                    name = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            names.add(name);
+        }
+        report.setColumnNames(names.toArray(new String[0]));
+        if (report.getRowCount() == 0) {
+            report.setColumnCount(names.size());
+        } else if (report.getColumnCount() != names.size()) {
+            throw new IOException("Analytics rows have " + report.getColumnCount() + " cells but " + names.size() + " column headers");
+        }
+    }
+
+    private static void readRows(JsonParser parser, AnalyticsReport report) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            if (report.getColumnCount() == 0) {
+                // rows before headers: the first row fixes the width
+                readFirstRow(parser, report);
+                continue;
+            }
+            int offset = report.appendRow();
+            int column = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (column < report.getColumnCount()) {
+                    storeCell(parser, token, report, offset + column);
+                } else {
+                    parser.skipChildren();
+                }
+                column++;
+            }
+        }
+    }
+
+    private static void readFirstRow(JsonParser parser, AnalyticsReport report) throws IOException {
+        List<Object> cells = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.VALUE_STRING) {
+                cells.add(parser.getText());
+            } else if (token.isNumeric()) {
+                cells.add(parser.getDoubleValue());
+            } else {
+                parser.skipChildren();
+                cells.add(null);
+            }
+        }
+        report.setColumnCount(cells.size());
+        int offset = report.appendRow();
+        for (int i = 0; i < cells.size(); i++) {
+            Object cell = cells.get(i);
+            if (cell instanceof String text) {
+                report.setString(offset + i, text);
+            } else if (cell instanceof Double number) {
+                report.setNumber(offset + i, number);
+            }
+        }
+    }
+
+    private static void storeCell(JsonParser parser, JsonToken token, AnalyticsReport report, int index) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            report.setNumber(index, parser.getLongValue());
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            report.setNumber(index, parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_STRING) {
+            report.setString(index, parser.getText());
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void readError(JsonParser parser, AnalyticsReport report) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            report.setErrorMessage(parser.getValueAsString());
+            parser.skipChildren();
+            return;
+        }
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("message".equals(field)) {
+                message = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        report.setErrorMessage(message != null ? message : "Unknown error");
+    }
+}
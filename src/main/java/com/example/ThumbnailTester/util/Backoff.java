@@ -0,0 +1,26 @@
+package com.example.ThumbnailTester.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for rescheduling failed API calls.
+ * The delay doubles with every attempt up to a cap, and half of it is randomized
+ * so that tests throttled at the same moment do not retry in lockstep.
+ */
+public final class Backoff {
+    private Backoff() {
+    }
+
+    /**
+     * @param attempt    the retry number, starting at 1
+     * @param baseMillis the delay of the first retry
+     * @param maxMillis  the cap of the delay
+     * @return a delay in [d/2, d] where d = min(maxMillis, baseMillis * 2^(attempt-1))
+     */
+    public static long delayMillis(int attempt, long baseMillis, long maxMillis) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long delay = Math.min(maxMillis, baseMillis << shift);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.ThumbnailTester.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Reads the format and dimensions of an image from its header without decoding any pixels.
+ * The format is sniffed from the magic bytes; JPEG, PNG, GIF, WebP and BMP headers are parsed directly,
+ * anything else is handed to the matching {@link ImageReader}, which also stops after the header.
+ * Only the stream prefix up to the dimensions is consumed, so a probe can run on a download in progress.
+ */
+public final class ImageProbe {
+    private static final int MAGIC_LENGTH = 12;
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private ImageProbe() {
+    }
+
+    /**
+     * Probes the image at the start of the stream.
+     *
+     * @param in the stream positioned at the first byte of the image; it is not closed
+     * @return the format and dimensions, or null if the data is not a readable image
+     * @throws IOException if the stream fails or ends inside the header
+     */
+    public static ImageInfo probe(InputStream in) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC_LENGTH);
+        DataInputStream data = new DataInputStream(in);
+
+        if (startsWith(magic, PNG_MAGIC) && magic.length == MAGIC_LENGTH) {
+            return probePng(data);
+        }
+        if (magic.length >= 3 && (magic[0] & 0xFF) == 0xFF && (magic[1] & 0xFF) == 0xD8 && (magic[2] & 0xFF) == 0xFF) {
+            return probeJpeg(magic, data);
+        }
+        if (magic.length == MAGIC_LENGTH && startsWithAscii(magic, 0, "GIF8")) {
+            return new ImageInfo(Format.GIF, le16(magic, 6), le16(magic, 8));
+        }
+        if (magic.length == MAGIC_LENGTH && startsWithAscii(magic, 0, "RIFF") && startsWithAscii(magic, 8, "WEBP")) {
+            return probeWebp(data);
+        }
+        if (magic.length == MAGIC_LENGTH && startsWithAscii(magic, 0, "BM")) {
+            return probeBmp(data);
+        }
+        return probeWithReader(new SequenceInputStream(new ByteArrayInputStream(magic), in));
+    }
+
+    private static ImageInfo probePng(DataInputStream data) throws IOException {
+        // the magic bytes cover the signature and the IHDR length; the chunk type comes next
+        byte[] chunkType = readFully(data, 4);
+        if (!startsWithAscii(chunkType, 0, "IHDR")) {
+            return null;
+        }
+        return new ImageInfo(Format.PNG, data.readInt(), data.readInt());
+    }
+
+    private static ImageInfo probeJpeg(byte[] magic, DataInputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(magic, 2, magic.length - 2), in));
+        while (true) {
+            int marker = nextMarker(data);
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan before any frame header
+                return null;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                continue;
+            }
+            int length = data.readUnsignedShort();
+            if (length < 2) {
+                return null;
+            }
+            if (isStartOfFrame(marker)) {
+                data.skipNBytes(1);
+                int height = data.readUnsignedShort();
+                int width = data.readUnsignedShort();
+                return new ImageInfo(Format.JPEG, width, height);
+            }
+            data.skipNBytes(length - 2);
+        }
+    }
+
+    private static int nextMarker(DataInputStream data) throws IOException {
+        int b = data.readUnsignedByte();
+        while (b != 0xFF) {
+            b = data.readUnsignedByte();
+        }
+        while (b == 0xFF) {
+            b = data.readUnsignedByte();
+        }
+        return b;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageInfo probeWebp(DataInputStream data) throws IOException {
+        byte[] chunk = data.readNBytes(8);
+        if (chunk.length < 8) {
+            throw new EOFException("WebP chunk header truncated");
+        }
+        if (startsWithAscii(chunk, 0, "VP8 ")) {
+            byte[] frame = readFully(data, 10);
+            return new ImageInfo(Format.WEBP, le16(frame, 6) & 0x3FFF, le16(frame, 8) & 0x3FFF);
+        }
+        if (startsWithAscii(chunk, 0, "VP8L")) {
+            byte[] header = readFully(data, 5);
+            int bits = (header[1] & 0xFF) | (header[2] & 0xFF) << 8 | (header[3] & 0xFF) << 16 | (header[4] & 0xFF) << 24;
+            return new ImageInfo(Format.WEBP, (bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+        }
+        if (startsWithAscii(chunk, 0, "VP8X")) {
+            byte[] header = readFully(data, 10);
+            return new ImageInfo(Format.WEBP, le24(header, 4) + 1, le24(header, 7) + 1);
+        }
+        return null;
+    }
+
+    private static ImageInfo probeBmp(DataInputStream data) throws IOException {
+        // magic covers the file header up to offset 12; width and height sit at offsets 18 and 22
+        byte[] header = readFully(data, 14);
+        int width = le32(header, 6);
+        int height = le32(header, 10);
+        return new ImageInfo(Format.BMP, width, Math.abs(height));
+    }
+
+    private static ImageInfo probeWithReader(InputStream in) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            if (stream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new ImageInfo(Format.OTHER, reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static byte[] readFully(DataInputStream data, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static boolean startsWithAscii(byte[] bytes, int offset, String prefix) {
+        if (bytes.length < offset + prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int le16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int le24(byte[] bytes, int offset) {
+        return le16(bytes, offset) | (bytes[offset + 2] & 0xFF) << 16;
+    }
+
+    private static int le32(byte[] bytes, int offset) {
+        return le24(bytes, offset) | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    public enum Format {
+        JPEG("image/jpeg"),
+        PNG("image/png"),
+        GIF("image/gif"),
+        WEBP("image/webp"),
+        BMP("image/bmp"),
+        OTHER("application/octet-stream");
+
+        private final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    public static final class ImageInfo {
+        private final Format format;
+        private final int width;
+        private final int height;
+
+        private ImageInfo(Format format, int width, int height) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+-- YouTube quota units spent per API and quota day (midnight to midnight Pacific time), shared by all nodes.
+-- Every call adds its cost with a conditional upsert, so the nodes together never spend more than the daily quota.
+CREATE TABLE youtube_quota_usage
+(
+    api        VARCHAR(32) NOT NULL,
+    quota_day  DATE        NOT NULL,
+    used_units BIGINT      NOT NULL,
+    PRIMARY KEY (api, quota_day)
+);
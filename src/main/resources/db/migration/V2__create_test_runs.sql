@@ -0,0 +1,13 @@
+-- Table test_runs: persisted lifecycle state of each running test
+CREATE TABLE test_runs
+(
+    id                BIGSERIAL PRIMARY KEY,
+    thumbnail_id      BIGINT      NOT NULL UNIQUE,
+    state             VARCHAR(50) NOT NULL,
+    current_option_id BIGINT,
+    slot_started_on   DATE,
+    confirm_deadline  TIMESTAMP,
+    next_fire_at      TIMESTAMP,
+    updated_at        TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (thumbnail_id) REFERENCES thumbnails (id) ON DELETE CASCADE
+);
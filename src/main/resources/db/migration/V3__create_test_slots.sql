@@ -0,0 +1,22 @@
+-- When the interim result of a run is due; cleared once it has been sent
+ALTER TABLE test_runs
+    ADD COLUMN result_due_at TIMESTAMP;
+
+-- Table test_slots: durable queue of image options per run
+CREATE TABLE test_slots
+(
+    id              BIGSERIAL PRIMARY KEY,
+    run_id          BIGINT      NOT NULL,
+    image_option_id BIGINT      NOT NULL,
+    position        INT         NOT NULL,
+    status          VARCHAR(20) NOT NULL,
+    attempts        INT         NOT NULL DEFAULT 0,
+    next_fire_at    TIMESTAMP,
+    updated_at      TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE (run_id, image_option_id),
+    FOREIGN KEY (run_id) REFERENCES test_runs (id) ON DELETE CASCADE,
+    FOREIGN KEY (image_option_id) REFERENCES image_options (id) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_test_slots_run_position ON test_slots (run_id, position);
+CREATE INDEX idx_test_runs_state ON test_runs (state);
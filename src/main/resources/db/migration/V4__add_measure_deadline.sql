@@ -0,0 +1,3 @@
+-- Latest end of the current slot of a METRIC_BASED run; the slot ends earlier once its metric target is reached
+ALTER TABLE test_runs
+    ADD COLUMN measure_deadline TIMESTAMP;
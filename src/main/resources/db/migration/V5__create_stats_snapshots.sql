@@ -0,0 +1,20 @@
+-- Table thumbnail_stats_snapshot: periodic stats samples of the option in a slot, range-partitioned by month.
+-- Monthly partitions are created ahead of time by the application; the default partition catches stragglers.
+CREATE TABLE thumbnail_stats_snapshot
+(
+    run_id                  BIGINT    NOT NULL,
+    image_option_id         BIGINT    NOT NULL,
+    sampled_at              TIMESTAMP NOT NULL,
+    views                   INT,
+    average_view_duration   DOUBLE PRECISION,
+    comments                INT,
+    shares                  INT,
+    likes                   INT,
+    subscribers_gained      INT,
+    average_view_percentage DOUBLE PRECISION,
+    total_watch_time        BIGINT
+) PARTITION BY RANGE (sampled_at);
+
+CREATE TABLE thumbnail_stats_snapshot_default PARTITION OF thumbnail_stats_snapshot DEFAULT;
+
+CREATE INDEX idx_stats_snapshot_run_option_time ON thumbnail_stats_snapshot (run_id, image_option_id, sampled_at);
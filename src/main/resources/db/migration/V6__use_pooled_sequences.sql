@@ -0,0 +1,38 @@
+-- Pooled sequences for the JPA entities, so Hibernate can assign ids in memory and batch the inserts.
+-- Hibernate reserves the ids (value - 49 .. value) for every nextval, so each sequence starts 50 above the
+-- highest existing id. Column defaults use the same sequences; plain SQL inserts still get unique ids.
+CREATE SEQUENCE users_seq INCREMENT BY 50;
+SELECT setval('users_seq', COALESCE((SELECT MAX(id) FROM users), 0) + 50, false);
+ALTER TABLE users ALTER COLUMN id SET DEFAULT nextval('users_seq');
+ALTER SEQUENCE users_seq OWNED BY users.id;
+DROP SEQUENCE users_id_seq;
+
+CREATE SEQUENCE thumbnails_seq INCREMENT BY 50;
+SELECT setval('thumbnails_seq', COALESCE((SELECT MAX(id) FROM thumbnails), 0) + 50, false);
+ALTER TABLE thumbnails ALTER COLUMN id SET DEFAULT nextval('thumbnails_seq');
+ALTER SEQUENCE thumbnails_seq OWNED BY thumbnails.id;
+DROP SEQUENCE thumbnails_id_seq;
+
+CREATE SEQUENCE image_options_seq INCREMENT BY 50;
+SELECT setval('image_options_seq', COALESCE((SELECT MAX(id) FROM image_options), 0) + 50, false);
+ALTER TABLE image_options ALTER COLUMN id SET DEFAULT nextval('image_options_seq');
+ALTER SEQUENCE image_options_seq OWNED BY image_options.id;
+DROP SEQUENCE image_options_id_seq;
+
+CREATE SEQUENCE thumbnail_stats_seq INCREMENT BY 50;
+SELECT setval('thumbnail_stats_seq', COALESCE((SELECT MAX(id) FROM thumbnail_stats), 0) + 50, false);
+ALTER TABLE thumbnail_stats ALTER COLUMN id SET DEFAULT nextval('thumbnail_stats_seq');
+ALTER SEQUENCE thumbnail_stats_seq OWNED BY thumbnail_stats.id;
+DROP SEQUENCE thumbnail_stats_id_seq;
+
+CREATE SEQUENCE thumbnail_test_config_seq INCREMENT BY 50;
+SELECT setval('thumbnail_test_config_seq', COALESCE((SELECT MAX(id) FROM thumbnail_test_config), 0) + 50, false);
+ALTER TABLE thumbnail_test_config ALTER COLUMN id SET DEFAULT nextval('thumbnail_test_config_seq');
+ALTER SEQUENCE thumbnail_test_config_seq OWNED BY thumbnail_test_config.id;
+DROP SEQUENCE thumbnail_test_config_id_seq;
+
+CREATE SEQUENCE test_runs_seq INCREMENT BY 50;
+SELECT setval('test_runs_seq', COALESCE((SELECT MAX(id) FROM test_runs), 0) + 50, false);
+ALTER TABLE test_runs ALTER COLUMN id SET DEFAULT nextval('test_runs_seq');
+ALTER SEQUENCE test_runs_seq OWNED BY test_runs.id;
+DROP SEQUENCE test_runs_id_seq;
@@ -0,0 +1,21 @@
+-- Indexes for the foreign keys and lookups of the repositories, so none of them scans a whole table once it grows.
+-- Not built CONCURRENTLY: Flyway keeps a transaction open on its own connection during migrate, which a concurrent
+-- build waits for forever. Writes to each table are blocked while its index is built.
+
+-- ThumbnailRepository.getThumbnailByUserId and the history pages: user_id = ? AND id < ? ORDER BY id DESC
+CREATE INDEX idx_thumbnails_user_id_id ON thumbnails (user_id, id);
+
+-- ThumbnailRepository.findByVideoUrl
+CREATE INDEX idx_thumbnails_video_url ON thumbnails (video_url);
+
+-- Options of a test (cascades, fetch joins, history options, winner flags), in option order
+CREATE INDEX idx_image_options_thumbnail_id_id ON image_options (thumbnail_id, id);
+
+-- Stats of an option; thumbnail_stats.thumbnail_id references image_options
+CREATE INDEX idx_thumbnail_stats_thumbnail_id ON thumbnail_stats (thumbnail_id);
+
+-- Cascade deletes of options into their queue slots
+CREATE INDEX idx_test_slots_image_option_id ON test_slots (image_option_id);
+
+-- TestRunRepository.findAllByStateNotIn(FINISHED, FAILED) on startup: only the few unfinished runs are indexed
+CREATE INDEX idx_test_runs_unfinished ON test_runs (id) WHERE state NOT IN ('FINISHED', 'FAILED');
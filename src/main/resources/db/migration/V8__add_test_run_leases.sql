@@ -0,0 +1,17 @@
+-- Clustered mode: the node executing a run and until when it holds the run. A run whose lease is null or expired
+-- is claimed by the next node with capacity; owner_node stays set after a release so late writes of the old owner
+-- still match until another node takes over.
+ALTER TABLE test_runs
+    ADD COLUMN owner_node VARCHAR(255);
+ALTER TABLE test_runs
+    ADD COLUMN lease_expires_at TIMESTAMP;
+
+-- WebSocket messages too large for a NOTIFY payload; the notification carries the row id
+CREATE TABLE websocket_relay
+(
+    id         BIGSERIAL PRIMARY KEY,
+    payload    TEXT      NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_websocket_relay_created_at ON websocket_relay (created_at);
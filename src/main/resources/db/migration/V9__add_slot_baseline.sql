@@ -0,0 +1,11 @@
+-- Totals of the video under test when the current slot started measuring; every poll of the slot subtracts them
+-- from the video's totals, so the slot only counts what happened while its option was live
+ALTER TABLE test_runs
+    ADD COLUMN baseline_views INT,
+    ADD COLUMN baseline_average_view_duration DOUBLE PRECISION,
+    ADD COLUMN baseline_comments INT,
+    ADD COLUMN baseline_shares INT,
+    ADD COLUMN baseline_likes INT,
+    ADD COLUMN baseline_subscribers_gained INT,
+    ADD COLUMN baseline_average_view_percentage DOUBLE PRECISION,
+    ADD COLUMN baseline_total_watch_time BIGINT;
@@ -0,0 +1,43 @@
+package com.example.ThumbnailTester;
+
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * Postgres for tests that need the real database: the scratch database given by {@code -Dplancheck.url}
+ * (with {@code plancheck.user} and {@code plancheck.password}), or else a Postgres 15 container shared by all
+ * tests of the run. Tests using it are skipped when neither is available.
+ */
+public final class PostgresTestDatabase {
+    private static final String URL = System.getProperty("plancheck.url");
+
+    private static PostgreSQLContainer<?> container;
+
+    private PostgresTestDatabase() {
+    }
+
+    public static boolean isAvailable() {
+        return URL != null || DockerClientFactory.instance().isDockerAvailable();
+    }
+
+    public static String getJdbcUrl() {
+        return URL != null ? URL : container().getJdbcUrl();
+    }
+
+    public static String getUsername() {
+        return URL != null ? System.getProperty("plancheck.user", "postgres") : container().getUsername();
+    }
+
+    public static String getPassword() {
+        return URL != null ? System.getProperty("plancheck.password", "postgres") : container().getPassword();
+    }
+
+    private static synchronized PostgreSQLContainer<?> container() {
+        if (container == null) {
+            // same major version as docker-compose
+            container = new PostgreSQLContainer<>("postgres:15");
+            container.start();
+        }
+        return container;
+    }
+}
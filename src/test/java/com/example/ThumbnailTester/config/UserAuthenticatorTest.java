@@ -0,0 +1,115 @@
+package com.example.ThumbnailTester.config;
+
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.services.AccessTokenService;
+import com.example.ThumbnailTester.services.UserService;
+import com.example.ThumbnailTester.util.AESUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class UserAuthenticatorTest {
+    private static final String GOOGLE_ID = "google-1";
+
+    private final UserService userService = mock(UserService.class);
+    private final AccessTokenService accessTokenService = mock(AccessTokenService.class);
+    private final AESUtil aesUtil = new AESUtil();
+    private final UserAuthenticator authenticator = new UserAuthenticator();
+
+    @BeforeEach
+    void wire() {
+        ReflectionTestUtils.setField(aesUtil, "keyAes", "0123456789abcdef");
+        ReflectionTestUtils.setField(aesUtil, "gcmKeys", "");
+        ReflectionTestUtils.setField(aesUtil, "activeKeyId", "");
+        aesUtil.init();
+        ReflectionTestUtils.setField(authenticator, "userService", userService);
+        ReflectionTestUtils.setField(authenticator, "accessTokenService", accessTokenService);
+        ReflectionTestUtils.setField(authenticator, "aesUtil", aesUtil);
+    }
+
+    @Test
+    void knownUserWithTheStoredTokenIsAccepted() throws GeneralSecurityException {
+        UserData user = new UserData(GOOGLE_ID, aesUtil.encrypt("refresh-1"));
+        when(userService.getByGoogleId(GOOGLE_ID)).thenReturn(user);
+
+        // a fresh encryption of the same token, as after the stored one was re-encrypted
+        Principal principal = authenticator.authenticate(GOOGLE_ID, aesUtil.encrypt("refresh-1"));
+
+        assertEquals(GOOGLE_ID, principal.getName());
+        verifyNoInteractions(accessTokenService);
+        verify(userService, never()).replaceRefreshToken(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void knownUserWithAReConsentedTokenIsAcceptedAndTheTokenStored() throws GeneralSecurityException {
+        String stored = aesUtil.encrypt("refresh-1");
+        String reConsented = aesUtil.encrypt("refresh-2");
+        UserData user = new UserData(GOOGLE_ID, stored);
+        when(userService.getByGoogleId(GOOGLE_ID)).thenReturn(user);
+        when(accessTokenService.isIssuedTo(GOOGLE_ID, "refresh-2")).thenReturn(true);
+        when(userService.replaceRefreshToken(GOOGLE_ID, stored, reConsented)).thenReturn(true);
+
+        Principal principal = authenticator.authenticate(GOOGLE_ID, reConsented);
+
+        assertEquals(GOOGLE_ID, principal.getName());
+        verify(userService).replaceRefreshToken(GOOGLE_ID, stored, reConsented);
+        verify(accessTokenService).invalidate(user);
+        assertEquals(reConsented, user.getRefreshToken());
+    }
+
+    @Test
+    void knownUserWithAForeignTokenIsRejected() throws GeneralSecurityException {
+        String stored = aesUtil.encrypt("refresh-1");
+        when(userService.getByGoogleId(GOOGLE_ID)).thenReturn(new UserData(GOOGLE_ID, stored));
+        when(accessTokenService.isIssuedTo(GOOGLE_ID, "refresh-of-someone-else")).thenReturn(false);
+
+        assertNull(authenticator.authenticate(GOOGLE_ID, aesUtil.encrypt("refresh-of-someone-else")));
+        verify(userService, never()).replaceRefreshToken(anyString(), anyString(), anyString());
+        verify(accessTokenService, never()).invalidate(any());
+    }
+
+    @Test
+    void unknownUserWithAVerifiedTokenIsRegistered() throws GeneralSecurityException {
+        String encrypted = aesUtil.encrypt("refresh-1");
+        when(accessTokenService.isIssuedTo(GOOGLE_ID, "refresh-1")).thenReturn(true);
+
+        Principal principal = authenticator.authenticate(GOOGLE_ID, encrypted);
+
+        assertEquals(GOOGLE_ID, principal.getName());
+        ArgumentCaptor<UserData> saved = ArgumentCaptor.forClass(UserData.class);
+        verify(userService).save(saved.capture());
+        assertEquals(GOOGLE_ID, saved.getValue().getGoogleId());
+        assertEquals(encrypted, saved.getValue().getRefreshToken());
+    }
+
+    @Test
+    void unknownUserWithAForeignTokenIsRejected() throws GeneralSecurityException {
+        when(accessTokenService.isIssuedTo(GOOGLE_ID, "refresh-of-someone-else")).thenReturn(false);
+
+        assertNull(authenticator.authenticate(GOOGLE_ID, aesUtil.encrypt("refresh-of-someone-else")));
+        verify(userService, never()).save(any());
+    }
+
+    @Test
+    void missingOrUndecryptableTokensAreRejectedWithoutAskingGoogle() {
+        assertNull(authenticator.authenticate(GOOGLE_ID, null));
+        assertNull(authenticator.authenticate(" ", "token"));
+        assertNull(authenticator.authenticate(GOOGLE_ID, "not a ciphertext"));
+        assertNull(authenticator.authenticate(GOOGLE_ID, "v1:0:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        verifyNoInteractions(accessTokenService, userService);
+    }
+}
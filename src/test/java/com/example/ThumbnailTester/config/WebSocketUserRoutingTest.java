@@ -0,0 +1,173 @@
+package com.example.ThumbnailTester.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Routes progress messages through Spring's simple broker and user destination handling, as configured in
+ * {@link WebSocketConfig}, on synchronous channels without sockets, and counts the MESSAGE frames each session gets.
+ * The load test connects 1,000 sessions and compares per-user queues with the global topic they replaced.
+ */
+class WebSocketUserRoutingTest {
+    private static final int SESSIONS = 1000;
+    private static final int SESSIONS_PER_USER = 2;
+    private static final int USERS = SESSIONS / SESSIONS_PER_USER;
+    private static final int MESSAGES = 1000;
+    private static final String QUEUE_PROGRESS = "/queue/thumbnail/progress";
+    private static final String TOPIC_PROGRESS = "/topic/thumbnail/progress";
+
+    private final ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final DefaultSimpUserRegistry userRegistry = new DefaultSimpUserRegistry();
+    private final WebSocketAuthInterceptor authInterceptor = new WebSocketAuthInterceptor();
+    private final Map<String, String> sessionOwners = new HashMap<>();
+    private final Map<String, Integer> framesBySession = new HashMap<>();
+
+    private SimpleBrokerMessageHandler broker;
+    private UserDestinationMessageHandler userDestinations;
+    private long foreignFrames;
+
+    @BeforeEach
+    void startBroker() {
+        // /topic only serves the broadcast baseline; the application no longer has a topic
+        broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, List.of("/queue", "/topic"));
+        userDestinations = new UserDestinationMessageHandler(clientInbound, brokerChannel, new DefaultUserDestinationResolver(userRegistry));
+        broker.start();
+        userDestinations.start();
+        clientOutbound.subscribe(this::deliver);
+    }
+
+    @AfterEach
+    void stopBroker() {
+        userDestinations.stop();
+        broker.stop();
+    }
+
+    @Test
+    void perUserMessagesReachOnlyTheSessionsOfTheirUser() {
+        for (int user = 0; user < USERS; user++) {
+            for (int session = 0; session < SESSIONS_PER_USER; session++) {
+                String sessionId = "session-" + user + "-" + session;
+                String googleId = "user-" + user;
+                connect(sessionId, googleId, "/user" + QUEUE_PROGRESS);
+                // what every client subscribed to before; the interceptor refuses it now
+                clientInbound.send(stomp(StompCommand.SUBSCRIBE, sessionId, TOPIC_PROGRESS, "sub-1", () -> googleId));
+            }
+        }
+        assertEquals(SESSIONS, sessionOwners.size());
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(brokerChannel);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            messagingTemplate.convertAndSend(TOPIC_PROGRESS, "user-" + (i % USERS));
+        }
+        long broadcastFrames = totalFrames();
+        framesBySession.clear();
+        foreignFrames = 0;
+
+        for (int i = 0; i < MESSAGES; i++) {
+            String googleId = "user-" + (i % USERS);
+            messagingTemplate.convertAndSendToUser(googleId, QUEUE_PROGRESS, googleId);
+        }
+        long perUserFrames = totalFrames();
+
+        assertEquals((long) SESSIONS * MESSAGES, broadcastFrames);
+        assertEquals((long) SESSIONS_PER_USER * MESSAGES, perUserFrames);
+        assertEquals(USERS, broadcastFrames / perUserFrames);
+        assertEquals(0, foreignFrames);
+        for (String sessionId : sessionOwners.keySet()) {
+            assertEquals(MESSAGES / USERS, framesBySession.getOrDefault(sessionId, 0), sessionId);
+        }
+    }
+
+    @Test
+    void subscriptionWithAnotherUsersNameGetsNothing() {
+        connect("victim", "user-1", "/user" + QUEUE_PROGRESS);
+        connect("intruder", "user-2", "/user/user-1" + QUEUE_PROGRESS);
+
+        new SimpMessagingTemplate(brokerChannel).convertAndSendToUser("user-1", QUEUE_PROGRESS, "user-1");
+
+        assertEquals(0, foreignFrames);
+        assertEquals(1, framesBySession.getOrDefault("victim", 0));
+        assertEquals(0, framesBySession.getOrDefault("intruder", 0));
+    }
+
+    @Test
+    void subscriptionsOutsideUserDestinationsAreRejected() {
+        assertThrows(MessageDeliveryException.class, () -> authInterceptor.preSend(stomp(StompCommand.SUBSCRIBE, "s", "/queue" + QUEUE_PROGRESS), clientInbound));
+        assertThrows(MessageDeliveryException.class, () -> authInterceptor.preSend(stomp(StompCommand.SUBSCRIBE, "s", TOPIC_PROGRESS), clientInbound));
+        assertThrows(MessageDeliveryException.class, () -> authInterceptor.preSend(stomp(StompCommand.SEND, "s", "/user/user-1" + QUEUE_PROGRESS), clientInbound));
+    }
+
+    private void connect(String sessionId, String googleId, String destination) {
+        Principal principal = () -> googleId;
+        sessionOwners.put(sessionId, googleId);
+        clientInbound.send(frame(SimpMessageType.CONNECT, sessionId, principal, null));
+        userRegistry.onApplicationEvent(new SessionConnectedEvent(this, frame(SimpMessageType.CONNECT_ACK, sessionId, principal, null), principal));
+
+        Message<byte[]> subscribe = stomp(StompCommand.SUBSCRIBE, sessionId, destination, "sub-0", principal);
+        clientInbound.send(authInterceptor.preSend(subscribe, clientInbound));
+    }
+
+    private void deliver(Message<?> message) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        framesBySession.merge(sessionId, 1, Integer::sum);
+        if (!sessionOwners.get(sessionId).equals(String.valueOf(message.getPayload()))) {
+            foreignFrames++;
+        }
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, Principal user, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setUser(user);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private long totalFrames() {
+        return framesBySession.values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    private static Message<byte[]> stomp(StompCommand command, String sessionId, String destination) {
+        return stomp(command, sessionId, destination, "sub-0", null);
+    }
+
+    private static Message<byte[]> stomp(StompCommand command, String sessionId, String destination, String subscriptionId, Principal user) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
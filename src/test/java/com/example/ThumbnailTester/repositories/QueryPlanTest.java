@@ -0,0 +1,258 @@
+package com.example.ThumbnailTester.repositories;
+
+import com.example.ThumbnailTester.PostgresTestDatabase;
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestSlotStatus;
+import com.example.ThumbnailTester.data.user.UserData;
+import com.example.ThumbnailTester.services.QuotaExceededException;
+import com.example.ThumbnailTester.services.QuotaLedger;
+import com.example.ThumbnailTester.services.StatsSnapshotStore;
+import com.example.ThumbnailTester.services.TestHistoryService;
+import com.example.ThumbnailTester.services.TestQueueStore;
+import com.example.ThumbnailTester.services.TestRunLeaseStore;
+import com.example.ThumbnailTester.services.TestRunService;
+import com.example.ThumbnailTester.services.ThumbnailService;
+import com.example.ThumbnailTester.services.ThumbnailStatsService;
+import com.example.ThumbnailTester.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Query plan regression test against a real Postgres. Flyway migrates an empty database, which is then seeded
+ * with generated data (a hundred thousand tests by default). The test calls the repositories and stores the way
+ * the application does, records every statement they send with its parameters, and runs {@code EXPLAIN} on each;
+ * it fails if any plan reads a whole table with a sequential scan.
+ * <p>
+ * Postgres comes from {@link PostgresTestDatabase}: a Testcontainers container, or the test is skipped without
+ * Docker. To use an existing scratch database instead, never the application's:
+ * <pre>
+ * mvn test -Dtest=QueryPlanTest -Dplancheck.url=jdbc:postgresql://localhost:5432/plancheck -Dplancheck.user=postgres -Dplancheck.password=postgres
+ * </pre>
+ * Data is only seeded into an empty database, so later runs reuse it. {@code plancheck.tests} sets the number of
+ * tests; every user has {@code plancheck.tests-per-user} tests with {@code plancheck.options} options each.
+ */
+@SpringBootTest(properties = {
+        "spring.application.name=thumbnail-tester",
+        "application.name=thumbnail-tester",
+        "youtube.client.id=client-id",
+        "youtube.client.secret=client-secret",
+        "youtube.redirect.uri=http://localhost",
+        "key.aes=0123456789abcdef",
+        "spring.jpa.show-sql=false",
+        // fenced writes and leases are only used by clustered nodes; the heartbeat only runs at startup
+        "thumbnail.cluster.enabled=true",
+        "thumbnail.cluster.node-id=plan-node",
+        "thumbnail.cluster.heartbeat-interval-ms=3600000",
+        "thumbnail.cluster.lease-ms=3600000"
+})
+@EnabledIf("com.example.ThumbnailTester.PostgresTestDatabase#isAvailable")
+class QueryPlanTest {
+    private static final long TESTS = Long.getLong("plancheck.tests", 100_000);
+    private static final long TESTS_PER_USER = Long.getLong("plancheck.tests-per-user", 20);
+    private static final long OPTIONS = Long.getLong("plancheck.options", 4);
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private StatementRecorder statementRecorder;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ThumbnailRepository thumbnailRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private TestRunService testRunService;
+
+    @Autowired
+    private TestHistoryService testHistoryService;
+
+    @Autowired
+    private TestQueueStore testQueueStore;
+
+    @Autowired
+    private TestRunLeaseStore testRunLeaseStore;
+
+    @Autowired
+    private ThumbnailStatsService thumbnailStatsService;
+
+    @Autowired
+    private StatsSnapshotStore statsSnapshotStore;
+
+    @Autowired
+    private QuotaLedger quotaLedger;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", PostgresTestDatabase::getJdbcUrl);
+        registry.add("spring.datasource.username", PostgresTestDatabase::getUsername);
+        registry.add("spring.datasource.password", PostgresTestDatabase::getPassword);
+    }
+
+    @TestConfiguration
+    static class RecordingConfig {
+        @Bean
+        static StatementRecorder statementRecorder() {
+            return new StatementRecorder();
+        }
+
+        @Bean
+        static BeanPostProcessor recordingDataSource(StatementRecorder statementRecorder) {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource target ? statementRecorder.wrap(target) : bean;
+                }
+            };
+        }
+    }
+
+    @Test
+    void noQuerySequentiallyScansATable() throws SQLException, QuotaExceededException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM users)", Boolean.class))) {
+            seed(jdbcTemplate);
+        }
+
+        long userId = TESTS / TESTS_PER_USER / 2;
+        String googleId = "user-" + userId;
+        long thumbnailId = TESTS / 2;
+        long optionId = thumbnailId * OPTIONS;
+
+        statementRecorder.start();
+        userService.getByGoogleId(googleId);
+        userRepository.replaceRefreshToken(googleId, "old", "new");
+        thumbnailRepository.getThumbnailByUserId(TESTS / TESTS_PER_USER + 1);
+        thumbnailRepository.findByVideoUrl("https://www.youtube.com/watch?v=" + thumbnailId);
+        thumbnailService.getWithOptions(thumbnailId);
+        testHistoryService.getPage(googleId, null, 50);
+        testRunService.isOwnedBy(thumbnailId, googleId);
+        testRunService.getUnfinished();
+        testRunService.getByIds(List.of(thumbnailId, thumbnailId + 1));
+        TestRun run = testRunService.getByThumbnailId(thumbnailId);
+        testRunLeaseStore.lease(new TestRun());
+
+        testQueueStore.loadSlots(run.getId());
+        testQueueStore.findPendingRun(optionId);
+        testQueueStore.cancelSlot(run.getId(), optionId);
+        testQueueStore.loadCancelled(run.getId());
+        testQueueStore.updateSlot(run.getId(), optionId, TestSlotStatus.DONE, 1, null);
+        testQueueStore.updateRun(run);
+        testQueueStore.flush();
+        List<Long> claimed = testRunLeaseStore.claim(0);
+        testRunLeaseStore.renew(claimed);
+        testRunLeaseStore.release();
+        thumbnailStatsService.markWinner(thumbnailId, optionId);
+        thumbnailStatsService.flush();
+        statsSnapshotStore.downsample(run.getId(), null, LocalDateTime.of(2020, 1, 1, 0, 0), LocalDateTime.of(2020, 1, 2, 0, 0), Duration.ofMinutes(15));
+        quotaLedger.acquire(new UserData(googleId, "token"), QuotaLedger.Operation.VIDEOS_LIST);
+        quotaLedger.getRemainingUnits(QuotaLedger.Api.DATA);
+        statsSnapshotStore.downsample(run.getId(), optionId, LocalDateTime.of(2020, 1, 1, 0, 0), LocalDateTime.of(2020, 1, 2, 0, 0), Duration.ofMinutes(15));
+        List<StatementRecorder.RecordedStatement> statements = statementRecorder.stop();
+
+        // deleting an option makes Postgres look up the rows referencing it
+        List<StatementRecorder.RecordedStatement> checked = new ArrayList<>(statements);
+        checked.add(new StatementRecorder.RecordedStatement("SELECT 1 FROM test_slots WHERE image_option_id = " + optionId, Map.of()));
+        checked.add(new StatementRecorder.RecordedStatement("SELECT 1 FROM thumbnail_stats WHERE thumbnail_id = " + optionId, Map.of()));
+
+        Map<String, String> failures = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (StatementRecorder.RecordedStatement statement : checked) {
+                if (!isExplainable(statement.sql()) || failures.containsKey(statement.sql())) {
+                    continue;
+                }
+                String plan = explain(connection, statement);
+                if (plan.contains("Seq Scan on ")) {
+                    failures.put(statement.sql(), plan);
+                }
+            }
+        }
+
+        assertTrue(statements.size() > 20, "recorded only " + statements.size() + " statements");
+        assertTrue(failures.isEmpty(), () -> failures.size() + " queries scan a whole table:\n\n" + failures.entrySet().stream()
+                .map(failure -> failure.getKey() + "\n" + failure.getValue())
+                .collect(Collectors.joining("\n\n")));
+    }
+
+    private static boolean isExplainable(String sql) {
+        String verb = sql.stripLeading().split("\\s", 2)[0].toLowerCase(Locale.ROOT);
+        return Set.of("select", "with", "insert", "update", "delete").contains(verb);
+    }
+
+    private static String explain(Connection connection, StatementRecorder.RecordedStatement statement) throws SQLException {
+        StringJoiner plan = new StringJoiner("\n");
+        try (PreparedStatement explain = statement.prepare(connection, "EXPLAIN ");
+             ResultSet rs = explain.executeQuery()) {
+            while (rs.next()) {
+                plan.add("    " + rs.getString(1));
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Generates the data set. Ids are given explicitly: test {@code t} has the options
+     * {@code (t - 1) * options + 1 .. t * options}, its run and slots use id {@code t}. One test in a thousand
+     * is still running. One more user has a single test.
+     */
+    private static void seed(JdbcTemplate jdbcTemplate) {
+        long users = Math.max(1, TESTS / TESTS_PER_USER);
+        long options = TESTS * OPTIONS;
+
+        jdbcTemplate.execute("INSERT INTO users (id, google_id, refresh_token) "
+                + "SELECT g, 'user-' || g, 'token' FROM generate_series(1, " + (users + 1) + ") g");
+        jdbcTemplate.execute("INSERT INTO thumbnails (id, video_url, user_id) "
+                + "SELECT g, 'https://www.youtube.com/watch?v=' || g, CASE WHEN g > " + TESTS + " THEN " + (users + 1)
+                + " ELSE 1 + (g - 1) % " + users + " END FROM generate_series(1, " + (TESTS + 1) + ") g");
+        jdbcTemplate.execute("INSERT INTO thumbnail_test_config (id, test_type, testing_mode, testing_by_time_minutes, testing_by_metrics, criterion_of_winner, thumbnail_id) "
+                + "SELECT g, 'THUMBNAIL', 'TIME_BASED', 60, 0, 'VIEWS', g FROM generate_series(1, " + TESTS + ") g");
+        jdbcTemplate.execute("INSERT INTO image_options (id, file_url, is_winner, thumbnail_id) "
+                + "SELECT g, 'https://example.com/' || g || '.jpg', (g - 1) % " + OPTIONS + " = 0, 1 + (g - 1) / " + OPTIONS
+                + " FROM generate_series(1, " + options + ") g");
+        jdbcTemplate.execute("INSERT INTO thumbnail_stats (id, thumbnail_id, views, average_view_duration, total_watch_time) "
+                + "SELECT g, g, (g * 7) % 5000, 30 + g % 90, (g * 3) % 20000 FROM generate_series(1, " + options + ") g");
+        jdbcTemplate.execute("INSERT INTO test_runs (id, thumbnail_id, state) "
+                + "SELECT g, g, CASE WHEN g % 1000 = 0 THEN 'MEASURING' ELSE 'FINISHED' END FROM generate_series(1, " + TESTS + ") g");
+        jdbcTemplate.execute("INSERT INTO test_slots (run_id, image_option_id, position, status) "
+                + "SELECT 1 + (g - 1) / " + OPTIONS + ", g, (g - 1) % " + OPTIONS + ", 'DONE' FROM generate_series(1, " + options + ") g");
+        // lands in the default partition; three samples per option
+        jdbcTemplate.execute("INSERT INTO thumbnail_stats_snapshot (run_id, image_option_id, sampled_at, views) "
+                + "SELECT 1 + (g - 1) / " + OPTIONS + ", g, TIMESTAMP '2020-01-01' + (g % 500000) * INTERVAL '1 minute' + s * INTERVAL '15 minutes', s * 10 "
+                + "FROM generate_series(1, " + options + ") g, generate_series(1, 3) s");
+        jdbcTemplate.execute("ANALYZE");
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.ThumbnailTester.repositories;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Wraps a {@link DataSource} so that every statement the application executes through it is recorded with
+ * the parameters bound to it. A recorded statement can be prepared again on another connection, e.g. under
+ * {@code EXPLAIN}, with the same parameters.
+ */
+final class StatementRecorder {
+    private final List<RecordedStatement> statements = new ArrayList<>();
+    private volatile boolean recording;
+
+    DataSource wrap(DataSource target) {
+        return proxy(DataSource.class, target, (method, args, result) ->
+                result instanceof Connection connection ? proxy(Connection.class, connection, this::onConnection) : result);
+    }
+
+    void start() {
+        recording = true;
+    }
+
+    synchronized List<RecordedStatement> stop() {
+        recording = false;
+        return List.copyOf(statements);
+    }
+
+    private Object onConnection(Method method, Object[] args, Object result) {
+        if (result instanceof PreparedStatement statement && args != null && args[0] instanceof String sql) {
+            return proxy(PreparedStatement.class, statement, new ParameterRecorder(sql));
+        }
+        if (result instanceof Statement statement && method.getName().equals("createStatement")) {
+            return proxy(Statement.class, statement, (m, a, r) -> {
+                if (m.getName().startsWith("execute") && a != null && a[0] instanceof String sql) {
+                    record(new RecordedStatement(sql, Map.of()));
+                }
+                return r;
+            });
+        }
+        return result;
+    }
+
+    private synchronized void record(RecordedStatement statement) {
+        if (recording) {
+            statements.add(statement);
+        }
+    }
+
+    /**
+     * Tracks the parameters of a prepared statement, also across the entries of a batch.
+     */
+    private final class ParameterRecorder implements AfterCall {
+        private final String sql;
+        private final List<Map<Integer, Binding>> batch = new ArrayList<>();
+        private Map<Integer, Binding> bindings = new TreeMap<>();
+
+        ParameterRecorder(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public Object afterCall(Method method, Object[] args, Object result) {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                bindings.put(index, new Binding(method, args));
+            } else if (name.equals("clearParameters")) {
+                bindings = new TreeMap<>();
+            } else if (name.equals("addBatch") && args == null) {
+                batch.add(bindings);
+                bindings = new TreeMap<>(bindings);
+            } else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                batch.forEach(entry -> record(new RecordedStatement(sql, entry)));
+                batch.clear();
+            } else if (name.equals("clearBatch")) {
+                batch.clear();
+            } else if (name.startsWith("execute") && args == null) {
+                record(new RecordedStatement(sql, new TreeMap<>(bindings)));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * An executed statement with the setter calls that bound its parameters, by parameter index.
+     */
+    record RecordedStatement(String sql, Map<Integer, Binding> bindings) {
+
+        /**
+         * Prepares {@code prefix + sql} on the connection and binds the recorded parameters to it.
+         */
+        PreparedStatement prepare(Connection connection, String prefix) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(prefix + sql);
+            for (Binding binding : bindings.values()) {
+                binding.apply(statement);
+            }
+            return statement;
+        }
+    }
+
+    record Binding(Method setter, Object[] args) {
+        void apply(PreparedStatement statement) throws SQLException {
+            try {
+                setter.invoke(statement, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface AfterCall {
+        Object afterCall(Method method, Object[] args, Object result) throws SQLException;
+    }
+
+    private static <T> T proxy(Class<T> type, T target, AfterCall afterCall) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            return afterCall.afterCall(method, args, result);
+        };
+        return type.cast(Proxy.newProxyInstance(StatementRecorder.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
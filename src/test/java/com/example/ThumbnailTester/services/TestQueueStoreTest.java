@@ -0,0 +1,334 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.PostgresTestDatabase;
+import com.example.ThumbnailTester.config.ClusterNode;
+import com.example.ThumbnailTester.data.thumbnail.TestRun;
+import com.example.ThumbnailTester.data.thumbnail.TestRunState;
+import com.example.ThumbnailTester.data.thumbnail.TestSlotStatus;
+import com.example.ThumbnailTester.dto.ImageOption;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Write-behind buffering and retries of {@link TestQueueStore} against a recording {@link JdbcTemplate}, and owner
+ * fencing against Postgres ({@link PostgresTestDatabase}) in a schema of its own.
+ */
+class TestQueueStoreTest {
+    private static final int RUN_STATE = 1;
+    private static final int RUN_CURRENT_OPTION = 2;
+    private static final int RUN_ID = 17;
+    private static final int RUN_OWNER = 18;
+    private static final int SLOT_STATUS = 1;
+    private static final int SLOT_OPTION = 6;
+    private static final int SLOT_OWNER = 7;
+    private static final String SCHEMA = "test_queue_store";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final List<Batch> batches = new ArrayList<>();
+    private int failuresLeft;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void recordBatches() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(this::batchUpdate);
+    }
+
+    @Test
+    void updatesOfARowAreCoalescedIntoTheLatest() {
+        TestQueueStore store = store(false, 500);
+        TestRun run = run(1L, TestRunState.NEXT_OPTION);
+        store.updateRun(run);
+        run.setState(TestRunState.UPLOADING);
+        run.setCurrentOptionId(11L);
+        store.updateRun(run);
+        run.setState(TestRunState.CONFIRMING);
+        store.updateRun(run);
+        store.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+        store.updateSlot(1L, 11L, TestSlotStatus.DONE, 1, null);
+        store.updateSlot(1L, 12L, TestSlotStatus.PENDING, 0, null);
+
+        store.flush();
+
+        List<Map<Integer, Object>> runs = rows("UPDATE test_runs");
+        assertEquals(1, runs.size());
+        assertEquals("CONFIRMING", runs.get(0).get(RUN_STATE));
+        assertEquals(11L, runs.get(0).get(RUN_CURRENT_OPTION));
+        assertEquals(1L, runs.get(0).get(RUN_ID));
+        List<Map<Integer, Object>> slots = rows("UPDATE test_slots");
+        assertEquals(2, slots.size());
+        assertEquals("DONE", slot(slots, 11L).get(SLOT_STATUS));
+        assertEquals("PENDING", slot(slots, 12L).get(SLOT_STATUS));
+    }
+
+    @Test
+    void bufferedUpdateKeepsTheStateItWasGiven() {
+        TestQueueStore store = store(false, 500);
+        TestRun run = run(1L, TestRunState.MEASURING);
+        store.updateRun(run);
+        run.setState(TestRunState.FINISHED);
+
+        store.flush();
+
+        assertEquals("MEASURING", rows("UPDATE test_runs").get(0).get(RUN_STATE));
+    }
+
+    @Test
+    void flushWithoutUpdatesSendsNothing() {
+        store(false, 500).flush();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void fullBufferIsFlushedWithoutWaitingForTheInterval() {
+        TestQueueStore store = store(false, 3);
+        store.updateRun(run(1L, TestRunState.MEASURING));
+        store.updateRun(run(2L, TestRunState.MEASURING));
+        assertTrue(batches.isEmpty());
+
+        store.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+
+        assertEquals(2, rows("UPDATE test_runs").size());
+        assertEquals(1, rows("UPDATE test_slots").size());
+    }
+
+    @Test
+    void failedFlushIsRetriedUnlessANewerUpdateArrived() {
+        TestQueueStore store = store(false, 500);
+        store.updateRun(run(1L, TestRunState.MEASURING));
+        store.updateRun(run(2L, TestRunState.MEASURING));
+        store.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+        failuresLeft = 1;
+
+        store.flush();
+        batches.clear();
+        store.updateRun(run(1L, TestRunState.COLLECTING));
+        store.flush();
+
+        List<Map<Integer, Object>> runs = rows("UPDATE test_runs");
+        assertEquals(2, runs.size());
+        assertEquals("COLLECTING", run(runs, 1L).get(RUN_STATE));
+        assertEquals("MEASURING", run(runs, 2L).get(RUN_STATE));
+        assertEquals("ACTIVE", slot(rows("UPDATE test_slots"), 11L).get(SLOT_STATUS));
+
+        batches.clear();
+        store.flush();
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    void clusteredUpdatesAreFencedByTheOwner() {
+        TestQueueStore store = store(true, 500);
+        store.updateRun(run(1L, TestRunState.MEASURING));
+        store.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+
+        store.flush();
+
+        Batch runs = batch("UPDATE test_runs");
+        assertTrue(runs.sql.endsWith("AND owner_node = ?"), runs.sql);
+        assertEquals("node-a", runs.rows.get(0).get(RUN_OWNER));
+        Batch slots = batch("UPDATE test_slots");
+        assertTrue(slots.sql.contains("r.owner_node = ?"), slots.sql);
+        assertEquals("node-a", slots.rows.get(0).get(SLOT_OWNER));
+    }
+
+    @Test
+    void singleNodeUpdatesAreNotFenced() {
+        TestQueueStore store = store(false, 500);
+        store.updateRun(run(1L, TestRunState.MEASURING));
+        store.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+
+        store.flush();
+
+        assertFalse(batch("UPDATE test_runs").sql.contains("owner_node"));
+        assertFalse(batch("UPDATE test_slots").sql.contains("owner_node"));
+    }
+
+    @Test
+    void onlyTheOwnerUpdatesARunInPostgres() {
+        assumeTrue(PostgresTestDatabase.isAvailable(), "no Postgres for the fencing test");
+        DriverManagerDataSource dataSource = migratedDatabase();
+        JdbcTemplate database = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+
+        TestQueueStore owner = store(database, transactionManager, true, "node-a", 500);
+        ImageOption option = new ImageOption();
+        option.setId(11L);
+        owner.insertSlots(1L, List.of(option));
+
+        TestQueueStore formerOwner = store(database, transactionManager, true, "node-b", 500);
+        formerOwner.updateRun(run(1L, TestRunState.FAILED));
+        formerOwner.updateSlot(1L, 11L, TestSlotStatus.FAILED, 1, null);
+        formerOwner.flush();
+        assertEquals("MEASURING", database.queryForObject("SELECT state FROM test_runs WHERE id = 1", String.class));
+        assertEquals(TestSlotStatus.PENDING, owner.loadSlots(1L).get(0).getStatus());
+
+        owner.updateRun(run(1L, TestRunState.COLLECTING));
+        owner.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+        owner.flush();
+        assertEquals("COLLECTING", database.queryForObject("SELECT state FROM test_runs WHERE id = 1", String.class));
+        assertEquals(TestSlotStatus.ACTIVE, owner.loadSlots(1L).get(0).getStatus());
+
+        // the former owner's updates were dropped, not kept for a retry
+        formerOwner.flush();
+        assertEquals("COLLECTING", database.queryForObject("SELECT state FROM test_runs WHERE id = 1", String.class));
+
+        TestQueueStore singleNode = store(database, transactionManager, false, "node-c", 500);
+        singleNode.updateRun(run(1L, TestRunState.FINISHED));
+        singleNode.flush();
+        assertEquals("FINISHED", database.queryForObject("SELECT state FROM test_runs WHERE id = 1", String.class));
+    }
+
+    @Test
+    void aSlotCancelledByAnotherNodeStaysCancelledInPostgres() {
+        assumeTrue(PostgresTestDatabase.isAvailable(), "no Postgres for the cancellation test");
+        DriverManagerDataSource dataSource = migratedDatabase();
+        JdbcTemplate database = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+
+        TestQueueStore owner = store(database, transactionManager, true, "node-a", 500);
+        ImageOption option = new ImageOption();
+        option.setId(11L);
+        owner.insertSlots(1L, List.of(option));
+
+        TestQueueStore otherNode = store(database, transactionManager, true, "node-b", 500);
+        assertEquals(1L, otherNode.findPendingRun(11L));
+        assertTrue(otherNode.cancelSlot(1L, 11L));
+        assertFalse(otherNode.cancelSlot(1L, 11L));
+        assertNull(otherNode.findPendingRun(11L));
+
+        // the owner polled the option before it saw the cancellation
+        owner.updateSlot(1L, 11L, TestSlotStatus.ACTIVE, 1, null);
+        owner.flush();
+        assertEquals(TestSlotStatus.CANCELLED, owner.loadSlots(1L).get(0).getStatus());
+        assertEquals(List.of(11L), owner.loadCancelled(1L));
+    }
+
+    /**
+     * Migrates a schema of its own and seeds one run of node-a, with option 11 not yet queued.
+     */
+    private static DriverManagerDataSource migratedDatabase() {
+        String url = PostgresTestDatabase.getJdbcUrl();
+        Flyway flyway = Flyway.configure()
+                .dataSource(url, PostgresTestDatabase.getUsername(), PostgresTestDatabase.getPassword())
+                .schemas(SCHEMA)
+                .cleanDisabled(false)
+                .load();
+        flyway.clean();
+        flyway.migrate();
+        DriverManagerDataSource dataSource = new DriverManagerDataSource((url.contains("?") ? url + "&" : url + "?") + "currentSchema=" + SCHEMA,
+                PostgresTestDatabase.getUsername(), PostgresTestDatabase.getPassword());
+        JdbcTemplate database = new JdbcTemplate(dataSource);
+        database.execute("INSERT INTO users (id, google_id, refresh_token) VALUES (1, 'user-1', 'token')");
+        database.execute("INSERT INTO thumbnails (id, video_url, user_id) VALUES (1, 'https://www.youtube.com/watch?v=1', 1)");
+        database.execute("INSERT INTO image_options (id, file_url, thumbnail_id) VALUES (11, 'https://example.com/11.jpg', 1)");
+        database.execute("INSERT INTO test_runs (id, thumbnail_id, state, owner_node) VALUES (1, 1, 'MEASURING', 'node-a')");
+        return dataSource;
+    }
+
+    private Object batchUpdate(InvocationOnMock invocation) throws SQLException {
+        if (failuresLeft > 0) {
+            failuresLeft--;
+            throw new DataAccessResourceFailureException("Connection lost");
+        }
+        String sql = invocation.getArgument(0);
+        Collection<Object> items = invocation.getArgument(1);
+        ParameterizedPreparedStatementSetter<Object> setter = invocation.getArgument(3);
+        List<Map<Integer, Object>> rows = new ArrayList<>();
+        for (Object item : items) {
+            Map<Integer, Object> parameters = new HashMap<>();
+            PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                            parameters.put(index, method.getName().equals("setNull") ? null : args[1]);
+                        }
+                        return null;
+                    });
+            setter.setValues(ps, item);
+            rows.add(parameters);
+        }
+        if (!rows.isEmpty()) {
+            batches.add(new Batch(sql, rows));
+        }
+        return new int[0][];
+    }
+
+    private Batch batch(String sqlPrefix) {
+        List<Batch> matching = batches.stream().filter(b -> b.sql.startsWith(sqlPrefix)).toList();
+        assertEquals(1, matching.size(), sqlPrefix);
+        return matching.get(0);
+    }
+
+    private List<Map<Integer, Object>> rows(String sqlPrefix) {
+        return batches.stream().filter(b -> b.sql.startsWith(sqlPrefix)).flatMap(b -> b.rows.stream()).toList();
+    }
+
+    private static Map<Integer, Object> run(List<Map<Integer, Object>> rows, long runId) {
+        return rows.stream().filter(row -> row.get(RUN_ID).equals(runId)).findFirst().orElseThrow();
+    }
+
+    private static Map<Integer, Object> slot(List<Map<Integer, Object>> rows, long imageOptionId) {
+        return rows.stream().filter(row -> row.get(SLOT_OPTION).equals(imageOptionId)).findFirst().orElseThrow();
+    }
+
+    private TestQueueStore store(boolean clustered, int batchSize) {
+        return store(jdbcTemplate, mock(PlatformTransactionManager.class), clustered, "node-a", batchSize);
+    }
+
+    private static TestQueueStore store(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                        boolean clustered, String nodeId, int batchSize) {
+        ClusterNode clusterNode = new ClusterNode();
+        ReflectionTestUtils.setField(clusterNode, "enabled", clustered);
+        ReflectionTestUtils.setField(clusterNode, "configuredId", nodeId);
+        clusterNode.init();
+
+        TestQueueStore store = new TestQueueStore();
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(store, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(store, "clusterNode", clusterNode);
+        ReflectionTestUtils.setField(store, "batchSize", batchSize);
+        return store;
+    }
+
+    private static TestRun run(long id, TestRunState state) {
+        TestRun run = new TestRun(id, state);
+        run.setId(id);
+        return run;
+    }
+
+    private record Batch(String sql, List<Map<Integer, Object>> rows) {
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.ThumbnailTester.services;
+
+import com.example.ThumbnailTester.data.thumbnail.CriterionOfWinner;
+import com.example.ThumbnailTester.data.thumbnail.ThumbnailStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WinnerDecisionEngineTest {
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final long SEED = 42L;
+
+    private final WinnerDecisionEngine engine = new WinnerDecisionEngine(0.95, 0.01, 3, 4000);
+
+    @Test
+    void viewsPicksTheOptionWithMoreViewsPerHour() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(500, 0, 0, HOUR_MILLIS));
+        evidence.put(2L, evidence(1000, 0, 0, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.VIEWS, evidence, new SplittableRandom(SEED));
+
+        assertEquals(2L, decision.getLeaderId());
+        assertTrue(decision.isDecided());
+        assertTrue(decision.getConfidence() > 0.99);
+        assertTrue(engine.isClearLoser(decision, 1L));
+        assertFalse(engine.isClearLoser(decision, 2L));
+    }
+
+    @Test
+    void viewsAreComparedPerHourOfExposure() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(1200, 0, 0, 2 * HOUR_MILLIS));
+        evidence.put(2L, evidence(900, 0, 0, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.VIEWS, evidence, new SplittableRandom(SEED));
+
+        assertEquals(2L, decision.getLeaderId());
+        assertTrue(decision.isDecided());
+    }
+
+    @Test
+    void equalOptionsAreNotDecided() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(400, 800, 120, HOUR_MILLIS));
+        evidence.put(2L, evidence(400, 800, 120, HOUR_MILLIS));
+
+        for (CriterionOfWinner criterion : new CriterionOfWinner[]{CriterionOfWinner.VIEWS, CriterionOfWinner.WATCH_TIME, CriterionOfWinner.AVD}) {
+            WinnerDecisionEngine.Decision decision = engine.evaluate(criterion, evidence, new SplittableRandom(SEED));
+
+            assertFalse(decision.isDecided(), criterion.name());
+            assertEquals(0.5, decision.getProbabilities().get(1L), 0.05, criterion.name());
+            assertEquals(0.5, decision.getProbabilities().get(2L), 0.05, criterion.name());
+            assertFalse(engine.isClearLoser(decision, 1L) || engine.isClearLoser(decision, 2L), criterion.name());
+        }
+    }
+
+    @Test
+    void watchTimePicksTheOptionWithMoreWatchMinutes() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(300, 900, 180, HOUR_MILLIS));
+        evidence.put(2L, evidence(300, 600, 120, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.WATCH_TIME, evidence, new SplittableRandom(SEED));
+
+        assertEquals(1L, decision.getLeaderId());
+        assertTrue(decision.isDecided());
+    }
+
+    @Test
+    void averageViewDurationPicksTheLongerViews() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(400, 400, 60, HOUR_MILLIS));
+        evidence.put(2L, evidence(400, 800, 120, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.AVD, evidence, new SplittableRandom(SEED));
+
+        assertEquals(2L, decision.getLeaderId());
+        assertTrue(decision.isDecided());
+    }
+
+    @Test
+    void averageViewDurationWithoutViewsIsNotDecided() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(0, 0, 0, HOUR_MILLIS));
+        evidence.put(2L, evidence(3, 6, 120, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.AVD, evidence, new SplittableRandom(SEED));
+
+        assertFalse(decision.isDecided());
+    }
+
+    @Test
+    void sameSeedGivesSameProbabilities() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = new LinkedHashMap<>();
+        evidence.put(1L, evidence(90, 0, 0, HOUR_MILLIS));
+        evidence.put(2L, evidence(100, 0, 0, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision first = engine.evaluate(CriterionOfWinner.VIEWS, evidence, new SplittableRandom(SEED));
+        WinnerDecisionEngine.Decision second = engine.evaluate(CriterionOfWinner.VIEWS, evidence, new SplittableRandom(SEED));
+
+        assertEquals(first.getProbabilities(), second.getProbabilities());
+        assertEquals(first.getLeaderId(), second.getLeaderId());
+    }
+
+    @Test
+    void singleOptionLeadsWithoutBeingDecided() {
+        Map<Long, WinnerDecisionEngine.Evidence> evidence = Map.of(7L, evidence(10, 0, 0, HOUR_MILLIS));
+
+        WinnerDecisionEngine.Decision decision = engine.evaluate(CriterionOfWinner.VIEWS, evidence, new SplittableRandom(SEED));
+
+        assertEquals(7L, decision.getLeaderId());
+        assertEquals(1.0, decision.getConfidence());
+        assertFalse(decision.isDecided());
+    }
+
+    @Test
+    void ctrCriteriaAreNotSupported() {
+        assertTrue(engine.supports(CriterionOfWinner.VIEWS));
+        assertTrue(engine.supports(CriterionOfWinner.WATCH_TIME));
+        assertTrue(engine.supports(CriterionOfWinner.AVD));
+        assertFalse(engine.supports(CriterionOfWinner.CTR));
+        assertFalse(engine.supports(CriterionOfWinner.CTR_ADV));
+    }
+
+    @Test
+    void evidenceSumsSlotsAndWeighsTheAverageByViews() {
+        WinnerDecisionEngine.Evidence evidence = new WinnerDecisionEngine.Evidence();
+        evidence.add(stats(100, 200, 60), HOUR_MILLIS);
+        evidence.add(stats(300, 1200, 120), HOUR_MILLIS / 2);
+        evidence.add(new ThumbnailStats(), HOUR_MILLIS / 2);
+
+        assertEquals(400, evidence.getViews());
+        assertEquals(1400, evidence.getWatchMinutes());
+        assertEquals(105.0, evidence.getAverageViewDuration(), 1e-9);
+        assertEquals(2 * HOUR_MILLIS, evidence.getExposureMillis());
+    }
+
+    private static WinnerDecisionEngine.Evidence evidence(int views, long watchMinutes, double averageViewDuration, long exposureMillis) {
+        WinnerDecisionEngine.Evidence evidence = new WinnerDecisionEngine.Evidence();
+        evidence.add(stats(views, watchMinutes, averageViewDuration), exposureMillis);
+        return evidence;
+    }
+
+    private static ThumbnailStats stats(int views, long watchMinutes, double averageViewDuration) {
+        ThumbnailStats stats = new ThumbnailStats();
+        stats.setViews(views);
+        stats.setTotalWatchTime(watchMinutes);
+        stats.setAverageViewDuration(averageViewDuration);
+        return stats;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.ThumbnailTester.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AESUtilTest {
+    private static final String LEGACY_KEY = "0123456789abcdef";
+    private static final String OLD_KEY = Base64.getEncoder().encodeToString("old-key-of-32-bytes-for-aes-256!".getBytes(StandardCharsets.UTF_8));
+    private static final String NEW_KEY = Base64.getEncoder().encodeToString("new-key-of-32-bytes-for-aes-256!".getBytes(StandardCharsets.UTF_8));
+    private static final String TOKEN = "1//0refresh-token-Ünicode";
+
+    @Test
+    void legacyEcbValueDecrypts() throws Exception {
+        AESUtil aes = aes("", "");
+        // what the client and the former AESUtil produce: the provider default for "AES" is ECB with PKCS5 padding
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(LEGACY_KEY.getBytes(StandardCharsets.UTF_8), "AES"));
+        String legacy = Base64.getEncoder().encodeToString(cipher.doFinal(TOKEN.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(TOKEN, aes.decrypt(legacy));
+        assertTrue(aes.needsReEncryption(legacy));
+        assertEquals(1, aes.getLegacyDecryptCount());
+    }
+
+    @Test
+    void malformedLegacyValueFails() {
+        AESUtil aes = aes("", "");
+
+        assertThrows(GeneralSecurityException.class, () -> aes.decrypt("not base64!"));
+        assertThrows(GeneralSecurityException.class, () -> aes.decrypt(Base64.getEncoder().encodeToString(new byte[5])));
+    }
+
+    @Test
+    void gcmValueRoundTrips() throws GeneralSecurityException {
+        AESUtil aes = aes("", "");
+
+        String encrypted = aes.encrypt(TOKEN);
+
+        assertTrue(encrypted.startsWith("v1:0:"), encrypted);
+        assertEquals(TOKEN, aes.decrypt(encrypted));
+        assertFalse(aes.needsReEncryption(encrypted));
+        assertNotEquals(encrypted, aes.encrypt(TOKEN));
+        assertEquals("", aes.decrypt(aes.encrypt("")));
+    }
+
+    @Test
+    void retiredKeyStillDecryptsAndAsksForReEncryption() throws GeneralSecurityException {
+        String ring = "old:" + OLD_KEY + ",new:" + NEW_KEY;
+        String underOldKey = aes(ring, "old").encrypt(TOKEN);
+        AESUtil rotated = aes(ring, "new");
+
+        assertEquals(TOKEN, rotated.decrypt(underOldKey));
+        assertTrue(rotated.needsReEncryption(underOldKey));
+        String underNewKey = rotated.encrypt(TOKEN);
+        assertTrue(underNewKey.startsWith("v1:new:"), underNewKey);
+        assertFalse(rotated.needsReEncryption(underNewKey));
+    }
+
+    @Test
+    void tamperedTagFailsAuthentication() throws GeneralSecurityException {
+        AESUtil aes = aes("", "");
+        String encrypted = aes.encrypt(TOKEN);
+        int separator = encrypted.lastIndexOf(':') + 1;
+        byte[] payload = Base64.getDecoder().decode(encrypted.substring(separator));
+        payload[payload.length - 1] ^= 1;
+
+        String tampered = encrypted.substring(0, separator) + Base64.getEncoder().encodeToString(payload);
+
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(tampered));
+    }
+
+    @Test
+    void tamperedKeyIdFailsAuthentication() throws GeneralSecurityException {
+        // both IDs hold the same key, so only the authenticated header tells them apart
+        AESUtil aes = aes("a:" + OLD_KEY + ",b:" + OLD_KEY, "a");
+        String encrypted = aes.encrypt(TOKEN);
+
+        String tampered = "v1:b:" + encrypted.substring("v1:a:".length());
+
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(tampered));
+    }
+
+    @Test
+    void unknownKeyIdFails() throws GeneralSecurityException {
+        String encrypted = aes("gone:" + OLD_KEY, "gone").encrypt(TOKEN);
+        AESUtil aes = aes("new:" + NEW_KEY, "new");
+
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class, () -> aes.decrypt(encrypted));
+        assertEquals("Unknown key ID gone", e.getMessage());
+        assertThrows(GeneralSecurityException.class, () -> aes.decrypt("v1:new"));
+    }
+
+    @Test
+    void activeKeyMustBeConfigured() {
+        assertThrows(IllegalStateException.class, () -> aes("a:" + OLD_KEY + ",b:" + NEW_KEY, ""));
+        assertThrows(IllegalStateException.class, () -> aes("a:" + OLD_KEY, "b"));
+        assertThrows(IllegalStateException.class, () -> aes("a:" + Base64.getEncoder().encodeToString(new byte[10]), "a"));
+    }
+
+    private static AESUtil aes(String gcmKeys, String activeKeyId) {
+        AESUtil aes = new AESUtil();
+        ReflectionTestUtils.setField(aes, "keyAes", LEGACY_KEY);
+        ReflectionTestUtils.setField(aes, "gcmKeys", gcmKeys);
+        ReflectionTestUtils.setField(aes, "activeKeyId", activeKeyId);
+        aes.init();
+        return aes;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.ThumbnailTester.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalyticsReportDecoderTest {
+    private final AnalyticsReportDecoder decoder = new AnalyticsReportDecoder(new JsonFactory());
+
+    @Test
+    void decodesColumnsByHeaderName() throws IOException {
+        AnalyticsReport report = decode("""
+                {"kind": "youtubeAnalytics#resultTable",
+                 "columnHeaders": [{"name": "video", "columnType": "DIMENSION", "dataType": "STRING"},
+                                   {"name": "views", "columnType": "METRIC", "dataType": "INTEGER"},
+                                   {"name": "averageViewDuration", "columnType": "METRIC", "dataType": "FLOAT"}],
+                 "rows": [["a1", 120, 35.5], ["b2", 7, 12.25]]}
+                """);
+
+        assertNull(report.getErrorMessage());
+        assertEquals(2, report.getRowCount());
+        assertEquals(3, report.getColumnCount());
+        int video = report.columnIndex("video");
+        int views = report.columnIndex("views");
+        int duration = report.columnIndex("averageViewDuration");
+        assertEquals("a1", report.getString(0, video));
+        assertEquals(120, report.getLong(0, views));
+        assertEquals(35.5, report.getDouble(0, duration));
+        assertEquals("b2", report.getString(1, video));
+        assertEquals(7, report.getLong(1, views));
+        assertEquals(12.25, report.getDouble(1, duration));
+    }
+
+    @Test
+    void reorderedColumnsAreFoundByName() throws IOException {
+        AnalyticsReport report = decode("""
+                {"columnHeaders": [{"name": "views"}, {"name": "likes"}, {"name": "video"}],
+                 "rows": [[120, 4, "a1"]]}
+                """);
+
+        assertEquals(0, report.columnIndex("views"));
+        assertEquals(2, report.columnIndex("video"));
+        assertEquals(120, report.getLong(0, report.columnIndex("views")));
+        assertEquals(4, report.getLong(0, report.columnIndex("likes")));
+        assertEquals("a1", report.getString(0, report.columnIndex("video")));
+    }
+
+    @Test
+    void rowsBeforeHeadersAreKept() throws IOException {
+        AnalyticsReport report = decode("""
+                {"rows": [["a1", 120], ["b2", 7]],
+                 "columnHeaders": [{"name": "video"}, {"name": "views"}]}
+                """);
+
+        assertEquals(2, report.getRowCount());
+        assertEquals("b2", report.getString(1, report.columnIndex("video")));
+        assertEquals(7, report.getLong(1, report.columnIndex("views")));
+        assertEquals(120, report.getLong(0, report.columnIndex("views")));
+    }
+
+    @Test
+    void rowsBeforeHeadersOfAnotherWidthAreRejected() {
+        assertThrows(IOException.class, () -> decode("""
+                {"rows": [["a1", 120]], "columnHeaders": [{"name": "video"}, {"name": "views"}, {"name": "likes"}]}
+                """));
+    }
+
+    @Test
+    void missingRowsGiveAnEmptyReport() throws IOException {
+        AnalyticsReport withoutRows = decode("""
+                {"columnHeaders": [{"name": "video"}, {"name": "views"}]}
+                """);
+        AnalyticsReport emptyRows = decode("""
+                {"columnHeaders": [{"name": "video"}, {"name": "views"}], "rows": []}
+                """);
+
+        assertEquals(0, withoutRows.getRowCount());
+        assertEquals(1, withoutRows.columnIndex("views"));
+        assertEquals(0, emptyRows.getRowCount());
+        assertNull(emptyRows.getErrorMessage());
+    }
+
+    @Test
+    void missingAndNullCellsAreNull() throws IOException {
+        AnalyticsReport report = decode("""
+                {"columnHeaders": [{"name": "video"}, {"name": "views"}, {"name": "likes"}],
+                 "rows": [["a1", null], ["b2", 3, 1, 99]]}
+                """);
+
+        assertEquals(2, report.getRowCount());
+        assertTrue(report.isNull(0, report.columnIndex("views")));
+        assertTrue(report.isNull(0, report.columnIndex("likes")));
+        assertFalse(report.isNull(1, report.columnIndex("likes")));
+        assertEquals(1, report.getLong(1, report.columnIndex("likes")));
+    }
+
+    @Test
+    void unknownColumnsReadAsNull() throws IOException {
+        AnalyticsReport report = decode("""
+                {"columnHeaders": [{"name": "views"}], "rows": [[5]]}
+                """);
+
+        int shares = report.columnIndex("shares");
+        assertEquals(-1, shares);
+        assertTrue(report.isNull(0, shares));
+        assertTrue(Double.isNaN(report.getDouble(0, shares)));
+        assertNull(report.getString(0, shares));
+    }
+
+    @Test
+    void errorObjectIsCaptured() throws IOException {
+        AnalyticsReport report = decode("""
+                {"error": {"code": 403, "message": "Quota exceeded", "errors": [{"reason": "quotaExceeded"}]}}
+                """);
+
+        assertEquals("Quota exceeded", report.getErrorMessage());
+        assertEquals(0, report.getRowCount());
+    }
+
+    @Test
+    void malformedJsonFails() {
+        assertThrows(IOException.class, () -> decode("{\"columnHeaders\": [{\"name\": \"views\"}], \"rows\": [[1, 2"));
+        assertThrows(IOException.class, () -> decode("{\"rows\": [[1,, 2]]}"));
+        assertThrows(IOException.class, () -> decode("[[\"a1\", 120]]"));
+        assertThrows(IOException.class, () -> decode(""));
+    }
+
+    @Test
+    void reusedBufferHoldsOnlyTheLastReport() throws IOException {
+        AnalyticsReport report = new AnalyticsReport();
+        decode("""
+                {"columnHeaders": [{"name": "video"}, {"name": "views"}, {"name": "likes"}],
+                 "rows": [["a1", 1, 2], ["b2", 3, 4], ["c3", 5, 6]]}
+                """, report);
+        decode("""
+                {"columnHeaders": [{"name": "views"}, {"name": "video"}], "rows": [[9, "d4"]]}
+                """, report);
+
+        assertEquals(1, report.getRowCount());
+        assertEquals(2, report.getColumnCount());
+        assertEquals(-1, report.columnIndex("likes"));
+        assertEquals(9, report.getLong(0, report.columnIndex("views")));
+        assertEquals("d4", report.getString(0, report.columnIndex("video")));
+    }
+
+    @Test
+    void largeReportsGrowTheBuffer() throws IOException {
+        StringBuilder json = new StringBuilder("{\"columnHeaders\": [{\"name\": \"video\"}, {\"name\": \"views\"}], \"rows\": [");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i > 0 ? "," : "").append("[\"v").append(i).append("\",").append(i).append(']');
+        }
+        AnalyticsReport report = decode(json.append("]}").toString());
+
+        assertEquals(1000, report.getRowCount());
+        assertEquals("v999", report.getString(999, report.columnIndex("video")));
+        assertEquals(999, report.getLong(999, report.columnIndex("views")));
+    }
+
+    private AnalyticsReport decode(String json) throws IOException {
+        return decode(json, new AnalyticsReport());
+    }
+
+    private AnalyticsReport decode(String json, AnalyticsReport report) throws IOException {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), report);
+    }
+}